@@ -143,6 +143,17 @@ public abstract class AuthCredentials implements Serializable {
         Set<String> scopes) {
       return computeCredential;
     }
+
+    @Override
+    public int hashCode() {
+      return ComputeEngineAuthCredentials.class.hashCode();
+    }
+
+    // credentials of the environment are all the same, so that equal options share an RPC
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ComputeEngineAuthCredentials;
+    }
   }
 
   private static class ApplicationDefaultAuthCredentials extends AuthCredentials {
@@ -165,6 +176,16 @@ public abstract class AuthCredentials implements Serializable {
         Set<String> scopes) {
       return new HttpCredentialsAdapter(googleCredentials);
     }
+
+    @Override
+    public int hashCode() {
+      return ApplicationDefaultAuthCredentials.class.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof ApplicationDefaultAuthCredentials;
+    }
   }
 
   protected abstract HttpRequestInitializer httpRequestInitializer(HttpTransport transport,
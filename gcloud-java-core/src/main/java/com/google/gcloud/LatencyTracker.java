@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the most recent calls of an operation, from which
+ * {@link RetryHelper#runWithHedging} derives when to hedge a call. An instance is typically shared
+ * by all the calls of an operation of a service, such as all its metadata reads.
+ */
+public final class LatencyTracker {
+
+  static final int SAMPLE_COUNT = 128;
+  static final int MIN_SAMPLE_COUNT = 16;
+  // percentiles are recomputed once this many latencies were recorded since the last computation
+  private static final int REFRESH_COUNT = 8;
+
+  private final long[] samples = new long[SAMPLE_COUNT];
+  private int count;
+  private int next;
+  private int recordedSinceRefresh;
+  private double percentile = Double.NaN;
+  private long percentileNanos;
+
+  /**
+   * Records the latency of a call in nanoseconds.
+   */
+  public synchronized void record(long latencyNanos) {
+    samples[next] = latencyNanos;
+    next = (next + 1) % SAMPLE_COUNT;
+    count = Math.min(count + 1, SAMPLE_COUNT);
+    recordedSinceRefresh++;
+  }
+
+  /**
+   * Returns the given percentile of the recent latencies in nanoseconds, or {@code -1} if too few
+   * latencies were recorded to estimate it.
+   */
+  public synchronized long percentileNanos(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100, "percentile must be in [0, 100]");
+    if (count < MIN_SAMPLE_COUNT) {
+      return -1;
+    }
+    if (percentile != this.percentile || recordedSinceRefresh >= REFRESH_COUNT) {
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * count) - 1;
+      percentileNanos = sorted[Math.max(0, Math.min(count - 1, index))];
+      this.percentile = percentile;
+      recordedSinceRefresh = 0;
+    }
+    return percentileNanos;
+  }
+}
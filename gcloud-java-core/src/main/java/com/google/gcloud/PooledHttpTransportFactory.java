@@ -0,0 +1,347 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport factory returning a process-wide transport backed by a pool of keep-alive
+ * connections. All the factories with the same configuration, including deserialized ones, return
+ * the same transport, so that services and channels reuse established connections rather than
+ * opening new ones and repeating TLS handshakes. Connections idle for longer than
+ * {@link #idleConnectionTimeoutMillis()} are closed in the background, before the server or an
+ * intermediate proxy drops them.
+ *
+ * <p>Each call to {@link #create()} takes a reference to the pool, which is released by calling
+ * {@link HttpTransport#shutdown()} on the returned transport. Once all the references are
+ * released the pool is closed, along with its connections and its background eviction, and the
+ * next call to {@link #create()} opens a new pool. Transports that are never shut down keep their
+ * pool open for the lifetime of the process.
+ *
+ * <p>Example usage:
+ * <pre>   {@code
+ *     StorageOptions options = StorageOptions.builder()
+ *         .httpTransportFactory(PooledHttpTransportFactory.builder()
+ *             .maxConnectionsPerRoute(32)
+ *             .build())
+ *         .build();
+ * }</pre>
+ *
+ * @see ServiceOptions.Builder#httpTransportFactory(ServiceOptions.HttpTransportFactory)
+ */
+public final class PooledHttpTransportFactory implements ServiceOptions.HttpTransportFactory {
+
+  private static final long serialVersionUID = -3270178364407392740L;
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 200;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 30_000L;
+
+  // guarded by itself
+  private static final Map<PooledHttpTransportFactory, PooledHttpClient> CLIENTS = new HashMap<>();
+
+  private final int maxConnections;
+  private final int maxConnectionsPerRoute;
+  private final long idleConnectionTimeoutMillis;
+
+  /**
+   * PooledHttpTransportFactory builder.
+   */
+  public static final class Builder {
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+
+    private Builder() {}
+
+    /**
+     * Sets the maximum number of connections in the pool.
+     *
+     * @return the builder.
+     */
+    public Builder maxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of connections in the pool to a single host.
+     *
+     * @return the builder.
+     */
+    public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+      this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+      return this;
+    }
+
+    /**
+     * Sets how long in milliseconds a connection can stay idle in the pool before it is closed.
+     *
+     * @return the builder.
+     */
+    public Builder idleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+      this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+      return this;
+    }
+
+    public PooledHttpTransportFactory build() {
+      return new PooledHttpTransportFactory(this);
+    }
+  }
+
+  /**
+   * The pooled client shared by the factories with the same configuration, counting the
+   * references to it. google-http-client drives the client through the HttpClient 4.0 interface:
+   * the parameters it sets are bridged to the client's configuration, and shutting down its
+   * connection manager releases a reference.
+   */
+  @SuppressWarnings("deprecation")
+  private static final class PooledHttpClient extends CloseableHttpClient {
+
+    private final PooledHttpTransportFactory factory;
+    private final CloseableHttpClient client;
+    private final RequestConfig requestConfig;
+    private final HttpParams params = new BasicHttpParams();
+    private final HttpTransport transport;
+    // guarded by CLIENTS
+    private int references;
+
+    PooledHttpClient(PooledHttpTransportFactory factory, CloseableHttpClient client,
+        RequestConfig requestConfig) {
+      this.factory = factory;
+      this.client = client;
+      this.requestConfig = requestConfig;
+      this.transport = new ApacheHttpTransport(this);
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request,
+        HttpContext context) throws IOException {
+      if (request instanceof HttpRequestBase && ((HttpRequestBase) request).getConfig() == null) {
+        // the timeouts are set as request parameters, which the client would otherwise turn into
+        // a configuration that ignores its defaults
+        HttpParams requestParams = request.getParams();
+        ((HttpRequestBase) request).setConfig(RequestConfig.copy(requestConfig)
+            .setConnectionRequestTimeout((int) ConnManagerParams.getTimeout(requestParams))
+            .setConnectTimeout(HttpConnectionParams.getConnectionTimeout(requestParams))
+            .setSocketTimeout(HttpConnectionParams.getSoTimeout(requestParams))
+            .build());
+      }
+      return client.execute(target, request, context);
+    }
+
+    @Override
+    public HttpParams getParams() {
+      return params;
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+      return new ClientConnectionManager() {
+        @Override
+        public SchemeRegistry getSchemeRegistry() {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection connection, long validDuration,
+            TimeUnit timeUnit) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void closeIdleConnections(long idleTime, TimeUnit timeUnit) {
+          // idle connections are closed in the background
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+          // expired connections are closed in the background
+        }
+
+        @Override
+        public void shutdown() {
+          release();
+        }
+      };
+    }
+
+    @Override
+    public void close() {
+      release();
+    }
+
+    /**
+     * Releases a reference to the client, closing it once no reference is left.
+     */
+    private void release() {
+      synchronized (CLIENTS) {
+        if (references == 0 || --references > 0) {
+          return;
+        }
+        CLIENTS.remove(factory);
+      }
+      try {
+        client.close();
+      } catch (IOException e) {
+        throw Throwables.propagate(e);
+      }
+    }
+  }
+
+  private PooledHttpTransportFactory(Builder builder) {
+    maxConnections = builder.maxConnections;
+    maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+    idleConnectionTimeoutMillis = builder.idleConnectionTimeoutMillis;
+    checkArgument(maxConnections > 0, "maxConnections must be positive");
+    checkArgument(maxConnectionsPerRoute > 0 && maxConnectionsPerRoute <= maxConnections,
+        "maxConnectionsPerRoute must be positive and not greater than maxConnections");
+    checkArgument(idleConnectionTimeoutMillis > 0, "idleConnectionTimeoutMillis must be positive");
+  }
+
+  /**
+   * Returns the maximum number of connections in the pool. Default value is
+   * {@value #DEFAULT_MAX_CONNECTIONS}.
+   */
+  public int maxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Returns the maximum number of connections in the pool to a single host. Default value is
+   * {@value #DEFAULT_MAX_CONNECTIONS_PER_ROUTE}.
+   */
+  public int maxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  /**
+   * Returns how long in milliseconds a connection can stay idle in the pool before it is closed.
+   * Default value is {@value #DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS}.
+   */
+  public long idleConnectionTimeoutMillis() {
+    return idleConnectionTimeoutMillis;
+  }
+
+  /**
+   * Returns the transport shared by the factories with this configuration, creating it if needed.
+   * The caller releases its reference to the transport by calling {@link HttpTransport#shutdown()}.
+   */
+  @Override
+  public HttpTransport create() {
+    synchronized (CLIENTS) {
+      PooledHttpClient client = CLIENTS.get(this);
+      if (client == null) {
+        client = createClient();
+        CLIENTS.put(this, client);
+      }
+      client.references++;
+      return client.transport;
+    }
+  }
+
+  private PooledHttpClient createClient() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+        .setBufferSize(8192)
+        .build());
+    // stale connections are evicted in the background rather than checked before each request
+    RequestConfig requestConfig = RequestConfig.DEFAULT;
+    CloseableHttpClient client = HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        // requests are retried by the services, according to their retry parameters
+        .disableAutomaticRetries()
+        // redirects are followed by google-http-client
+        .disableRedirectHandling()
+        .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+        .evictExpiredConnections()
+        .evictIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS)
+        .build();
+    return new PooledHttpClient(this, client, requestConfig);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maxConnections, maxConnectionsPerRoute, idleConnectionTimeoutMillis);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof PooledHttpTransportFactory)) {
+      return false;
+    }
+    PooledHttpTransportFactory other = (PooledHttpTransportFactory) obj;
+    return maxConnections == other.maxConnections
+        && maxConnectionsPerRoute == other.maxConnectionsPerRoute
+        && idleConnectionTimeoutMillis == other.idleConnectionTimeoutMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxConnections", maxConnections)
+        .add("maxConnectionsPerRoute", maxConnectionsPerRoute)
+        .add("idleConnectionTimeoutMillis", idleConnectionTimeoutMillis)
+        .toString();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+}
@@ -22,15 +22,31 @@ import static java.lang.StrictMath.min;
 import static java.lang.StrictMath.pow;
 import static java.lang.StrictMath.random;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.MoreObjects.ToStringHelper;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.InterruptedIOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +70,18 @@ public class RetryHelper<V> {
 
   private static final ThreadLocal<Context> context = new ThreadLocal<>();
 
+  // the hedge budget is kept in millionths of a hedge, each hedgeable call adding its share
+  private static final long HEDGE_COST = 1_000_000L;
+  // up to this many hedges can be sent in a burst after a period without hedges
+  private static final long MAX_HEDGE_BUDGET = 10 * HEDGE_COST;
+  private static final AtomicLong hedgeBudget = new AtomicLong();
+
+  private static class HedgeExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcloud-java-hedge-%d").build());
+  }
+
   public static class RetryHelperException extends RuntimeException {
 
     private static final long serialVersionUID = -2907061015610448235L;
@@ -194,9 +222,7 @@ public class RetryHelper<V> {
         }
         exception = e;
       }
-      if (attemptNumber >= params.getRetryMaxAttempts()
-          || attemptNumber >= params.getRetryMinAttempts()
-          && stopwatch.elapsed(MILLISECONDS) >= params.getTotalRetryPeriodMillis()) {
+      if (attemptsExhausted()) {
         throw new RetriesExhaustedException(this + ": Too many failures, giving up", exception);
       }
       long sleepDurationMillis = getSleepDuration(params, attemptNumber);
@@ -213,6 +239,69 @@ public class RetryHelper<V> {
     }
   }
 
+  private boolean attemptsExhausted() {
+    return attemptNumber >= params.getRetryMaxAttempts()
+        || attemptNumber >= params.getRetryMinAttempts()
+        && stopwatch.elapsed(MILLISECONDS) >= params.getTotalRetryPeriodMillis();
+  }
+
+  /**
+   * Runs one attempt and, if it fails with a retriable exception, schedules the next attempt on
+   * {@code executor} after the backoff delay instead of sleeping.
+   */
+  private void attemptAsync(final SettableFuture<V> result,
+      final ScheduledExecutorService executor) {
+    if (result.isDone()) {
+      return;
+    }
+    attemptNumber++;
+    Exception exception;
+    Context previousContext = getContext();
+    setContext(new Context(this));
+    try {
+      result.set(callable.call());
+      return;
+    } catch (InterruptedException | InterruptedIOException | ClosedByInterruptException e) {
+      if (!exceptionHandler.shouldRetry(e)) {
+        Thread.currentThread().interrupt();
+        result.setException(new RetryInterruptedException());
+        return;
+      }
+      exception = e;
+    } catch (Exception e) {
+      if (!exceptionHandler.shouldRetry(e)) {
+        result.setException(new NonRetriableException(e));
+        return;
+      }
+      exception = e;
+    } catch (Throwable t) {
+      result.setException(t);
+      return;
+    } finally {
+      setContext(previousContext);
+    }
+    if (attemptsExhausted()) {
+      result.setException(
+          new RetriesExhaustedException(this + ": Too many failures, giving up", exception));
+      return;
+    }
+    long delayMillis = getSleepDuration(params, attemptNumber);
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + ": Attempt #" + attemptNumber + " failed [" + exception
+          + "], retrying in " + delayMillis + " ms");
+    }
+    try {
+      executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          attemptAsync(result, executor);
+        }
+      }, delayMillis, MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      result.setException(e);
+    }
+  }
+
   @VisibleForTesting
   static long getSleepDuration(RetryParams retryParams, int attemptsSoFar) {
     long initialDelay = retryParams.getInitialRetryDelayMillis();
@@ -237,6 +326,130 @@ public class RetryHelper<V> {
     return runWithRetries(callable, params, exceptionHandler, Stopwatch.createUnstarted());
   }
 
+  /**
+   * Runs {@code callable} on {@code executor} with the same retry policy as
+   * {@link #runWithRetries(Callable, RetryParams, ExceptionHandler)}, without blocking any thread.
+   * Attempts run on {@code executor} and each retry is scheduled on it once the backoff delay has
+   * elapsed, rather than sleeping. The returned future fails with the
+   * {@link RetryHelperException} {@code runWithRetries} would throw. Cancelling the future stops
+   * further attempts.
+   */
+  public static <V> ListenableFuture<V> runWithRetriesAsync(Callable<V> callable,
+      RetryParams params, ExceptionHandler exceptionHandler,
+      final ScheduledExecutorService executor) {
+    final RetryHelper<V> retryHelper =
+        new RetryHelper<>(callable, params, exceptionHandler, Stopwatch.createUnstarted());
+    final SettableFuture<V> result = SettableFuture.create();
+    retryHelper.stopwatch.start();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          retryHelper.attemptAsync(result, executor);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.setException(e);
+    }
+    return result;
+  }
+
+  /**
+   * Runs {@code callable} with the same retry policy as
+   * {@link #runWithRetries(Callable, RetryParams, ExceptionHandler)}, hedging it as configured by
+   * {@link RetryParams#getHedgeDelayPercentile()}: if the call has not completed once that
+   * percentile of the latencies in {@code latencies} has elapsed, and the process-wide hedge budget
+   * allows it, a second identical call is started. The result of the first call to succeed is
+   * returned and the other call is cancelled. If both calls fail, the first failure is thrown.
+   * While hedging is enabled, calls run on a shared pool of threads and the calling thread waits
+   * for them.
+   *
+   * <p>{@code callable} must be idempotent and its calls must not share mutable state, such as a
+   * target buffer, as a cancelled call may only stop once it completes.
+   */
+  public static <V> V runWithHedging(final Callable<V> callable, final RetryParams params,
+      final ExceptionHandler exceptionHandler, LatencyTracker latencies)
+      throws RetryHelperException {
+    if (params.getHedgeDelayPercentile() <= 0) {
+      return runWithRetries(callable, params, exceptionHandler);
+    }
+    long start = System.nanoTime();
+    depositHedgeBudget(params.getMaxHedgeRatio());
+    long hedgeDelayNanos = latencies.percentileNanos(params.getHedgeDelayPercentile());
+    if (hedgeDelayNanos < 0) {
+      V value = runWithRetries(callable, params, exceptionHandler);
+      latencies.record(System.nanoTime() - start);
+      return value;
+    }
+    Callable<V> call = new Callable<V>() {
+      @Override
+      public V call() {
+        return runWithRetries(callable, params, exceptionHandler);
+      }
+    };
+    CompletionService<V> calls = new ExecutorCompletionService<>(HedgeExecutorHolder.EXECUTOR);
+    List<Future<V>> started = new ArrayList<>(2);
+    Throwable failure = null;
+    try {
+      started.add(calls.submit(call));
+      Future<V> completed = calls.poll(hedgeDelayNanos, NANOSECONDS);
+      if (completed == null && withdrawHedgeBudget()) {
+        if (log.isLoggable(Level.FINE)) {
+          log.fine(callable + ": no response after " + hedgeDelayNanos + " ns, hedging");
+        }
+        started.add(calls.submit(call));
+      }
+      for (int pending = started.size(); pending > 0; pending--) {
+        if (completed == null) {
+          completed = calls.take();
+        }
+        try {
+          V value = completed.get();
+          latencies.record(System.nanoTime() - start);
+          return value;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+        completed = null;
+      }
+      throw Throwables.propagate(failure);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RetryInterruptedException();
+    } finally {
+      for (Future<V> future : started) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private static void depositHedgeBudget(double maxHedgeRatio) {
+    long deposit = (long) (maxHedgeRatio * HEDGE_COST);
+    long budget;
+    do {
+      budget = hedgeBudget.get();
+    } while (budget < MAX_HEDGE_BUDGET
+        && !hedgeBudget.compareAndSet(budget, Math.min(MAX_HEDGE_BUDGET, budget + deposit)));
+  }
+
+  private static boolean withdrawHedgeBudget() {
+    long budget;
+    do {
+      budget = hedgeBudget.get();
+      if (budget < HEDGE_COST) {
+        return false;
+      }
+    } while (!hedgeBudget.compareAndSet(budget, budget - HEDGE_COST));
+    return true;
+  }
+
+  @VisibleForTesting
+  static void resetHedgeBudget() {
+    hedgeBudget.set(0);
+  }
+
   @VisibleForTesting
   static <V> V runWithRetries(Callable<V> callable, RetryParams params,
       ExceptionHandler exceptionHandler, Stopwatch stopwatch) throws RetryHelperException {
@@ -42,6 +42,12 @@ import java.util.Objects;
  * release to release. If you require specific settings, explicitly create an instance of
  * {@code RetryParams} with all the required settings.
  *
+ * <p>Idempotent reads can also be hedged: if a call has not answered once
+ * {@code hedgeDelayPercentile} percent of the previous calls of the same operation had, a second
+ * identical call is sent, the first response is used and the other call is cancelled. Hedges are
+ * limited to about {@code maxHedgeRatio} of the hedgeable calls made by the process, so that
+ * hedging does not amplify an overload. Hedging is disabled by default.
+ *
  * @see RetryHelper
  */
 public final class RetryParams implements Serializable {
@@ -54,6 +60,8 @@ public final class RetryParams implements Serializable {
   public static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = 10_000L;
   public static final double DEFAULT_RETRY_DELAY_BACKOFF_FACTOR = 2.0;
   public static final long DEFAULT_TOTAL_RETRY_PERIOD_MILLIS = 50_000L;
+  public static final double DEFAULT_HEDGE_DELAY_PERCENTILE = 0.0;
+  public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
 
   private final int retryMinAttempts;
   private final int retryMaxAttempts;
@@ -61,6 +69,8 @@ public final class RetryParams implements Serializable {
   private final long maxRetryDelayMillis;
   private final double retryDelayBackoffFactor;
   private final long totalRetryPeriodMillis;
+  private final double hedgeDelayPercentile;
+  private final double maxHedgeRatio;
 
   private static final RetryParams DEFAULT_INSTANCE = new RetryParams(new Builder());
   private static final RetryParams NO_RETRIES =
@@ -77,6 +87,8 @@ public final class RetryParams implements Serializable {
     private long maxRetryDelayMillis;
     private double retryDelayBackoffFactor;
     private long totalRetryPeriodMillis;
+    private double hedgeDelayPercentile;
+    private double maxHedgeRatio;
 
     private Builder() {
       this(null);
@@ -90,6 +102,8 @@ public final class RetryParams implements Serializable {
         maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
         retryDelayBackoffFactor = DEFAULT_RETRY_DELAY_BACKOFF_FACTOR;
         totalRetryPeriodMillis = DEFAULT_TOTAL_RETRY_PERIOD_MILLIS;
+        hedgeDelayPercentile = DEFAULT_HEDGE_DELAY_PERCENTILE;
+        maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
       } else {
         retryMinAttempts = retryParams.getRetryMinAttempts();
         retryMaxAttempts = retryParams.getRetryMaxAttempts();
@@ -97,6 +111,8 @@ public final class RetryParams implements Serializable {
         maxRetryDelayMillis = retryParams.getMaxRetryDelayMillis();
         retryDelayBackoffFactor = retryParams.getRetryDelayBackoffFactor();
         totalRetryPeriodMillis = retryParams.getTotalRetryPeriodMillis();
+        hedgeDelayPercentile = retryParams.getHedgeDelayPercentile();
+        maxHedgeRatio = retryParams.getMaxHedgeRatio();
       }
     }
 
@@ -166,6 +182,29 @@ public final class RetryParams implements Serializable {
       return this;
     }
 
+    /**
+     * Sets hedgeDelayPercentile, the percentile of the latency of previous calls after which a
+     * hedgeable call is hedged. {@code 0} disables hedging.
+     *
+     * @param hedgeDelayPercentile the hedgeDelayPercentile to set
+     * @return the Builder for chaining
+     */
+    public Builder hedgeDelayPercentile(double hedgeDelayPercentile) {
+      this.hedgeDelayPercentile = hedgeDelayPercentile;
+      return this;
+    }
+
+    /**
+     * Sets maxHedgeRatio, the maximum ratio of hedged calls to hedgeable calls.
+     *
+     * @param maxHedgeRatio the maxHedgeRatio to set
+     * @return the Builder for chaining
+     */
+    public Builder maxHedgeRatio(double maxHedgeRatio) {
+      this.maxHedgeRatio = maxHedgeRatio;
+      return this;
+    }
+
     /**
      * Create an instance of RetryParams with the parameters set in this builder.
      *
@@ -188,6 +227,8 @@ public final class RetryParams implements Serializable {
     maxRetryDelayMillis = builder.maxRetryDelayMillis;
     retryDelayBackoffFactor = builder.retryDelayBackoffFactor;
     totalRetryPeriodMillis = builder.totalRetryPeriodMillis;
+    hedgeDelayPercentile = builder.hedgeDelayPercentile;
+    maxHedgeRatio = builder.maxHedgeRatio;
     checkArgument(retryMinAttempts >= 0, "retryMinAttempts must not be negative");
     checkArgument(retryMaxAttempts >= retryMinAttempts,
         "retryMaxAttempts must not be smaller than retryMinAttempts");
@@ -196,6 +237,9 @@ public final class RetryParams implements Serializable {
         "maxRetryDelayMillis must not be smaller than initialRetryDelayMillis");
     checkArgument(retryDelayBackoffFactor >= 0, "retryDelayBackoffFactor must not be negative");
     checkArgument(totalRetryPeriodMillis >= 0, "totalRetryPeriodMillis must not be negative");
+    checkArgument(hedgeDelayPercentile >= 0 && hedgeDelayPercentile < 100,
+        "hedgeDelayPercentile must be in [0, 100)");
+    checkArgument(maxHedgeRatio >= 0 && maxHedgeRatio <= 1, "maxHedgeRatio must be in [0, 1]");
   }
 
   /**
@@ -257,10 +301,26 @@ public final class RetryParams implements Serializable {
     return totalRetryPeriodMillis;
   }
 
+  /**
+   * Returns the hedgeDelayPercentile. Default value is {@value #DEFAULT_HEDGE_DELAY_PERCENTILE},
+   * which disables hedging.
+   */
+  public double getHedgeDelayPercentile() {
+    return hedgeDelayPercentile;
+  }
+
+  /**
+   * Returns the maxHedgeRatio. Default value is {@value #DEFAULT_MAX_HEDGE_RATIO}.
+   */
+  public double getMaxHedgeRatio() {
+    return maxHedgeRatio;
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(retryMinAttempts, retryMaxAttempts, initialRetryDelayMillis,
-        maxRetryDelayMillis, retryDelayBackoffFactor, totalRetryPeriodMillis);
+        maxRetryDelayMillis, retryDelayBackoffFactor, totalRetryPeriodMillis,
+        hedgeDelayPercentile, maxHedgeRatio);
   }
 
   @Override
@@ -276,7 +336,9 @@ public final class RetryParams implements Serializable {
         && initialRetryDelayMillis == other.initialRetryDelayMillis
         && maxRetryDelayMillis == other.maxRetryDelayMillis
         && retryDelayBackoffFactor == other.retryDelayBackoffFactor
-        && totalRetryPeriodMillis == other.totalRetryPeriodMillis;
+        && totalRetryPeriodMillis == other.totalRetryPeriodMillis
+        && hedgeDelayPercentile == other.hedgeDelayPercentile
+        && maxHedgeRatio == other.maxHedgeRatio;
   }
 
   @Override
@@ -288,6 +350,8 @@ public final class RetryParams implements Serializable {
     toStringHelper.add("maxRetryDelayMillis", maxRetryDelayMillis);
     toStringHelper.add("retryDelayBackoffFactor", retryDelayBackoffFactor);
     toStringHelper.add("totalRetryPeriodMillis", totalRetryPeriodMillis);
+    toStringHelper.add("hedgeDelayPercentile", hedgeDelayPercentile);
+    toStringHelper.add("maxHedgeRatio", maxHedgeRatio);
     return toStringHelper.toString();
   }
 
@@ -25,7 +25,12 @@ import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gcloud.spi.ServiceRpcFactory;
 
 import java.io.BufferedReader;
@@ -43,6 +48,11 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,10 +64,13 @@ public abstract class ServiceOptions<
   private static final String DEFAULT_HOST = "https://www.googleapis.com";
   private static final long serialVersionUID = 1203687993961393350L;
   private static final String PROJECT_ENV_NAME = "GCLOUD_PROJECT";
+  private static final Cache<ServiceOptions<?, ?>, Object> SHARED_RPCS =
+      CacheBuilder.newBuilder().weakValues().build();
 
   private final String projectId;
   private final String host;
   private final HttpTransportFactory httpTransportFactory;
+  private final ExecutorFactory executorFactory;
   private final AuthCredentials authCredentials;
   private final RetryParams retryParams;
   private final ServiceRpcFactory<ServiceRpcT, OptionsT> serviceRpcFactory;
@@ -69,12 +82,25 @@ public abstract class ServiceOptions<
     HttpTransport create();
   }
 
+  /**
+   * Creates the transport of the environment once and returns it to every caller, as transports
+   * are thread-safe and keep their connections alive for reuse.
+   */
   private enum DefaultHttpTransportFactory implements HttpTransportFactory {
 
     INSTANCE;
 
+    private HttpTransport transport;
+
     @Override
-    public HttpTransport create() {
+    public synchronized HttpTransport create() {
+      if (transport == null) {
+        transport = createTransport();
+      }
+      return transport;
+    }
+
+    private static HttpTransport createTransport() {
       // Consider App Engine
       if (appEngineAppId() != null) {
         try {
@@ -93,6 +119,39 @@ public abstract class ServiceOptions<
     }
   }
 
+  /**
+   * A factory for the executor used by the service to run requests in the background (e.g.
+   * parallel reads). Implementations are expected to return a shared executor, callers must not
+   * shut it down.
+   */
+  public interface ExecutorFactory extends Serializable {
+    ScheduledExecutorService get();
+  }
+
+  private enum DefaultExecutorFactory implements ExecutorFactory {
+
+    INSTANCE;
+
+    @Override
+    public ScheduledExecutorService get() {
+      return DefaultExecutorHolder.EXECUTOR;
+    }
+  }
+
+  private static class DefaultExecutorHolder {
+
+    private static final int THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+    private static final ScheduledExecutorService EXECUTOR = createExecutor();
+
+    private static ScheduledExecutorService createExecutor() {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(THREADS,
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcloud-java-%d").build());
+      executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+
   /**
    * A class providing access to the current time in milliseconds. This class is mainly used for
    * testing and will be replaced by Java8's {@code java.time.Clock}.
@@ -140,6 +199,7 @@ public abstract class ServiceOptions<
     private String projectId;
     private String host;
     private HttpTransportFactory httpTransportFactory;
+    private ExecutorFactory executorFactory;
     private AuthCredentials authCredentials;
     private RetryParams retryParams;
     private ServiceRpcFactory<ServiceRpcT, OptionsT> serviceRpcFactory;
@@ -153,9 +213,13 @@ public abstract class ServiceOptions<
       projectId = options.projectId;
       host = options.host;
       httpTransportFactory = options.httpTransportFactory;
+      executorFactory = options.executorFactory;
       authCredentials = options.authCredentials;
       retryParams = options.retryParams;
       serviceRpcFactory = options.serviceRpcFactory;
+      connectTimeout = options.connectTimeout;
+      readTimeout = options.readTimeout;
+      clock = options.clock;
     }
 
     protected abstract ServiceOptions<ServiceRpcT, OptionsT> build();
@@ -198,7 +262,9 @@ public abstract class ServiceOptions<
     }
 
     /**
-     * Sets the transport factory.
+     * Sets the transport factory. If no factory is set, a transport suited to the environment is
+     * created once and shared by all services. {@link PooledHttpTransportFactory} provides a
+     * shared transport with a configurable pool of keep-alive connections.
      *
      * @return the builder.
      */
@@ -207,6 +273,17 @@ public abstract class ServiceOptions<
       return self();
     }
 
+    /**
+     * Sets the factory for the executor used to run background requests. If no factory is set a
+     * process-wide pool of daemon threads is used.
+     *
+     * @return the builder.
+     */
+    public B executorFactory(ExecutorFactory executorFactory) {
+      this.executorFactory = executorFactory;
+      return self();
+    }
+
     /**
      * Sets the service authentication credentials.
      *
@@ -268,6 +345,7 @@ public abstract class ServiceOptions<
     host = firstNonNull(builder.host, defaultHost());
     httpTransportFactory =
         firstNonNull(builder.httpTransportFactory, DefaultHttpTransportFactory.INSTANCE);
+    executorFactory = firstNonNull(builder.executorFactory, DefaultExecutorFactory.INSTANCE);
     authCredentials = firstNonNull(builder.authCredentials, defaultAuthCredentials());
     retryParams = builder.retryParams;
     serviceRpcFactory = builder.serviceRpcFactory;
@@ -412,6 +490,13 @@ public abstract class ServiceOptions<
     return httpTransportFactory;
   }
 
+  /**
+   * Returns the factory for the executor used to run background requests.
+   */
+  public ExecutorFactory executorFactory() {
+    return executorFactory;
+  }
+
   /**
    * Returns the authentication credentials.
    */
@@ -481,24 +566,42 @@ public abstract class ServiceOptions<
   }
 
   protected int baseHashCode() {
-    return Objects.hash(projectId, host, httpTransportFactory, authCredentials, retryParams,
-        serviceRpcFactory, connectTimeout, readTimeout, clock);
+    return Objects.hash(projectId, host, httpTransportFactory, executorFactory, authCredentials,
+        retryParams, serviceRpcFactory, connectTimeout, readTimeout, clock);
   }
 
   protected boolean baseEquals(ServiceOptions<?, ?> other) {
     return Objects.equals(projectId, other.projectId)
         && Objects.equals(host, other.host)
         && Objects.equals(httpTransportFactory, other.httpTransportFactory)
+        && Objects.equals(executorFactory, other.executorFactory)
         && Objects.equals(authCredentials, other.authCredentials)
         && Objects.equals(retryParams, other.retryParams)
         && Objects.equals(serviceRpcFactory, other.serviceRpcFactory)
         && Objects.equals(connectTimeout, other.connectTimeout)
         && Objects.equals(readTimeout, other.readTimeout)
-        && Objects.equals(clock, clock);
+        && Objects.equals(clock, other.clock);
   }
 
   public abstract Builder<ServiceRpcT, OptionsT, ?> toBuilder();
 
+  /**
+   * Returns the service RPC shared by all the options equal to {@code key}, creating it with
+   * {@code factory} if none is in use. An RPC remains shared for as long as it is reachable,
+   * typically from the options holding it, so that the services and channels created from equal
+   * options, including deserialized ones, use a single RPC and its HTTP connections. {@code key}
+   * is retained by the registry and must not reference the RPC: callers pass a copy of their
+   * options rather than the options that will hold the RPC.
+   */
+  @SuppressWarnings("unchecked")
+  protected static <T> T sharedRpc(ServiceOptions<?, ?> key, Callable<T> factory) {
+    try {
+      return (T) SHARED_RPCS.get(key, factory);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   /**
    * Creates a service RPC using a factory loaded by {@link ServiceLoader}.
    */
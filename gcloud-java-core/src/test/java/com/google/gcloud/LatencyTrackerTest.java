@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyTracker}.
+ */
+public class LatencyTrackerTest {
+
+  @Test
+  public void testTooFewLatencies() {
+    LatencyTracker latencies = new LatencyTracker();
+    for (int i = 1; i < LatencyTracker.MIN_SAMPLE_COUNT; i++) {
+      latencies.record(i);
+    }
+    assertEquals(-1, latencies.percentileNanos(50));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyTracker latencies = new LatencyTracker();
+    for (int i = 1; i <= 100; i++) {
+      latencies.record(i);
+    }
+    assertEquals(1, latencies.percentileNanos(0));
+    assertEquals(50, latencies.percentileNanos(50));
+    assertEquals(95, latencies.percentileNanos(95));
+    assertEquals(100, latencies.percentileNanos(100));
+  }
+
+  @Test
+  public void testOldLatenciesAreDropped() {
+    LatencyTracker latencies = new LatencyTracker();
+    for (int i = 0; i < LatencyTracker.SAMPLE_COUNT; i++) {
+      latencies.record(1000);
+    }
+    assertEquals(1000, latencies.percentileNanos(50));
+    for (int i = 0; i < LatencyTracker.SAMPLE_COUNT; i++) {
+      latencies.record(10);
+    }
+    assertEquals(10, latencies.percentileNanos(50));
+  }
+}
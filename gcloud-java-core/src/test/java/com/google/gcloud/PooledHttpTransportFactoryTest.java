@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud;
+
+import static com.google.gcloud.PooledHttpTransportFactory.DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+import static com.google.gcloud.PooledHttpTransportFactory.DEFAULT_MAX_CONNECTIONS;
+import static com.google.gcloud.PooledHttpTransportFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link PooledHttpTransportFactory}.
+ */
+@RunWith(JUnit4.class)
+public class PooledHttpTransportFactoryTest {
+
+  @Test
+  public void testDefaults() {
+    PooledHttpTransportFactory factory = PooledHttpTransportFactory.builder().build();
+    assertEquals(DEFAULT_MAX_CONNECTIONS, factory.maxConnections());
+    assertEquals(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, factory.maxConnectionsPerRoute());
+    assertEquals(DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS, factory.idleConnectionTimeoutMillis());
+  }
+
+  @Test
+  public void testSetters() {
+    PooledHttpTransportFactory factory = PooledHttpTransportFactory.builder()
+        .maxConnections(10)
+        .maxConnectionsPerRoute(5)
+        .idleConnectionTimeoutMillis(1000)
+        .build();
+    assertEquals(10, factory.maxConnections());
+    assertEquals(5, factory.maxConnectionsPerRoute());
+    assertEquals(1000, factory.idleConnectionTimeoutMillis());
+  }
+
+  @Test
+  public void testBadSettings() {
+    PooledHttpTransportFactory.Builder builder = PooledHttpTransportFactory.builder();
+    builder.maxConnections(0);
+    assertBuildFails(builder);
+    builder.maxConnections(10).maxConnectionsPerRoute(11);
+    assertBuildFails(builder);
+    builder.maxConnectionsPerRoute(0);
+    assertBuildFails(builder);
+    builder.maxConnectionsPerRoute(10).idleConnectionTimeoutMillis(0);
+    assertBuildFails(builder);
+  }
+
+  private static void assertBuildFails(PooledHttpTransportFactory.Builder builder) {
+    try {
+      builder.build();
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSharedTransport() throws Exception {
+    PooledHttpTransportFactory factory = PooledHttpTransportFactory.builder()
+        .maxConnectionsPerRoute(7)
+        .build();
+    PooledHttpTransportFactory copy = serializeAndDeserialize(factory);
+    assertEquals(factory, copy);
+    assertEquals(factory.hashCode(), copy.hashCode());
+    assertSame(factory.create(), factory.create());
+    assertSame(factory.create(), copy.create());
+    PooledHttpTransportFactory other = PooledHttpTransportFactory.builder()
+        .maxConnectionsPerRoute(8)
+        .build();
+    assertNotEquals(factory, other);
+    assertNotSame(factory.create(), other.create());
+  }
+
+  @Test
+  public void testShutdownReleasesTransport() throws IOException {
+    PooledHttpTransportFactory factory = PooledHttpTransportFactory.builder()
+        .maxConnectionsPerRoute(9)
+        .build();
+    HttpTransport transport = factory.create();
+    assertSame(transport, factory.create());
+    transport.shutdown();
+    assertSame(transport, factory.create());
+    transport.shutdown();
+    transport.shutdown();
+    // the pool is closed once all the references are released, so a new one is opened
+    HttpTransport other = factory.create();
+    assertNotSame(transport, other);
+    transport.shutdown();
+    assertSame(other, factory.create());
+    other.shutdown();
+    other.shutdown();
+  }
+
+  @Test
+  public void testRequest() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.start();
+    HttpTransport transport = PooledHttpTransportFactory.builder().build().create();
+    try {
+      HttpRequest request = transport.createRequestFactory().buildGetRequest(
+          new GenericUrl("http://localhost:" + server.getAddress().getPort() + "/"));
+      request.setConnectTimeout(1000).setReadTimeout(1000);
+      assertEquals("ok", request.execute().parseAsString());
+    } finally {
+      transport.shutdown();
+      server.stop(0);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends java.io.Serializable> T serializeAndDeserialize(T obj)
+      throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(obj);
+    }
+    try (ObjectInputStream input =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return (T) input.readObject();
+    }
+  }
+}
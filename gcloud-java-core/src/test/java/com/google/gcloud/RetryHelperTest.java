@@ -18,12 +18,15 @@ package com.google.gcloud;
 
 import static java.util.concurrent.Executors.callable;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gcloud.RetryHelper.NonRetriableException;
 import com.google.gcloud.RetryHelper.RetriesExhaustedException;
 
@@ -33,6 +36,10 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -239,6 +246,146 @@ public class RetryHelperTest {
     assertTrue(String.valueOf(sleepDuration), sleepDuration < 25600 && sleepDuration >= 15360);
   }
 
+  @Test
+  public void testRunWithRetriesAsync() throws Exception {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      RetryParams params = RetryParams.builder().initialRetryDelayMillis(0)
+          .retryMaxAttempts(5).build();
+      ExceptionHandler handler = ExceptionHandler.builder()
+          .retryOn(IOException.class).abortOn(RuntimeException.class).build();
+      final AtomicInteger count = new AtomicInteger();
+      ListenableFuture<Integer> result = RetryHelper.runWithRetriesAsync(new Callable<Integer>() {
+        @Override public Integer call() throws IOException {
+          assertEquals(count.incrementAndGet(), RetryHelper.getContext().getAttemptNumber());
+          if (count.get() < 3) {
+            throw new IOException("should be retried");
+          }
+          return count.get();
+        }
+      }, params, handler, executor);
+      assertEquals(3, result.get().intValue());
+      assertNull(RetryHelper.getContext());
+
+      result = RetryHelper.runWithRetriesAsync(new Callable<Integer>() {
+        @Override public Integer call() {
+          throw new NullPointerException("Boo!");
+        }
+      }, params, handler, executor);
+      try {
+        result.get();
+        fail("Exception should have been thrown");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof NonRetriableException);
+        assertEquals("Boo!", ex.getCause().getCause().getMessage());
+      }
+
+      result = RetryHelper.runWithRetriesAsync(new Callable<Integer>() {
+        @Override public Integer call() throws IOException {
+          throw new IOException("always fails");
+        }
+      }, params, handler, executor);
+      try {
+        result.get();
+        fail("Exception should have been thrown");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof RetriesExhaustedException);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static LatencyTracker latencies(long latencyMillis) {
+    LatencyTracker latencies = new LatencyTracker();
+    for (int i = 0; i < LatencyTracker.MIN_SAMPLE_COUNT; i++) {
+      latencies.record(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+    }
+    return latencies;
+  }
+
+  @Test
+  public void testHedging() throws InterruptedException {
+    RetryParams params = RetryParams.builder().hedgeDelayPercentile(50).maxHedgeRatio(1).build();
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    String result = RetryHelper.runWithHedging(new Callable<String>() {
+      @Override
+      public String call() {
+        if (calls.incrementAndGet() > 1) {
+          return "hedge";
+        }
+        try {
+          Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+          cancelled.countDown();
+        }
+        return "primary";
+      }
+    }, params, ExceptionHandler.getDefaultInstance(), latencies(5));
+    assertEquals("hedge", result);
+    assertEquals(2, calls.get());
+    assertTrue(cancelled.await(1, TimeUnit.MINUTES));
+  }
+
+  @Test
+  public void testHedgingFailure() {
+    RetryParams params = RetryParams.builder().retryMaxAttempts(1).retryMinAttempts(1)
+        .hedgeDelayPercentile(50).maxHedgeRatio(1).build();
+    final AtomicInteger calls = new AtomicInteger();
+    try {
+      RetryHelper.runWithHedging(new Callable<String>() {
+        @Override
+        public String call() {
+          calls.incrementAndGet();
+          throw new IllegalStateException("fails");
+        }
+      }, params, ExceptionHandler.getDefaultInstance(), latencies(1000));
+      fail("Exception should have been thrown");
+    } catch (NonRetriableException ex) {
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testHedgingBudget() {
+    RetryHelper.resetHedgeBudget();
+    RetryParams params = RetryParams.builder().hedgeDelayPercentile(50).maxHedgeRatio(0).build();
+    final AtomicInteger calls = new AtomicInteger();
+    String result = RetryHelper.runWithHedging(new Callable<String>() {
+      @Override
+      public String call() throws InterruptedException {
+        calls.incrementAndGet();
+        Thread.sleep(50);
+        return "primary";
+      }
+    }, params, ExceptionHandler.getDefaultInstance(), latencies(1));
+    assertEquals("primary", result);
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testHedgingWithoutLatencies() {
+    RetryParams params = RetryParams.builder().hedgeDelayPercentile(50).maxHedgeRatio(1).build();
+    LatencyTracker latencies = new LatencyTracker();
+    final Thread caller = Thread.currentThread();
+    final AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < LatencyTracker.MIN_SAMPLE_COUNT; i++) {
+      assertEquals(-1, latencies.percentileNanos(50));
+      RetryHelper.runWithHedging(new Callable<Void>() {
+        @Override
+        public Void call() {
+          calls.incrementAndGet();
+          assertSame(caller, Thread.currentThread());
+          return null;
+        }
+      }, params, ExceptionHandler.getDefaultInstance(), latencies);
+    }
+    assertEquals(LatencyTracker.MIN_SAMPLE_COUNT, calls.get());
+    assertFalse(latencies.percentileNanos(50) < 0);
+  }
+
   @Test
   public void testNestedUsage() {
     assertEquals((1 + 3) * 2, invokeNested(3, 2));
@@ -16,7 +16,9 @@
 
 package com.google.gcloud;
 
+import static com.google.gcloud.RetryParams.DEFAULT_HEDGE_DELAY_PERCENTILE;
 import static com.google.gcloud.RetryParams.DEFAULT_INITIAL_RETRY_DELAY_MILLIS;
+import static com.google.gcloud.RetryParams.DEFAULT_MAX_HEDGE_RATIO;
 import static com.google.gcloud.RetryParams.DEFAULT_MAX_RETRY_DELAY_MILLIS;
 import static com.google.gcloud.RetryParams.DEFAULT_RETRY_DELAY_BACKOFF_FACTOR;
 import static com.google.gcloud.RetryParams.DEFAULT_RETRY_MAX_ATTEMPTS;
@@ -50,6 +52,8 @@ public class RetryParamsTest {
       assertEquals(DEFAULT_RETRY_MAX_ATTEMPTS, params.getRetryMaxAttempts());
       assertEquals(DEFAULT_RETRY_MIN_ATTEMPTS, params.getRetryMinAttempts());
       assertEquals(DEFAULT_TOTAL_RETRY_PERIOD_MILLIS, params.getTotalRetryPeriodMillis());
+      assertEquals(DEFAULT_HEDGE_DELAY_PERCENTILE, params.getHedgeDelayPercentile(), 0);
+      assertEquals(DEFAULT_MAX_HEDGE_RATIO, params.getMaxHedgeRatio(), 0);
     }
   }
 
@@ -62,6 +66,8 @@ public class RetryParamsTest {
     builder.retryMinAttempts(107);
     builder.retryMaxAttempts(108);
     builder.totalRetryPeriodMillis(109);
+    builder.hedgeDelayPercentile(95);
+    builder.maxHedgeRatio(0.1);
     RetryParams params1 = builder.build();
     RetryParams params2 = new RetryParams.Builder(params1).build();
     for (RetryParams params : Arrays.asList(params1, params2)) {
@@ -71,6 +77,8 @@ public class RetryParamsTest {
       assertEquals(107, params.getRetryMinAttempts());
       assertEquals(108, params.getRetryMaxAttempts());
       assertEquals(109, params.getTotalRetryPeriodMillis());
+      assertEquals(95, params.getHedgeDelayPercentile(), 0);
+      assertEquals(0.1, params.getMaxHedgeRatio(), 0);
     }
   }
 
@@ -89,6 +97,10 @@ public class RetryParamsTest {
     builder = assertFailure(builder);
     builder.totalRetryPeriodMillis(-1);
     builder = assertFailure(builder);
+    builder.hedgeDelayPercentile(100);
+    builder = assertFailure(builder);
+    builder.maxHedgeRatio(1.5);
+    builder = assertFailure(builder);
     // verify that it is OK for min and max to be equal
     builder.retryMaxAttempts(RetryParams.getDefaultInstance().getRetryMinAttempts());
     builder.maxRetryDelayMillis(RetryParams.getDefaultInstance().getInitialRetryDelayMillis());
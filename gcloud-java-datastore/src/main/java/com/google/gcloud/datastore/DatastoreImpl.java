@@ -25,6 +25,7 @@ import com.google.common.collect.Sets;
 import com.google.gcloud.BaseService;
 import com.google.gcloud.ExceptionHandler;
 import com.google.gcloud.ExceptionHandler.Interceptor;
+import com.google.gcloud.LatencyTracker;
 import com.google.gcloud.RetryHelper;
 import com.google.gcloud.RetryHelper.RetryHelperException;
 import com.google.gcloud.RetryParams;
@@ -68,6 +69,8 @@ final class DatastoreImpl extends BaseService<DatastoreOptions>
   private static final ExceptionHandler EXCEPTION_HANDLER = ExceptionHandler.builder()
       .abortOn(RuntimeException.class, DatastoreRpcException.class)
       .interceptor(EXCEPTION_HANDLER_INTERCEPTOR).build();
+  // latencies of the lookups, which are hedged as configured by the retry parameters
+  private static final LatencyTracker LOOKUP_LATENCIES = new LatencyTracker();
 
   private final DatastoreRpc datastoreRpc;
   private final RetryParams retryParams;
@@ -262,11 +265,11 @@ final class DatastoreImpl extends BaseService<DatastoreOptions>
 
   DatastoreV1.LookupResponse lookup(final DatastoreV1.LookupRequest requestPb) {
     try {
-      return RetryHelper.runWithRetries(new Callable<DatastoreV1.LookupResponse>() {
+      return RetryHelper.runWithHedging(new Callable<DatastoreV1.LookupResponse>() {
         @Override public DatastoreV1.LookupResponse call() throws DatastoreRpcException {
           return datastoreRpc.lookup(requestPb);
         }
-      }, retryParams, EXCEPTION_HANDLER);
+      }, retryParams, EXCEPTION_HANDLER, LOOKUP_LATENCIES);
     } catch (RetryHelperException e) {
       throw DatastoreException.translateAndThrow(e);
     }
@@ -33,6 +33,7 @@ import java.lang.reflect.Method;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 public class DatastoreOptions extends ServiceOptions<DatastoreRpc, DatastoreOptions> {
 
@@ -187,18 +188,26 @@ public class DatastoreOptions extends ServiceOptions<DatastoreRpc, DatastoreOpti
   }
 
   DatastoreRpc datastoreRpc() {
-    if (datastoreRpc != null) {
-      return datastoreRpc;
+    if (datastoreRpc == null) {
+      // deserialized options find the RPC, and connections, of equal options. The key is not
+      // normalized, as normalizing looks the dataset up through an RPC
+      datastoreRpc = sharedRpc(toBuilder().normalizeDataset(false).build(),
+          new Callable<DatastoreRpc>() {
+            @Override
+            public DatastoreRpc call() {
+              return createDatastoreRpc();
+            }
+          });
     }
+    return datastoreRpc;
+  }
+
+  private DatastoreRpc createDatastoreRpc() {
     if (serviceRpcFactory() != null) {
-      datastoreRpc = serviceRpcFactory().create(this);
-    } else {
-      datastoreRpc = createRpc(this, DatastoreRpcFactory.class);
-      if (datastoreRpc == null) {
-        datastoreRpc = new DefaultDatastoreRpc(this);
-      }
+      return serviceRpcFactory().create(this);
     }
-    return datastoreRpc;
+    DatastoreRpc rpc = createRpc(this, DatastoreRpcFactory.class);
+    return rpc != null ? rpc : new DefaultDatastoreRpc(this);
   }
 
   public static DatastoreOptions defaultInstance() {
@@ -35,7 +35,6 @@ import com.google.gcloud.storage.Storage.SignUrlOption;
 import com.google.gcloud.storage.StorageFactory;
 import com.google.gcloud.storage.StorageOptions;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -326,10 +325,12 @@ public class StorageExample {
         System.out.println("No such object");
         return;
       }
-      PrintStream writeTo = System.out;
       if (downloadTo != null) {
-        writeTo = new PrintStream(new FileOutputStream(downloadTo.toFile()));
+        // Ranges of the blob are fetched concurrently and written straight to the file
+        storage.downloadTo(blob.id(), downloadTo);
+        return;
       }
+      PrintStream writeTo = System.out;
       if (blob.info().size() < 1_000_000) {
         // Blob is small read all its content in one request
         byte[] content = blob.content();
@@ -346,11 +347,7 @@ public class StorageExample {
           }
         }
       }
-      if (downloadTo == null) {
-        writeTo.println();
-      } else {
-        writeTo.close();
-      }
+      writeTo.println();
     }
 
     @Override
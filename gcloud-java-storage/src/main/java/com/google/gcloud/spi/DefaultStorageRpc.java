@@ -14,7 +14,9 @@
 
 package com.google.gcloud.spi;
 
+import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.gcloud.spi.StorageRpc.Option.DELIMITER;
+import static com.google.gcloud.spi.StorageRpc.Option.FIELDS;
 import static com.google.gcloud.spi.StorageRpc.Option.IF_GENERATION_MATCH;
 import static com.google.gcloud.spi.StorageRpc.Option.IF_GENERATION_NOT_MATCH;
 import static com.google.gcloud.spi.StorageRpc.Option.IF_METAGENERATION_MATCH;
@@ -28,13 +30,14 @@ import static com.google.gcloud.spi.StorageRpc.Option.PAGE_TOKEN;
 import static com.google.gcloud.spi.StorageRpc.Option.PREDEFINED_ACL;
 import static com.google.gcloud.spi.StorageRpc.Option.PREDEFINED_DEFAULT_OBJECT_ACL;
 import static com.google.gcloud.spi.StorageRpc.Option.PREFIX;
+import static com.google.gcloud.spi.StorageRpc.Option.PROJECTION;
 import static com.google.gcloud.spi.StorageRpc.Option.VERSIONS;
 
 import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
 import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
-import com.google.api.client.googleapis.media.MediaHttpDownloader;
 import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequest;
@@ -59,12 +62,20 @@ import com.google.api.services.storage.model.StorageObject;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
 import com.google.gcloud.storage.StorageException;
 import com.google.gcloud.storage.StorageOptions;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -78,6 +89,7 @@ public class DefaultStorageRpc implements StorageRpc {
 
   // see: https://cloud.google.com/storage/docs/concepts-techniques#practices
   private static final Set<Integer> RETRYABLE_CODES = ImmutableSet.of(504, 503, 502, 500, 429, 408);
+  private static final int HTTP_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
 
   public DefaultStorageRpc(StorageOptions options) {
     HttpTransport transport = options.httpTransportFactory().create();
@@ -89,12 +101,34 @@ public class DefaultStorageRpc implements StorageRpc {
         .build();
   }
 
+  private static String projection(Map<Option, ?> options) {
+    return firstNonNull(PROJECTION.getString(options), DEFAULT_PROJECTION);
+  }
+
+  /**
+   * Returns the partial response selector of a list request, that applies the requested fields to
+   * the listed items and keeps the given fields of the page.
+   */
+  private static String listFields(Map<Option, ?> options, String pageFields) {
+    String fields = FIELDS.getString(options);
+    return fields == null ? null : pageFields + ",items(" + fields + ")";
+  }
+
   private static StorageException translate(IOException exception) {
     StorageException translated;
-    if (exception instanceof GoogleJsonResponseException) {
+    if (exception instanceof GoogleJsonResponseException
+        && ((GoogleJsonResponseException) exception).getDetails() != null) {
       translated = translate(((GoogleJsonResponseException) exception).getDetails());
+    } else if (exception instanceof HttpResponseException) {
+      // responses without an error body, such as 304 Not Modified
+      int code = ((HttpResponseException) exception).getStatusCode();
+      translated =
+          new StorageException(code, exception.getMessage(), RETRYABLE_CODES.contains(code));
     } else {
-      translated = new StorageException(0, exception.getMessage(), false);
+      // connections reset, broken or timed out, as when a connection drops mid-request
+      boolean retryable =
+          exception instanceof SocketException || exception instanceof SocketTimeoutException;
+      translated = new StorageException(0, exception.getMessage(), retryable);
     }
     translated.initCause(exception);
     return translated;
@@ -111,7 +145,7 @@ public class DefaultStorageRpc implements StorageRpc {
     try {
       return storage.buckets()
           .insert(this.options.projectId(), bucket)
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(options))
           .setPredefinedAcl(PREDEFINED_ACL.getString(options))
           .setPredefinedDefaultObjectAcl(PREDEFINED_DEFAULT_OBJECT_ACL.getString(options))
           .execute();
@@ -128,7 +162,7 @@ public class DefaultStorageRpc implements StorageRpc {
           .insert(storageObject.getBucket(), storageObject,
               new InputStreamContent(storageObject.getContentType(), content));
       insert.getMediaHttpUploader().setDirectUploadEnabled(true);
-      return insert.setProjection(DEFAULT_PROJECTION)
+      return insert.setProjection(projection(options))
           .setPredefinedAcl(PREDEFINED_ACL.getString(options))
           .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
           .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
@@ -145,7 +179,8 @@ public class DefaultStorageRpc implements StorageRpc {
     try {
       Buckets buckets = storage.buckets()
           .list(this.options.projectId())
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(options))
+          .setFields(listFields(options, "nextPageToken"))
           .setPrefix(PREFIX.getString(options))
           .setMaxResults(MAX_RESULTS.getLong(options))
           .setPageToken(PAGE_TOKEN.getString(options))
@@ -158,18 +193,32 @@ public class DefaultStorageRpc implements StorageRpc {
 
   @Override
   public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options) {
+    Objects objects = listObjects(bucket, options);
+    return Tuple.<String, Iterable<StorageObject>>of(
+        objects.getNextPageToken(), objects.getItems());
+  }
+
+  @Override
+  public Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> listWithPrefixes(
+      String bucket, Map<Option, ?> options) {
+    Objects objects = listObjects(bucket, options);
+    return Tuple.of(objects.getNextPageToken(),
+        Tuple.<Iterable<StorageObject>, Iterable<String>>of(
+            objects.getItems(), objects.getPrefixes()));
+  }
+
+  private Objects listObjects(String bucket, Map<Option, ?> options) {
     try {
-      Objects objects = storage.objects()
+      return storage.objects()
           .list(bucket)
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(options))
+          .setFields(listFields(options, "nextPageToken,prefixes"))
           .setVersions(VERSIONS.getBoolean(options))
           .setDelimiter(DELIMITER.getString(options))
           .setPrefix(PREFIX.getString(options))
           .setMaxResults(MAX_RESULTS.getLong(options))
           .setPageToken(PAGE_TOKEN.getString(options))
           .execute();
-      return Tuple.<String, Iterable<StorageObject>>of(
-          objects.getNextPageToken(), objects.getItems());
     } catch (IOException ex) {
       throw translate(ex);
     }
@@ -180,7 +229,8 @@ public class DefaultStorageRpc implements StorageRpc {
     try {
       return storage.buckets()
           .get(bucket.getName())
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(options))
+          .setFields(FIELDS.getString(options))
           .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
           .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
           .execute();
@@ -202,7 +252,8 @@ public class DefaultStorageRpc implements StorageRpc {
       throws IOException {
     return storage.objects()
         .get(object.getBucket(), object.getName())
-        .setProjection(DEFAULT_PROJECTION)
+        .setProjection(projection(options))
+        .setFields(FIELDS.getString(options))
         .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
         .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
         .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(options))
@@ -214,7 +265,7 @@ public class DefaultStorageRpc implements StorageRpc {
     try {
       return storage.buckets()
           .patch(bucket.getName(), bucket)
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(options))
           .setPredefinedAcl(PREDEFINED_ACL.getString(options))
           .setPredefinedDefaultObjectAcl(PREDEFINED_DEFAULT_OBJECT_ACL.getString(options))
           .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
@@ -238,7 +289,7 @@ public class DefaultStorageRpc implements StorageRpc {
       throws IOException {
     return storage.objects()
         .patch(storageObject.getBucket(), storageObject.getName(), storageObject)
-        .setProjection(DEFAULT_PROJECTION)
+        .setProjection(projection(options))
         .setPredefinedAcl(PREDEFINED_ACL.getString(options))
         .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
         .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
@@ -330,7 +381,35 @@ public class DefaultStorageRpc implements StorageRpc {
           .objects()
           .copy(source.getBucket(), source.getName(), target.getBucket(), target.getName(),
               target.getContentType() != null ? target : null)
-          .setProjection(DEFAULT_PROJECTION)
+          .setProjection(projection(targetOptions))
+          .setIfSourceMetagenerationMatch(IF_SOURCE_METAGENERATION_MATCH.getLong(sourceOptions))
+          .setIfSourceMetagenerationNotMatch(
+              IF_SOURCE_METAGENERATION_NOT_MATCH.getLong(sourceOptions))
+          .setIfSourceGenerationMatch(IF_SOURCE_GENERATION_MATCH.getLong(sourceOptions))
+          .setIfSourceGenerationNotMatch(IF_SOURCE_GENERATION_NOT_MATCH.getLong(sourceOptions))
+          .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(targetOptions))
+          .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(targetOptions))
+          .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(targetOptions))
+          .setIfGenerationNotMatch(IF_GENERATION_NOT_MATCH.getLong(targetOptions))
+          .execute();
+    } catch (IOException ex) {
+      throw translate(ex);
+    }
+  }
+
+  @Override
+  public RewriteResponse rewrite(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions, String rewriteToken,
+      Long maxBytesRewrittenPerCall) throws StorageException {
+    try {
+      com.google.api.services.storage.model.RewriteResponse rewriteResponse = storage
+          .objects()
+          .rewrite(source.getBucket(), source.getName(), target.getBucket(), target.getName(),
+              target.getContentType() != null ? target : null)
+          .setRewriteToken(rewriteToken)
+          .setMaxBytesRewrittenPerCall(maxBytesRewrittenPerCall)
+          .setProjection(projection(targetOptions))
+          .setDestinationPredefinedAcl(PREDEFINED_ACL.getString(targetOptions))
           .setIfSourceMetagenerationMatch(IF_SOURCE_METAGENERATION_MATCH.getLong(sourceOptions))
           .setIfSourceMetagenerationNotMatch(
               IF_SOURCE_METAGENERATION_NOT_MATCH.getLong(sourceOptions))
@@ -341,6 +420,10 @@ public class DefaultStorageRpc implements StorageRpc {
           .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(targetOptions))
           .setIfGenerationNotMatch(IF_GENERATION_NOT_MATCH.getLong(targetOptions))
           .execute();
+      return new RewriteResponse(rewriteResponse.getResource(),
+          rewriteResponse.getObjectSize().longValue(),
+          rewriteResponse.getTotalBytesRewritten().longValue(), rewriteResponse.getRewriteToken(),
+          rewriteResponse.getDone());
     } catch (IOException ex) {
       throw translate(ex);
     }
@@ -350,16 +433,20 @@ public class DefaultStorageRpc implements StorageRpc {
   public byte[] load(StorageObject from, Map<Option, ?> options)
       throws StorageException {
     try {
-      Storage.Objects.Get getRequest = storage.objects()
-          .get(from.getBucket(), from.getName())
-          .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
-          .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
-          .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(options))
-          .setIfGenerationNotMatch(IF_GENERATION_NOT_MATCH.getLong(options));
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      getRequest.getMediaHttpDownloader().setDirectDownloadEnabled(true);
-      getRequest.executeMediaAndDownloadTo(out);
-      return out.toByteArray();
+      HttpResponse response = mediaRequest(from, options).executeMedia();
+      InputStream content = response.getContent();
+      try {
+        Long length = response.getHeaders().getContentLength();
+        if (length == null || response.getContentEncoding() != null) {
+          // size of the decoded content is not known in advance
+          return ByteStreams.toByteArray(content);
+        }
+        byte[] bytes = new byte[Ints.checkedCast(length)];
+        ByteStreams.readFully(content, bytes);
+        return bytes;
+      } finally {
+        content.close();
+      }
     } catch (IOException ex) {
       throw translate(ex);
     }
@@ -425,48 +512,95 @@ public class DefaultStorageRpc implements StorageRpc {
     return new BatchResponse(deletes, updates, gets);
   }
 
+  private Storage.Objects.Get mediaRequest(StorageObject from, Map<Option, ?> options)
+      throws IOException {
+    return storage.objects()
+        .get(from.getBucket(), from.getName())
+        .setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
+        .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
+        .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(options))
+        .setIfGenerationNotMatch(IF_GENERATION_NOT_MATCH.getLong(options));
+  }
+
   @Override
-  public byte[] read(StorageObject from, Map<Option, ?> options, long position, int bytes)
+  public int read(StorageObject from, Map<Option, ?> options, long position, ByteBuffer buffer)
       throws StorageException {
+    int length = buffer.remaining();
+    if (length == 0) {
+      return 0;
+    }
     try {
-      Get req = storage.objects().get(from.getBucket(), from.getName());
-      req.setIfMetagenerationMatch(IF_METAGENERATION_MATCH.getLong(options))
-          .setIfMetagenerationNotMatch(IF_METAGENERATION_NOT_MATCH.getLong(options))
-          .setIfGenerationMatch(IF_GENERATION_MATCH.getLong(options))
-          .setIfGenerationNotMatch(IF_GENERATION_NOT_MATCH.getLong(options));
-      MediaHttpDownloader downloader = req.getMediaHttpDownloader();
-      // todo: Fix int casting (https://github.com/google/google-api-java-client/issues/937)
-      downloader.setContentRange(position, (int) position + bytes);
-      downloader.setDirectDownloadEnabled(true);
-      ByteArrayOutputStream output = new ByteArrayOutputStream();
-      req.executeMediaAndDownloadTo(output);
-      return output.toByteArray();
+      Get req = mediaRequest(from, options);
+      req.getRequestHeaders().setRange("bytes=" + position + "-" + (position + length - 1));
+      HttpResponse response = req.executeMedia();
+      InputStream content = response.getContent();
+      if (content == null) {
+        // empty content
+        return 0;
+      }
+      int total = 0;
+      try {
+        if (buffer.hasArray()) {
+          byte[] array = buffer.array();
+          int offset = buffer.arrayOffset() + buffer.position();
+          int read;
+          while (total < length
+              && (read = content.read(array, offset + total, length - total)) >= 0) {
+            total += read;
+          }
+          buffer.position(buffer.position() + total);
+        } else {
+          ReadableByteChannel channel = Channels.newChannel(content);
+          int read;
+          while (buffer.hasRemaining() && (read = channel.read(buffer)) >= 0) {
+            total += read;
+          }
+        }
+      } finally {
+        content.close();
+      }
+      return total;
     } catch (IOException ex) {
-      throw translate(ex);
+      StorageException serviceException = translate(ex);
+      if (serviceException.code() == HTTP_REQUESTED_RANGE_NOT_SATISFIABLE) {
+        // position is at or past the end of the blob
+        return 0;
+      }
+      throw serviceException;
     }
   }
 
   @Override
-  public void write(String uploadId, byte[] toWrite, int toWriteOffset, StorageObject dest,
-      long destOffset, int length, boolean last) throws StorageException {
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset,
+      StorageObject dest, long destOffset, int length, boolean last) throws StorageException {
     try {
       GenericUrl url = new GenericUrl(uploadId);
       HttpRequest httpRequest = storage.getRequestFactory().buildPutRequest(url,
           new ByteArrayContent(null, toWrite, toWriteOffset, length));
+      httpRequest.setParser(storage.getObjectParser());
       long limit = destOffset + length;
       StringBuilder range = new StringBuilder("bytes ");
-      range.append(destOffset).append('-').append(limit - 1).append('/');
+      if (length == 0) {
+        range.append("*/");
+      } else {
+        range.append(destOffset).append('-').append(limit - 1).append('/');
+      }
       if (last) {
         range.append(limit);
       } else {
         range.append('*');
       }
       httpRequest.getHeaders().setContentRange(range.toString());
+      if (last && dest.getCrc32c() != null) {
+        // the service rejects the upload if its content does not match the checksum
+        httpRequest.getHeaders().set("X-Goog-Hash", "crc32c=" + dest.getCrc32c());
+      }
       int code;
       String message;
+      HttpResponse response = null;
       IOException exception = null;
       try {
-        HttpResponse response = httpRequest.execute();
+        response = httpRequest.execute();
         code = response.getStatusCode();
         message = response.getStatusMessage();
       } catch (HttpResponseException ex) {
@@ -483,11 +617,150 @@ public class DefaultStorageRpc implements StorageRpc {
         error.setMessage(message);
         throw translate(error);
       }
+      // the response completing the upload describes the created object
+      return last ? response.parseAs(StorageObject.class) : null;
+    } catch (IOException ex) {
+      throw translate(ex);
+    }
+  }
+
+  @Override
+  public long getUploadOffset(String uploadId) throws StorageException {
+    try {
+      GenericUrl url = new GenericUrl(uploadId);
+      HttpRequest httpRequest = storage.getRequestFactory().buildPutRequest(url,
+          new EmptyContent());
+      httpRequest.getHeaders().setContentRange("bytes */*");
+      int code;
+      String message;
+      HttpHeaders headers;
+      IOException exception = null;
+      try {
+        HttpResponse response = httpRequest.execute();
+        code = response.getStatusCode();
+        message = response.getStatusMessage();
+        headers = response.getHeaders();
+        response.ignore();
+      } catch (HttpResponseException ex) {
+        exception = ex;
+        code = ex.getStatusCode();
+        message = ex.getStatusMessage();
+        headers = ex.getHeaders();
+      }
+      if (code == 200 || code == 201) {
+        return -1;
+      }
+      if (code != 308) {
+        if (exception != null) {
+          throw exception;
+        }
+        GoogleJsonError error = new GoogleJsonError();
+        error.setCode(code);
+        error.setMessage(message);
+        throw translate(error);
+      }
+      // persisted bytes are reported as "bytes=0-<last byte>", no range means nothing persisted
+      String range = headers.getRange();
+      if (range == null) {
+        return 0;
+      }
+      return Long.parseLong(range.substring(range.lastIndexOf('-') + 1)) + 1;
+    } catch (IOException ex) {
+      throw translate(ex);
+    }
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options)
+      throws StorageException {
+    try {
+      return mediaRequest(from, options).executeMedia().getContent();
+    } catch (IOException ex) {
+      throw translate(ex);
+    }
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options, long position)
+      throws StorageException {
+    try {
+      Get req = mediaRequest(from, options);
+      if (position > 0) {
+        req.getRequestHeaders().setRange("bytes=" + position + "-");
+      }
+      HttpResponse response = req.executeMedia();
+      InputStream content = response.getContent();
+      if (content == null) {
+        // empty content
+        return new ByteArrayInputStream(new byte[0]);
+      }
+      return new ResponseStream(response, content);
     } catch (IOException ex) {
       throw translate(ex);
     }
   }
 
+  /**
+   * A stream over the content of a response. Closing it before the end of the content disconnects
+   * the response, as closing the content would read the rest of it to reuse the connection.
+   */
+  private static final class ResponseStream extends FilterInputStream {
+
+    private final HttpResponse response;
+    private final Long length;
+    private long read;
+    private boolean ended;
+
+    ResponseStream(HttpResponse response, InputStream content) {
+      super(content);
+      this.response = response;
+      this.length = response.getHeaders().getContentLength();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value < 0) {
+        ended = true;
+      } else {
+        read++;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int count = super.read(bytes, offset, length);
+      if (count < 0) {
+        ended = true;
+      } else {
+        read += count;
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      long skipped = super.skip(count);
+      read += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (ended || length != null && read >= length) {
+        super.close();
+      } else {
+        response.disconnect();
+      }
+    }
+  }
+
   @Override
   public String open(StorageObject object, Map<Option, ?> options)
       throws StorageException {
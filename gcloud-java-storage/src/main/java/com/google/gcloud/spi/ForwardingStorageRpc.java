@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.spi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.gcloud.storage.StorageException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A {@link StorageRpc} which forwards all its method calls to another {@code StorageRpc}.
+ * Subclasses override the methods whose behavior they decorate.
+ */
+public abstract class ForwardingStorageRpc implements StorageRpc {
+
+  private final StorageRpc delegate;
+
+  protected ForwardingStorageRpc(StorageRpc delegate) {
+    this.delegate = checkNotNull(delegate);
+  }
+
+  /**
+   * Returns the {@code StorageRpc} method calls are forwarded to.
+   */
+  protected StorageRpc delegate() {
+    return delegate;
+  }
+
+  @Override
+  public Bucket create(Bucket bucket, Map<Option, ?> options) throws StorageException {
+    return delegate.create(bucket, options);
+  }
+
+  @Override
+  public StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.create(object, content, options);
+  }
+
+  @Override
+  public Tuple<String, Iterable<Bucket>> list(Map<Option, ?> options) throws StorageException {
+    return delegate.list(options);
+  }
+
+  @Override
+  public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.list(bucket, options);
+  }
+
+  @Override
+  public Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> listWithPrefixes(
+      String bucket, Map<Option, ?> options) throws StorageException {
+    return delegate.listWithPrefixes(bucket, options);
+  }
+
+  @Override
+  public Bucket get(Bucket bucket, Map<Option, ?> options) throws StorageException {
+    return delegate.get(bucket, options);
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.get(object, options);
+  }
+
+  @Override
+  public Bucket patch(Bucket bucket, Map<Option, ?> options) throws StorageException {
+    return delegate.patch(bucket, options);
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.patch(storageObject, options);
+  }
+
+  @Override
+  public boolean delete(Bucket bucket, Map<Option, ?> options) throws StorageException {
+    return delegate.delete(bucket, options);
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) throws StorageException {
+    return delegate.delete(object, options);
+  }
+
+  @Override
+  public BatchResponse batch(BatchRequest request) throws StorageException {
+    return delegate.batch(request);
+  }
+
+  @Override
+  public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+      Map<Option, ?> targetOptions) throws StorageException {
+    return delegate.compose(sources, target, targetOptions);
+  }
+
+  @Override
+  public StorageObject copy(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions) throws StorageException {
+    return delegate.copy(source, sourceOptions, target, targetOptions);
+  }
+
+  @Override
+  public RewriteResponse rewrite(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions, String rewriteToken,
+      Long maxBytesRewrittenPerCall) throws StorageException {
+    return delegate.rewrite(source, sourceOptions, target, targetOptions, rewriteToken,
+        maxBytesRewrittenPerCall);
+  }
+
+  @Override
+  public byte[] load(StorageObject storageObject, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.load(storageObject, options);
+  }
+
+  @Override
+  public int read(StorageObject from, Map<Option, ?> options, long position, ByteBuffer buffer)
+      throws StorageException {
+    return delegate.read(from, options, position, buffer);
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options)
+      throws StorageException {
+    return delegate.openStream(from, options);
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options, long position)
+      throws StorageException {
+    return delegate.openStream(from, options, position);
+  }
+
+  @Override
+  public String open(StorageObject object, Map<Option, ?> options) throws StorageException {
+    return delegate.open(object, options);
+  }
+
+  @Override
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset,
+      StorageObject dest, long destOffset, int length, boolean last) throws StorageException {
+    return delegate.write(uploadId, toWrite, toWriteOffset, dest, destOffset, length, last);
+  }
+
+  @Override
+  public long getUploadOffset(String uploadId) throws StorageException {
+    return delegate.getUploadOffset(uploadId);
+  }
+}
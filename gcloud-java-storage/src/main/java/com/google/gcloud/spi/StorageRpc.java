@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.gcloud.storage.StorageException;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -46,7 +47,9 @@ public interface StorageRpc {
     MAX_RESULTS("maxResults"),
     PAGE_TOKEN("pageToken"),
     DELIMITER("delimiter"),
-    VERSIONS("versions");
+    VERSIONS("versions"),
+    FIELDS("fields"),
+    PROJECTION("projection");
 
     private final String value;
 
@@ -132,6 +135,24 @@ public interface StorageRpc {
     }
   }
 
+  class RewriteResponse {
+
+    public final StorageObject result;
+    public final long objectSize;
+    public final long totalBytesRewritten;
+    public final String rewriteToken;
+    public final boolean done;
+
+    public RewriteResponse(StorageObject result, long objectSize, long totalBytesRewritten,
+        String rewriteToken, boolean done) {
+      this.result = result;
+      this.objectSize = objectSize;
+      this.totalBytesRewritten = totalBytesRewritten;
+      this.rewriteToken = rewriteToken;
+      this.done = done;
+    }
+  }
+
   Bucket create(Bucket bucket, Map<Option, ?> options) throws StorageException;
 
   StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options)
@@ -142,6 +163,15 @@ public interface StorageRpc {
   Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options)
       throws StorageException;
 
+  /**
+   * Lists the objects of a bucket as {@link #list(String, Map)} does, also returning the prefixes
+   * that the {@link Option#DELIMITER} option collapsed objects into.
+   *
+   * @return the next page token and a tuple of the listed objects and prefixes
+   */
+  Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> listWithPrefixes(String bucket,
+      Map<Option, ?> options) throws StorageException;
+
   Bucket get(Bucket bucket, Map<Option, ?> options) throws StorageException;
 
   StorageObject get(StorageObject object, Map<Option, ?> options)
@@ -164,14 +194,62 @@ public interface StorageRpc {
   StorageObject copy(StorageObject source, Map<Option, ?> sourceOptions,
       StorageObject target, Map<Option, ?> targetOptions) throws StorageException;
 
+  /**
+   * Rewrites {@code source} to {@code target} on the service side. Large rewrites, in particular
+   * across locations or storage classes, take several calls: each call rewrites part of the
+   * object, at most {@code maxBytesRewrittenPerCall} bytes if not {@code null}, and returns a token
+   * to pass to the next call until the rewrite is done.
+   *
+   * @param rewriteToken the token returned by the previous call, {@code null} for the first one
+   */
+  RewriteResponse rewrite(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions, String rewriteToken,
+      Long maxBytesRewrittenPerCall) throws StorageException;
+
   byte[] load(StorageObject storageObject, Map<Option, ?> options)
       throws StorageException;
 
-  byte[] read(StorageObject from, Map<Option, ?> options, long position, int bytes)
+  /**
+   * Reads up to {@code buffer.remaining()} bytes of the blob, starting at {@code position}. Bytes
+   * are streamed into {@code buffer} without intermediate copies.
+   *
+   * @return the number of bytes read. This is less than {@code buffer.remaining()} only if the end
+   *     of the blob was reached.
+   */
+  int read(StorageObject from, Map<Option, ?> options, long position, ByteBuffer buffer)
+      throws StorageException;
+
+  /**
+   * Opens a stream over the whole content of the blob. Content stored with a gzip content encoding
+   * is decompressed as it is read. The caller is responsible for closing the stream.
+   */
+  InputStream openStream(StorageObject from, Map<Option, ?> options) throws StorageException;
+
+  /**
+   * Opens a stream over the content of the blob from {@code position} to its end, with a single
+   * request. {@code position} is a position in the stored content, so the stream is meant for
+   * blobs without a content encoding. Closing the stream before its end abandons the rest of the
+   * content rather than reading it. The caller is responsible for closing the stream.
+   */
+  InputStream openStream(StorageObject from, Map<Option, ?> options, long position)
       throws StorageException;
 
   String open(StorageObject object, Map<Option, ?> options) throws StorageException;
 
-  void write(String uploadId, byte[] toWrite, int toWriteOffset, StorageObject dest,
+  /**
+   * Uploads {@code length} bytes of {@code toWrite} at offset {@code destOffset} of the resumable
+   * upload {@code uploadId}, completing the upload if {@code last}. When completing the upload, the
+   * service checks the uploaded content against the CRC32C checksum of {@code dest}, if set.
+   *
+   * @return the created object if {@code last}, {@code null} otherwise
+   */
+  StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset, StorageObject dest,
       long destOffset, int length, boolean last) throws StorageException;
+
+  /**
+   * Queries the status of the resumable upload {@code uploadId}.
+   *
+   * @return the number of bytes persisted by the service, or {@code -1} if the upload is complete
+   */
+  long getUploadOffset(String uploadId) throws StorageException;
 }
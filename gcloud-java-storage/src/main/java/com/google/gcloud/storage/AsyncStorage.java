@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gcloud.Service;
+import com.google.gcloud.storage.Storage.BlobListOption;
+import com.google.gcloud.storage.Storage.BlobSourceOption;
+import com.google.gcloud.storage.Storage.BlobTargetOption;
+import com.google.gcloud.storage.Storage.BucketListOption;
+import com.google.gcloud.storage.Storage.BucketSourceOption;
+import com.google.gcloud.storage.Storage.BucketTargetOption;
+import com.google.gcloud.storage.Storage.ComposeRequest;
+import com.google.gcloud.storage.Storage.CopyRequest;
+
+/**
+ * An asynchronous interface for Google Cloud Storage. Methods mirror those of {@link Storage} but
+ * return immediately with a future of the result. Requests run on the executor provided by
+ * {@link StorageOptions#executorFactory()} and failed attempts are retried, according to
+ * {@link StorageOptions#retryParams()}, once their backoff delay has elapsed, without holding a
+ * thread in the meantime. A request that fails completes its future with a
+ * {@link StorageException}.
+ *
+ * @see Storage#async()
+ */
+public interface AsyncStorage extends Service<StorageOptions> {
+
+  /**
+   * Create a new bucket.
+   *
+   * @see Storage#create(BucketInfo, BucketTargetOption...)
+   */
+  ListenableFuture<BucketInfo> create(BucketInfo bucketInfo, BucketTargetOption... options);
+
+  /**
+   * Create a new blob with no content.
+   *
+   * @see Storage#create(BlobInfo, BlobTargetOption...)
+   */
+  ListenableFuture<BlobInfo> create(BlobInfo blobInfo, BlobTargetOption... options);
+
+  /**
+   * Create a new blob. Direct upload is used to upload {@code content}.
+   *
+   * @see Storage#create(BlobInfo, byte[], BlobTargetOption...)
+   */
+  ListenableFuture<BlobInfo> create(BlobInfo blobInfo, byte[] content,
+      BlobTargetOption... options);
+
+  /**
+   * Return the requested bucket or {@code null} if not found.
+   *
+   * @see Storage#get(String, BucketSourceOption...)
+   */
+  ListenableFuture<BucketInfo> get(String bucket, BucketSourceOption... options);
+
+  /**
+   * Return the requested blob or {@code null} if not found.
+   *
+   * @see Storage#get(String, String, BlobSourceOption...)
+   */
+  ListenableFuture<BlobInfo> get(String bucket, String blob, BlobSourceOption... options);
+
+  /**
+   * Return the requested blob or {@code null} if not found.
+   *
+   * @see Storage#get(BlobId, BlobSourceOption...)
+   */
+  ListenableFuture<BlobInfo> get(BlobId blob, BlobSourceOption... options);
+
+  /**
+   * List the project's buckets. Only the first page is fetched asynchronously, the following pages
+   * are fetched by {@link ListResult#nextPage()}.
+   *
+   * @see Storage#list(BucketListOption...)
+   */
+  ListenableFuture<ListResult<BucketInfo>> list(BucketListOption... options);
+
+  /**
+   * List the bucket's blobs. Only the first page is fetched asynchronously, the following pages
+   * are fetched by {@link ListResult#nextPage()}.
+   *
+   * @see Storage#list(String, BlobListOption...)
+   */
+  ListenableFuture<ListResult<BlobInfo>> list(String bucket, BlobListOption... options);
+
+  /**
+   * Update bucket information.
+   *
+   * @see Storage#update(BucketInfo, BucketTargetOption...)
+   */
+  ListenableFuture<BucketInfo> update(BucketInfo bucketInfo, BucketTargetOption... options);
+
+  /**
+   * Update blob information.
+   *
+   * @see Storage#update(BlobInfo, BlobTargetOption...)
+   */
+  ListenableFuture<BlobInfo> update(BlobInfo blobInfo, BlobTargetOption... options);
+
+  /**
+   * Delete the requested bucket.
+   *
+   * @see Storage#delete(String, BucketSourceOption...)
+   */
+  ListenableFuture<Boolean> delete(String bucket, BucketSourceOption... options);
+
+  /**
+   * Delete the requested blob.
+   *
+   * @see Storage#delete(String, String, BlobSourceOption...)
+   */
+  ListenableFuture<Boolean> delete(String bucket, String blob, BlobSourceOption... options);
+
+  /**
+   * Delete the requested blob.
+   *
+   * @see Storage#delete(BlobId, BlobSourceOption...)
+   */
+  ListenableFuture<Boolean> delete(BlobId blob, BlobSourceOption... options);
+
+  /**
+   * Send a compose request.
+   *
+   * @see Storage#compose(ComposeRequest)
+   */
+  ListenableFuture<BlobInfo> compose(ComposeRequest composeRequest);
+
+  /**
+   * Send a copy request.
+   *
+   * @see Storage#copy(CopyRequest)
+   */
+  ListenableFuture<BlobInfo> copy(CopyRequest copyRequest);
+
+  /**
+   * Send a rewrite request and copy all the chunks of the blob. Each request is retried as
+   * configured by the service options, a failed request does not restart the rewrite. Rewrites
+   * submitted together run in parallel, on the options' executor.
+   *
+   * @see Storage#rewrite(CopyRequest)
+   */
+  ListenableFuture<BlobInfo> rewrite(CopyRequest copyRequest);
+
+  /**
+   * Reads all the bytes from a blob.
+   *
+   * @see Storage#readAllBytes(BlobId, BlobSourceOption...)
+   */
+  ListenableFuture<byte[]> readAllBytes(BlobId blob, BlobSourceOption... options);
+
+  /**
+   * Send a batch request. Unlike {@link Storage#apply(BatchRequest)}, failed entries are not
+   * retried.
+   *
+   * @see Storage#apply(BatchRequest)
+   */
+  ListenableFuture<BatchResponse> apply(BatchRequest batchRequest);
+}
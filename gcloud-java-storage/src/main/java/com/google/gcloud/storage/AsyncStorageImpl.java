@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.gcloud.RetryHelper.runWithRetriesAsync;
+
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gcloud.BaseService;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.storage.Storage.BlobListOption;
+import com.google.gcloud.storage.Storage.BlobSourceOption;
+import com.google.gcloud.storage.Storage.BlobTargetOption;
+import com.google.gcloud.storage.Storage.BucketListOption;
+import com.google.gcloud.storage.Storage.BucketSourceOption;
+import com.google.gcloud.storage.Storage.BucketTargetOption;
+import com.google.gcloud.storage.Storage.ComposeRequest;
+import com.google.gcloud.storage.Storage.CopyRequest;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Default implementation for AsyncStorage. Each attempt is a single, non retried, call to a
+ * {@link StorageImpl}; retries are scheduled on the options' executor by
+ * {@link com.google.gcloud.RetryHelper#runWithRetriesAsync}.
+ */
+final class AsyncStorageImpl extends BaseService<StorageOptions> implements AsyncStorage {
+
+  private static final FutureFallback<Object> TRANSLATE_FALLBACK = new FutureFallback<Object>() {
+    @Override
+    public ListenableFuture<Object> create(Throwable throwable) {
+      return Futures.immediateFailedFuture(StorageException.translate(throwable));
+    }
+  };
+
+  private final Storage storage;
+
+  AsyncStorageImpl(StorageOptions options) {
+    super(options);
+    storage = new StorageImpl(options, RetryParams.noRetries());
+  }
+
+  private <V> ListenableFuture<V> submit(Callable<V> callable) {
+    return submit(callable, options().retryParams());
+  }
+
+  @SuppressWarnings("unchecked")
+  private <V> ListenableFuture<V> submit(Callable<V> callable, RetryParams retryParams) {
+    ListenableFuture<V> future = runWithRetriesAsync(callable, retryParams,
+        StorageImpl.EXCEPTION_HANDLER, options().executorFactory().get());
+    return Futures.withFallback(future, (FutureFallback<V>) (FutureFallback<?>) TRANSLATE_FALLBACK);
+  }
+
+  @Override
+  public ListenableFuture<BucketInfo> create(final BucketInfo bucketInfo,
+      final BucketTargetOption... options) {
+    return submit(new Callable<BucketInfo>() {
+      @Override
+      public BucketInfo call() {
+        return storage.create(bucketInfo, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> create(final BlobInfo blobInfo,
+      final BlobTargetOption... options) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.create(blobInfo, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> create(final BlobInfo blobInfo, final byte[] content,
+      final BlobTargetOption... options) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.create(blobInfo, content, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BucketInfo> get(final String bucket,
+      final BucketSourceOption... options) {
+    return submit(new Callable<BucketInfo>() {
+      @Override
+      public BucketInfo call() {
+        return storage.get(bucket, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> get(String bucket, String blob, BlobSourceOption... options) {
+    return get(BlobId.of(bucket, blob), options);
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> get(final BlobId blob, final BlobSourceOption... options) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.get(blob, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<ListResult<BucketInfo>> list(final BucketListOption... options) {
+    return submit(new Callable<ListResult<BucketInfo>>() {
+      @Override
+      public ListResult<BucketInfo> call() {
+        return storage.list(options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<ListResult<BlobInfo>> list(final String bucket,
+      final BlobListOption... options) {
+    return submit(new Callable<ListResult<BlobInfo>>() {
+      @Override
+      public ListResult<BlobInfo> call() {
+        return storage.list(bucket, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BucketInfo> update(final BucketInfo bucketInfo,
+      final BucketTargetOption... options) {
+    return submit(new Callable<BucketInfo>() {
+      @Override
+      public BucketInfo call() {
+        return storage.update(bucketInfo, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> update(final BlobInfo blobInfo,
+      final BlobTargetOption... options) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.update(blobInfo, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Boolean> delete(final String bucket,
+      final BucketSourceOption... options) {
+    return submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return storage.delete(bucket, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<Boolean> delete(String bucket, String blob,
+      BlobSourceOption... options) {
+    return delete(BlobId.of(bucket, blob), options);
+  }
+
+  @Override
+  public ListenableFuture<Boolean> delete(final BlobId blob, final BlobSourceOption... options) {
+    return submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return storage.delete(blob, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> compose(final ComposeRequest composeRequest) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.compose(composeRequest);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> copy(final CopyRequest copyRequest) {
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return storage.copy(copyRequest);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BlobInfo> rewrite(final CopyRequest copyRequest) {
+    // requests are retried one by one by the writer, not as a whole
+    return submit(new Callable<BlobInfo>() {
+      @Override
+      public BlobInfo call() {
+        return new StorageImpl(options()).rewrite(copyRequest).result();
+      }
+    }, RetryParams.noRetries());
+  }
+
+  @Override
+  public ListenableFuture<byte[]> readAllBytes(final BlobId blob,
+      final BlobSourceOption... options) {
+    return submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return storage.readAllBytes(blob, options);
+      }
+    });
+  }
+
+  @Override
+  public ListenableFuture<BatchResponse> apply(final BatchRequest batchRequest) {
+    return submit(new Callable<BatchResponse>() {
+      @Override
+      public BatchResponse call() {
+        return storage.apply(batchRequest);
+      }
+    }, RetryParams.noRetries());
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.gcloud.storage;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Iterator;
@@ -60,6 +62,11 @@ public class BaseListResult<T extends Serializable> implements ListResult<T>, Se
     return results == null ? Collections.<T>emptyIterator() : results.iterator();
   }
 
+  @Override
+  public Iterator<T> iterateAll() {
+    return new PageIterator<>(this, MoreExecutors.directExecutor(), 0);
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(cursor, results);
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gcloud.spi.ForwardingStorageRpc;
+import com.google.gcloud.spi.StorageRpc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link StorageRpc} that coalesces concurrent single-object get, patch and delete calls into
+ * batch requests. A call is held for at most {@code windowMillis} milliseconds, or until
+ * {@link StorageImpl#MAX_BATCH_SIZE} calls are pending, and is then sent together with the calls
+ * received in the meantime. Each caller is blocked until its own result is available. A batch is
+ * sent by the caller that opened it, once the window expires, or by the caller that fills it, so
+ * that batches don't depend on an executor whose threads may all be waiting for their results. A
+ * batch that ends up holding a single call is sent as a plain request.
+ */
+final class BatchingStorageRpc extends ForwardingStorageRpc {
+
+  private final long windowMillis;
+  private Batch pending;
+
+  private enum Type {
+    DELETE, UPDATE, GET
+  }
+
+  private static final class Entry {
+
+    private final Type type;
+    private final StorageObject object;
+    private final Map<Option, ?> options;
+    private final SettableFuture<Object> result = SettableFuture.create();
+
+    Entry(Type type, StorageObject object, Map<Option, ?> options) {
+      this.type = type;
+      this.object = object;
+      this.options = options;
+    }
+
+    Tuple<StorageObject, Map<Option, ?>> request() {
+      return Tuple.<StorageObject, Map<Option, ?>>of(object, options);
+    }
+
+    void complete(Tuple<?, StorageException> response) {
+      if (response == null) {
+        result.setException(new StorageException(StorageException.UNKNOWN_CODE,
+            "No response for " + object.getBucket() + "/" + object.getName(), false));
+      } else if (response.y() == null) {
+        result.set(response.x());
+      } else if (type == Type.DELETE && response.y().code() == HTTP_NOT_FOUND) {
+        result.set(Boolean.FALSE);
+      } else {
+        result.setException(response.y());
+      }
+    }
+  }
+
+  /**
+   * Calls collected in one window. Responses of a batch are keyed by object, so a batch holds at
+   * most one call of each type per object.
+   */
+  private final class Batch implements Runnable {
+
+    private final Map<StorageObject, Entry> deletes = new LinkedHashMap<>();
+    private final Map<StorageObject, Entry> updates = new LinkedHashMap<>();
+    private final Map<StorageObject, Entry> gets = new LinkedHashMap<>();
+    private boolean dispatched;
+
+    private Map<StorageObject, Entry> entries(Type type) {
+      switch (type) {
+        case DELETE:
+          return deletes;
+        case UPDATE:
+          return updates;
+        default:
+          return gets;
+      }
+    }
+
+    int size() {
+      return deletes.size() + updates.size() + gets.size();
+    }
+
+    @Override
+    public void run() {
+      synchronized (BatchingStorageRpc.this) {
+        if (dispatched) {
+          return;
+        }
+        dispatched = true;
+        if (pending == this) {
+          pending = null;
+        }
+        // the caller that opened the batch no longer needs to wait for the window to expire
+        BatchingStorageRpc.this.notifyAll();
+      }
+      if (size() == 1) {
+        Entry entry = pendingEntries().get(0);
+        try {
+          entry.result.set(execute(entry));
+        } catch (RuntimeException ex) {
+          entry.result.setException(ex);
+        }
+        return;
+      }
+      try {
+        StorageRpc.BatchResponse response = delegate().batch(new StorageRpc.BatchRequest(
+            requests(deletes), requests(updates), requests(gets)));
+        complete(deletes, response.deletes);
+        complete(updates, response.updates);
+        complete(gets, response.gets);
+      } catch (RuntimeException ex) {
+        for (Entry entry : pendingEntries()) {
+          entry.result.setException(ex);
+        }
+      }
+    }
+
+    private List<Entry> pendingEntries() {
+      List<Entry> entries = new ArrayList<>(size());
+      entries.addAll(deletes.values());
+      entries.addAll(updates.values());
+      entries.addAll(gets.values());
+      return entries;
+    }
+
+    private List<Tuple<StorageObject, Map<Option, ?>>> requests(Map<StorageObject, Entry> entries) {
+      List<Tuple<StorageObject, Map<Option, ?>>> requests = new ArrayList<>(entries.size());
+      for (Entry entry : entries.values()) {
+        requests.add(entry.request());
+      }
+      return requests;
+    }
+
+    private void complete(Map<StorageObject, Entry> entries,
+        Map<StorageObject, ? extends Tuple<?, StorageException>> responses) {
+      for (Map.Entry<StorageObject, Entry> entry : entries.entrySet()) {
+        entry.getValue().complete(responses.get(entry.getKey()));
+      }
+    }
+  }
+
+  BatchingStorageRpc(StorageRpc delegate, long windowMillis) {
+    super(delegate);
+    checkArgument(windowMillis > 0, "Batching window must be positive");
+    this.windowMillis = windowMillis;
+  }
+
+  @VisibleForTesting
+  synchronized int pendingCount() {
+    return pending != null ? pending.size() : 0;
+  }
+
+  private Object execute(Entry entry) {
+    switch (entry.type) {
+      case DELETE:
+        return delegate().delete(entry.object, entry.options);
+      case UPDATE:
+        return delegate().patch(entry.object, entry.options);
+      default:
+        return delegate().get(entry.object, entry.options);
+    }
+  }
+
+  /**
+   * Waits until {@code batch} is no longer pending or the batching window expires, then sends
+   * {@code batch} unless it was already sent.
+   */
+  private void sendAfterWindow(Batch batch) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    try {
+      synchronized (this) {
+        long remaining;
+        while (pending == batch && (remaining = deadline - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+      }
+    } catch (InterruptedException ex) {
+      // the batch is sent right away, the interrupt is reported when waiting for the result
+      Thread.currentThread().interrupt();
+    }
+    batch.run();
+  }
+
+  private Object submit(Entry entry) {
+    Batch opened = null;
+    Batch full = null;
+    synchronized (this) {
+      if (pending != null && pending.entries(entry.type).containsKey(entry.object)) {
+        // the caller that opened the pending batch is woken up to send it
+        pending = null;
+        notifyAll();
+      }
+      if (pending == null) {
+        pending = new Batch();
+        opened = pending;
+      }
+      pending.entries(entry.type).put(entry.object, entry);
+      if (pending.size() >= StorageImpl.MAX_BATCH_SIZE) {
+        full = pending;
+      }
+    }
+    if (full != null) {
+      full.run();
+    } else if (opened != null) {
+      sendAfterWindow(opened);
+    }
+    try {
+      return entry.result.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(StorageException.UNKNOWN_CODE,
+          "Interrupted while waiting for batch response", false);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof StorageException) {
+        throw (StorageException) ex.getCause();
+      }
+      throw StorageException.translate(ex.getCause());
+    }
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options) {
+    return (StorageObject) submit(new Entry(Type.GET, object, options));
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options) {
+    return (StorageObject) submit(new Entry(Type.UPDATE, storageObject, options));
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) {
+    return (Boolean) submit(new Entry(Type.DELETE, object, options));
+  }
+}
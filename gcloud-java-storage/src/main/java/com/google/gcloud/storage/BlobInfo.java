@@ -488,7 +488,7 @@ public final class BlobInfo implements Serializable {
     if (storageObject.getSize() != null) {
       builder.size(storageObject.getSize().longValue());
     }
-    if (storageObject.getOwner() != null) {
+    if (storageObject.getOwner() != null && storageObject.getOwner().getEntity() != null) {
       builder.owner(Acl.Entity.fromPb(storageObject.getOwner().getEntity()));
     }
     if (storageObject.getAcl() != null) {
@@ -51,9 +51,8 @@ public class BlobListResult implements ListResult<Blob> {
     return new BlobListResult(storage, nextPageInfoList);
   }
 
-  @Override
-  public Iterator<Blob> iterator() {
-    return Iterators.transform(infoList.iterator(), new Function<BlobInfo, Blob>() {
+  private Iterator<Blob> toBlobs(Iterator<BlobInfo> infos) {
+    return Iterators.transform(infos, new Function<BlobInfo, Blob>() {
       @Override
       public Blob apply(BlobInfo info) {
         return new Blob(storage, info);
@@ -61,6 +60,16 @@ public class BlobListResult implements ListResult<Blob> {
     });
   }
 
+  @Override
+  public Iterator<Blob> iterator() {
+    return toBlobs(infoList.iterator());
+  }
+
+  @Override
+  public Iterator<Blob> iterateAll() {
+    return toBlobs(infoList.iterateAll());
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(infoList);
@@ -38,7 +38,7 @@ public interface BlobReadChannel extends ReadableByteChannel, Serializable, Clos
   @Override
   void close();
 
-  void seek(int position) throws IOException;
+  void seek(long position) throws IOException;
 
   /**
    * Sets the minimum size that will be read by a single RPC.
@@ -46,4 +46,33 @@ public interface BlobReadChannel extends ReadableByteChannel, Serializable, Clos
    */
   void chunkSize(int chunkSize);
 
+  /**
+   * Sets the number of chunks that are fetched concurrently. When {@code parallelism} is greater
+   * than 1 the blob is split in slices of {@code chunkSize} bytes, each slice is fetched by a
+   * separate RPC and slices are returned in order. At most {@code parallelism * chunkSize} bytes
+   * are locally buffered. All slices are read from the same blob generation.
+   */
+  void parallelism(int parallelism);
+
+  /**
+   * Sets the number of chunks that are fetched in the background ahead of the chunk being
+   * consumed. Chunks are requested as soon as a previous one is handed out, so sequential readers
+   * do not wait for a new RPC every {@code chunkSize} bytes. Requests run on the executor provided
+   * by {@link StorageOptions#executorFactory()}. At most
+   * {@code (max(parallelism, chunks) + 1) * chunkSize} bytes are locally buffered and pending
+   * requests are cancelled by {@link #seek(long)}. {@code 0} (the default) disables read-ahead.
+   */
+  void readAhead(int chunks);
+
+  /**
+   * Sets whether the blob's content is streamed from a single request rather than fetched one
+   * chunk at a time. A streaming channel reads the response of one request spanning from the
+   * current position to the end of the blob, which is only reopened, from the current position,
+   * after a failure or a {@link #seek(long)} to another position. The end of the blob is known
+   * from its size, so no request is made to detect it. Chunk size, parallelism and read-ahead
+   * settings are ignored while streaming. The stored content of blobs with a gzip content encoding
+   * is fetched in chunks. Streaming suits long sequential reads and is disabled by default.
+   */
+  void streaming(boolean streaming);
+
 }
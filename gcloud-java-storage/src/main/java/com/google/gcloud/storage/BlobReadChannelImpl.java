@@ -16,18 +16,30 @@
 
 package com.google.gcloud.storage;
 
+import static com.google.gcloud.RetryHelper.runWithHedging;
 import static com.google.gcloud.RetryHelper.runWithRetries;
 
 import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.gcloud.RetryHelper;
+import com.google.gcloud.RetryParams;
 import com.google.gcloud.spi.StorageRpc;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Default implementation for BlobReadChannel.
@@ -40,32 +52,65 @@ class BlobReadChannelImpl implements BlobReadChannel {
   private final StorageOptions serviceOptions;
   private final BlobId blob;
   private final Map<StorageRpc.Option, ?> requestOptions;
-  private int position;
+  private final boolean decompress;
+  private final boolean validateChecksum;
+  private long position;
   private boolean isOpen;
   private boolean endOfStream;
   private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private int parallelism = 1;
+  private int readAhead;
+  private boolean streaming;
 
   private transient StorageRpc storageRpc;
   private transient StorageObject storageObject;
   private transient int bufferPos;
+  private transient int bufferLimit;
   private transient byte[] buffer;
+  private transient BufferPool bufferPool;
+  private transient Deque<Future<ByteBuffer>> slices;
+  private transient Map<StorageRpc.Option, ?> sliceOptions;
+  private transient long blobSize;
+  private transient long slicesEnd;
+  private transient boolean gzipEncoded;
+  private transient InputStream decodedContent;
+  private transient long decodedPosition;
+  private transient InputStream streamedContent;
+  private transient ContentChecksum checksum;
+  private transient long checksumPosition;
 
   BlobReadChannelImpl(StorageOptions serviceOptions, BlobId blob,
       Map<StorageRpc.Option, ?> requestOptions) {
+    this(serviceOptions, blob, requestOptions, false, false);
+  }
+
+  /**
+   * Creates a channel reading {@code blob}. If {@code decompress} is {@code true} and the blob is
+   * stored with a {@code gzip} content encoding, the channel reads the decompressed content, which
+   * is streamed from the start of the blob: positions are positions in the decompressed content,
+   * seeking backwards reopens the stream and chunk size, parallelism and read-ahead settings are
+   * ignored. If {@code validateChecksum} is {@code true}, the checksum of the content returned by
+   * the channel is checked against the blob's CRC32C checksum, or MD5 hash, once the last byte of
+   * the blob is returned. Content can be read in any order that doesn't skip bytes, validation is
+   * given up if the channel seeks past the bytes read so far or is serialized. Decompressed
+   * content is not validated, as the blob's checksum is the checksum of the compressed content.
+   */
+  BlobReadChannelImpl(StorageOptions serviceOptions, BlobId blob,
+      Map<StorageRpc.Option, ?> requestOptions, boolean decompress, boolean validateChecksum) {
     this.serviceOptions = serviceOptions;
     this.blob = blob;
     this.requestOptions = requestOptions;
+    this.decompress = decompress;
+    this.validateChecksum = validateChecksum;
     isOpen = true;
     initTransients();
   }
 
   private void writeObject(ObjectOutputStream out) throws IOException {
-    if (buffer != null) {
-      position += bufferPos;
-      buffer = null;
-      bufferPos = 0;
-      endOfStream = false;
-    }
+    closeDecodedContent();
+    closeStreamedContent();
+    discardSlices();
+    discardBuffer();
     out.defaultWriteObject();
   }
 
@@ -77,6 +122,7 @@ class BlobReadChannelImpl implements BlobReadChannel {
   private void initTransients() {
     storageRpc = serviceOptions.storageRpc();
     storageObject = blob.toPb();
+    slices = new ArrayDeque<>();
   }
 
   @Override
@@ -87,6 +133,11 @@ class BlobReadChannelImpl implements BlobReadChannel {
   @Override
   public void close() {
     if (isOpen) {
+      closeDecodedContent();
+      closeStreamedContent();
+      discardSlices();
+      clearBuffer();
+      releaseBuffer(buffer);
       buffer = null;
       isOpen = false;
     }
@@ -99,11 +150,14 @@ class BlobReadChannelImpl implements BlobReadChannel {
   }
 
   @Override
-  public void seek(int position) throws IOException {
+  public void seek(long position) throws IOException {
     validateOpen();
+    discardSlices();
+    if (position != this.position + bufferPos) {
+      closeStreamedContent();
+    }
     this.position = position;
-    buffer = null;
-    bufferPos = 0;
+    clearBuffer();
     endOfStream = false;
   }
 
@@ -113,38 +167,497 @@ class BlobReadChannelImpl implements BlobReadChannel {
   }
 
   @Override
-  public int read(ByteBuffer byteBuffer) throws IOException {
-    validateOpen();
-    if (buffer == null) {
-      if (endOfStream) {
-        return -1;
+  public void parallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  @Override
+  public void readAhead(int chunks) {
+    this.readAhead = Math.max(0, chunks);
+  }
+
+  @Override
+  public void streaming(boolean streaming) {
+    if (streaming != this.streaming) {
+      // content buffered or prefetched by one mode is not read by the other
+      closeStreamedContent();
+      discardSlices();
+      discardBuffer();
+    }
+    this.streaming = streaming;
+  }
+
+  private void clearBuffer() {
+    bufferPos = 0;
+    bufferLimit = 0;
+  }
+
+  /**
+   * Clears the buffer, moving the position to the first byte of the buffer that was not read.
+   */
+  private void discardBuffer() {
+    if (bufferLimit > 0) {
+      position += bufferPos;
+      clearBuffer();
+      endOfStream = false;
+    }
+  }
+
+  private BufferPool bufferPool() {
+    if (bufferPool == null) {
+      bufferPool = serviceOptions.bufferPool();
+    }
+    return bufferPool;
+  }
+
+  private void releaseBuffer(byte[] buffer) {
+    if (buffer != null) {
+      bufferPool().release(buffer);
+    }
+  }
+
+  private void discardSlices() {
+    for (Future<ByteBuffer> slice : slices) {
+      if (!slice.cancel(true) && !slice.isCancelled()) {
+        // slice was already read, return its buffer to the pool
+        try {
+          releaseBuffer(slice.get().array());
+        } catch (InterruptedException | ExecutionException e) {
+          // failed slices have no buffer to release
+        }
+      }
+    }
+    slices.clear();
+  }
+
+  private Map<StorageRpc.Option, ?> sliceOptions() {
+    if (sliceOptions == null) {
+      StorageObject metadata;
+      try {
+        metadata = StorageImpl.getMetadata(serviceOptions, serviceOptions.retryParams(),
+            new Callable<StorageObject>() {
+              @Override
+              public StorageObject call() {
+                return storageRpc.get(storageObject, requestOptions);
+              }
+            });
+      } catch (RetryHelper.RetryHelperException e) {
+        throw StorageException.translateAndThrow(e);
+      }
+      blobSize = metadata.getSize().longValue();
+      gzipEncoded = StorageImpl.GZIP_ENCODING.equals(metadata.getContentEncoding());
+      if (validateChecksum && !(decompress && gzipEncoded) && position == 0) {
+        checksum = ContentChecksum.expecting(metadata);
+        checksumPosition = 0;
+      }
+      // pin all slices to the same generation, so that they can't be read from different versions
+      if (requestOptions.containsKey(StorageRpc.Option.IF_GENERATION_MATCH)
+          || metadata.getGeneration() == null) {
+        sliceOptions = requestOptions;
+      } else {
+        sliceOptions = ImmutableMap.<StorageRpc.Option, Object>builder()
+            .putAll(requestOptions)
+            .put(StorageRpc.Option.IF_GENERATION_MATCH, metadata.getGeneration())
+            .build();
+      }
+    }
+    return sliceOptions;
+  }
+
+  /**
+   * Requests consecutive slices, starting at {@code slicesEnd}, until {@code size} slices are
+   * pending or the end of the blob is reached.
+   */
+  private void fillSlices(int size) {
+    final Map<StorageRpc.Option, ?> options = sliceOptions();
+    final BufferPool pool = bufferPool();
+    ExecutorService executor = null;
+    while (slices.size() < size && slicesEnd < blobSize) {
+      if (executor == null) {
+        executor = serviceOptions.executorFactory().get();
+      }
+      final long sliceFrom = slicesEnd;
+      final int sliceLength = (int) Math.min(chunkSize, blobSize - sliceFrom);
+      slices.add(executor.submit(new Callable<ByteBuffer>() {
+        @Override
+        public ByteBuffer call() {
+          byte[] slice = pool.acquire(sliceLength);
+          try {
+            int read = readChunk(options, sliceFrom, ByteBuffer.wrap(slice, 0, sliceLength));
+            return ByteBuffer.wrap(slice, 0, read);
+          } catch (RuntimeException e) {
+            pool.release(slice);
+            throw e;
+          }
+        }
+      }));
+      slicesEnd += sliceLength;
+    }
+  }
+
+  /**
+   * Returns the next slice of the blob, starting at {@code position}, or {@code null} if the end of
+   * the blob was reached. Up to {@code max(parallelism, readAhead)} consecutive slices are
+   * requested concurrently, and the window of pending slices is refilled as soon as a slice is
+   * handed out, so that the next chunks are fetched while the current one is consumed. The slice's
+   * array is borrowed from the buffer pool.
+   */
+  private ByteBuffer nextSlice() throws IOException {
+    int windowSize = Math.max(parallelism, readAhead);
+    if (slices.isEmpty()) {
+      slicesEnd = position;
+      fillSlices(windowSize);
+      if (slices.isEmpty()) {
+        return null;
+      }
+    }
+    Future<ByteBuffer> slice = slices.poll();
+    fillSlices(windowSize);
+    try {
+      return slice.get();
+    } catch (InterruptedException e) {
+      discardSlices();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      discardSlices();
+      if (e.getCause() instanceof RetryHelper.RetryHelperException) {
+        throw StorageException.translateAndThrow((RetryHelper.RetryHelperException) e.getCause());
       }
-      final int toRead = Math.max(byteBuffer.remaining(), chunkSize);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Reads bytes starting at {@code from} straight into {@code target}, retrying as configured by
+   * {@link StorageOptions#retryParams()}. Each attempt writes from the initial position of
+   * {@code target}, which is advanced by the number of bytes read only once an attempt succeeds.
+   * Hedged reads are read into buffers of their own instead, as a cancelled read may still write
+   * to its buffer after the chunk was returned, and the winning buffer is copied to
+   * {@code target}. Only reads of up to a chunk are hedged, larger ones would allocate too much,
+   * and none are while the content cache is enabled, as the latency of cache hits would have
+   * hedges sent too early.
+   */
+  private int readChunk(final Map<StorageRpc.Option, ?> options, final long from,
+      final ByteBuffer target) {
+    RetryParams retryParams = serviceOptions.retryParams();
+    final int length = target.remaining();
+    if (retryParams.getHedgeDelayPercentile() > 0 && length <= chunkSize
+        && serviceOptions.contentCacheDirectory() == null) {
+      ByteBuffer content = runWithHedging(new Callable<ByteBuffer>() {
+        @Override
+        public ByteBuffer call() {
+          byte[] bytes = new byte[length];
+          int read = storageRpc.read(storageObject, options, from, ByteBuffer.wrap(bytes));
+          return ByteBuffer.wrap(bytes, 0, read);
+        }
+      }, retryParams, StorageImpl.EXCEPTION_HANDLER, serviceOptions.latencies().reads(length));
+      int read = content.remaining();
+      target.put(content);
+      return read;
+    }
+    int read = runWithRetries(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return storageRpc.read(storageObject, options, from, target.duplicate());
+      }
+    }, retryParams, StorageImpl.EXCEPTION_HANDLER);
+    target.position(target.position() + read);
+    return read;
+  }
+
+  private void closeDecodedContent() {
+    if (decodedContent != null) {
       try {
-        buffer = runWithRetries(new Callable<byte[]>() {
+        decodedContent.close();
+      } catch (IOException e) {
+        // the stream is no longer used
+      }
+      decodedContent = null;
+    }
+  }
+
+  private void closeStreamedContent() {
+    if (streamedContent != null) {
+      try {
+        streamedContent.close();
+      } catch (IOException e) {
+        // the stream is no longer used
+      }
+      streamedContent = null;
+    }
+  }
+
+  /**
+   * Reads the content of the blob at {@code position} from the stream opened by a previous read,
+   * or from a new stream spanning from {@code position} to the end of the blob. A stream that
+   * fails is closed and reopened at {@code position}, with the backoff and up to the attempts of
+   * {@link StorageOptions#retryParams()}. The stream is closed once the last byte of the blob was
+   * read.
+   */
+  private int readStreamed(final ByteBuffer byteBuffer) throws IOException {
+    if (position >= blobSize) {
+      closeStreamedContent();
+      endOfStream = true;
+      return -1;
+    }
+    final int toRead = (int) Math.min(byteBuffer.remaining(), blobSize - position);
+    if (toRead == 0) {
+      return 0;
+    }
+    final Map<StorageRpc.Option, ?> options = readOptions();
+    int start = byteBuffer.position();
+    int read;
+    try {
+      // only the stream is retried, the checksum is updated once the bytes are returned
+      read = runWithRetries(new Callable<Integer>() {
+        @Override
+        public Integer call() throws IOException {
+          if (streamedContent == null) {
+            streamedContent = storageRpc.openStream(storageObject, options, position);
+          }
+          try {
+            int count = readStreamedContent(byteBuffer, toRead);
+            if (count < 0) {
+              throw new EOFException("Unexpected end of blob " + blob);
+            }
+            return count;
+          } catch (IOException e) {
+            closeStreamedContent();
+            throw e;
+          }
+        }
+      }, serviceOptions.retryParams(), StorageImpl.STREAM_EXCEPTION_HANDLER);
+    } catch (RetryHelper.RetryInterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (RetryHelper.RetryHelperException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw StorageException.translateAndThrow(e);
+    }
+    long from = position;
+    position += read;
+    if (position >= blobSize) {
+      closeStreamedContent();
+    }
+    updateChecksum(byteBuffer, start, read, from);
+    return read;
+  }
+
+  private int readStreamedContent(ByteBuffer byteBuffer, int length) throws IOException {
+    int read;
+    if (byteBuffer.hasArray()) {
+      byte[] array = byteBuffer.array();
+      int offset = byteBuffer.arrayOffset() + byteBuffer.position();
+      read = streamedContent.read(array, offset, length);
+      if (read > 0) {
+        byteBuffer.position(byteBuffer.position() + read);
+      }
+    } else {
+      byte[] bytes = new byte[Math.min(length, DEFAULT_CHUNK_SIZE)];
+      read = streamedContent.read(bytes);
+      if (read > 0) {
+        byteBuffer.put(bytes, 0, read);
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Reads the decompressed content of a gzip-encoded blob, starting at {@code position}, from a
+   * stream over the whole blob. The stream is kept open across reads and reopened when the channel
+   * seeks backwards.
+   */
+  private int readDecoded(ByteBuffer byteBuffer) throws IOException {
+    if (endOfStream) {
+      return -1;
+    }
+    if (decodedContent != null && decodedPosition > position) {
+      closeDecodedContent();
+    }
+    if (decodedContent == null) {
+      final Map<StorageRpc.Option, ?> options = sliceOptions();
+      try {
+        decodedContent = runWithRetries(new Callable<InputStream>() {
           @Override
-          public byte[] call() {
-            return storageRpc.read(storageObject, requestOptions, position, toRead);
+          public InputStream call() {
+            return storageRpc.openStream(storageObject, options);
           }
         }, serviceOptions.retryParams(), StorageImpl.EXCEPTION_HANDLER);
       } catch (RetryHelper.RetryHelperException e) {
         throw StorageException.translateAndThrow(e);
       }
-      if (toRead > buffer.length) {
-        endOfStream = true;
-        if (buffer.length == 0) {
-          buffer = null;
+      decodedPosition = 0;
+    }
+    try {
+      ByteStreams.skipFully(decodedContent, position - decodedPosition);
+    } catch (EOFException e) {
+      endOfStream = true;
+      closeDecodedContent();
+      return -1;
+    }
+    decodedPosition = position;
+    int read;
+    if (byteBuffer.hasArray()) {
+      read = decodedContent.read(byteBuffer.array(),
+          byteBuffer.arrayOffset() + byteBuffer.position(), byteBuffer.remaining());
+      if (read > 0) {
+        byteBuffer.position(byteBuffer.position() + read);
+      }
+    } else {
+      byte[] bytes = new byte[Math.min(byteBuffer.remaining(), DEFAULT_CHUNK_SIZE)];
+      read = decodedContent.read(bytes);
+      if (read > 0) {
+        byteBuffer.put(bytes, 0, read);
+      }
+    }
+    if (read < 0) {
+      endOfStream = true;
+      closeDecodedContent();
+      return -1;
+    }
+    position += read;
+    decodedPosition += read;
+    return read;
+  }
+
+  /**
+   * Adds the bytes of the blob returned by the channel, {@code length} bytes of {@code bytes}
+   * starting at offset {@code from} of the blob, to the checksum. Bytes that were already added are
+   * skipped, the checksum is given up if bytes before {@code from} were not added.
+   */
+  private void updateChecksum(byte[] bytes, int offset, int length, long from) {
+    if (checksum == null) {
+      return;
+    }
+    if (from > checksumPosition) {
+      checksum = null;
+      return;
+    }
+    int skip = (int) Math.min(length, checksumPosition - from);
+    checksum.update(bytes, offset + skip, length - skip);
+    checksumPosition += length - skip;
+    verifyChecksum();
+  }
+
+  /**
+   * Adds the {@code length} bytes of {@code byteBuffer} starting at index {@code start}, the bytes
+   * of the blob starting at offset {@code from}, to the checksum.
+   */
+  private void updateChecksum(ByteBuffer byteBuffer, int start, int length, long from) {
+    if (checksum == null) {
+      return;
+    }
+    if (byteBuffer.hasArray()) {
+      updateChecksum(byteBuffer.array(), byteBuffer.arrayOffset() + start, length, from);
+    } else {
+      byte[] bytes = new byte[length];
+      ((ByteBuffer) byteBuffer.duplicate().position(start)).get(bytes);
+      updateChecksum(bytes, 0, length, from);
+    }
+  }
+
+  /**
+   * Checks the checksum of the content returned by the channel once the whole blob was returned.
+   *
+   * @throws StorageException if the content does not match the blob's checksum
+   */
+  private void verifyChecksum() {
+    if (checksum != null && checksumPosition == blobSize) {
+      ContentChecksum verified = checksum;
+      checksum = null;
+      verified.verify();
+    }
+  }
+
+  /**
+   * Returns the options of the requests reading the blob's content: the ones pinning the blob's
+   * generation once its metadata was fetched, the request options otherwise.
+   */
+  private Map<StorageRpc.Option, ?> readOptions() {
+    return sliceOptions != null ? sliceOptions : requestOptions;
+  }
+
+  @Override
+  public int read(ByteBuffer byteBuffer) throws IOException {
+    validateOpen();
+    if (decompress || validateChecksum) {
+      sliceOptions();
+      if (decompress && gzipEncoded) {
+        return readDecoded(byteBuffer);
+      }
+      verifyChecksum();
+    }
+    if (streaming && bufferPos >= bufferLimit) {
+      sliceOptions();
+      if (!gzipEncoded) {
+        return readStreamed(byteBuffer);
+      }
+    }
+    if (bufferPos >= bufferLimit) {
+      if (endOfStream) {
+        return -1;
+      }
+      if (parallelism > 1 || readAhead > 0) {
+        ByteBuffer slice = nextSlice();
+        if (slice == null) {
+          endOfStream = true;
           return -1;
         }
+        releaseBuffer(buffer);
+        buffer = slice.array();
+        bufferLimit = slice.limit();
+      } else {
+        if (sliceOptions == null && serviceOptions.contentCacheDirectory() != null) {
+          // pins the generation, so that cached chunks are read without a metadata request each
+          sliceOptions();
+        }
+        int toRead = byteBuffer.remaining();
+        if (toRead >= chunkSize) {
+          // large reads skip the channel's buffer and go straight to the caller's one
+          int read;
+          int start = byteBuffer.position();
+          try {
+            read = readChunk(readOptions(), position, byteBuffer);
+          } catch (RetryHelper.RetryHelperException e) {
+            throw StorageException.translateAndThrow(e);
+          }
+          updateChecksum(byteBuffer, start, read, position);
+          position += read;
+          if (read < toRead) {
+            endOfStream = true;
+            if (read == 0) {
+              return -1;
+            }
+          }
+          return read;
+        }
+        if (buffer == null || buffer.length < chunkSize) {
+          releaseBuffer(buffer);
+          buffer = bufferPool().acquire(chunkSize);
+        }
+        try {
+          ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, chunkSize);
+          bufferLimit = readChunk(readOptions(), position, chunk);
+        } catch (RetryHelper.RetryHelperException e) {
+          throw StorageException.translateAndThrow(e);
+        }
+        if (bufferLimit < chunkSize) {
+          endOfStream = true;
+          if (bufferLimit == 0) {
+            return -1;
+          }
+        }
       }
     }
-    int toWrite = Math.min(buffer.length - bufferPos, byteBuffer.remaining());
+    int toWrite = Math.min(bufferLimit - bufferPos, byteBuffer.remaining());
     byteBuffer.put(buffer, bufferPos, toWrite);
+    updateChecksum(buffer, bufferPos, toWrite, position + bufferPos);
     bufferPos += toWrite;
-    if (bufferPos >= buffer.length) {
-      position += buffer.length;
-      buffer = null;
-      bufferPos = 0;
+    if (bufferPos >= bufferLimit) {
+      position += bufferLimit;
+      clearBuffer();
     }
     return toWrite;
   }
@@ -34,4 +34,28 @@ public interface BlobWriteChannel extends WritableByteChannel, Serializable, Clo
    * Written data will be buffered and only flushed upon reaching this size or closing the channel.
    */
   void chunkSize(int chunkSize);
+
+  /**
+   * Sets the number of chunks that can be uploaded in the background. When set, a full chunk is
+   * handed to a background uploader and {@link #write} returns while the chunk is being uploaded,
+   * blocking only when {@code chunks} chunks are already waiting to be uploaded. Chunks are still
+   * uploaded one at a time and in order, on the {@link StorageOptions#executorFactory()} executor.
+   * A failed background upload is reported by the next call to {@link #write} or {@link #close}.
+   * At most {@code (chunks + 1) * chunkSize} bytes are buffered. {@code 0} (the default) disables
+   * background uploads.
+   */
+  void writeBehind(int chunks);
+
+  /**
+   * Returns the id of the resumable upload session used by this channel. The upload can be
+   * continued by another process with {@link Storage#resumeWriter}.
+   */
+  String uploadId();
+
+  /**
+   * Returns the number of bytes persisted by the service. Bytes written to the channel after this
+   * offset are still buffered or being uploaded. A channel obtained with
+   * {@link Storage#resumeWriter} continues the upload from this offset.
+   */
+  long committedOffset();
 }
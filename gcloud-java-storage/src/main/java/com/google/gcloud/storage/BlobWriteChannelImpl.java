@@ -17,18 +17,23 @@
 package com.google.gcloud.storage;
 
 import static com.google.gcloud.RetryHelper.runWithRetries;
-import static java.util.concurrent.Executors.callable;
 
 import com.google.api.services.storage.model.StorageObject;
 import com.google.gcloud.RetryHelper;
 import com.google.gcloud.spi.StorageRpc;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Default implementation for BlobWriteChannel.
@@ -38,52 +43,261 @@ class BlobWriteChannelImpl implements BlobWriteChannel {
   private static final long serialVersionUID = 8675286882724938737L;
   private static final int MIN_CHUNK_SIZE = 256 * 1024;
   private static final int DEFAULT_CHUNK_SIZE = 8 * MIN_CHUNK_SIZE;
+  private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
 
   private final StorageOptions options;
   private final BlobInfo blobInfo;
   private final String uploadId;
-  private int position;
+  private final boolean compress;
+  private long position;
+  private volatile long committedOffset;
   private byte[] buffer = new byte[0];
   private int limit;
   private boolean isOpen = true;
   private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private int writeBehind;
 
   private transient StorageRpc storageRpc;
   private transient StorageObject storageObject;
+  private transient BufferPool bufferPool;
+  private transient Object uploadLock;
+  private transient Deque<Chunk> pendingChunks;
+  private transient boolean uploading;
+  private transient RuntimeException uploadFailure;
+  private transient GZIPOutputStream compressor;
+  private transient ContentChecksum checksum;
+  private transient StorageObject created;
+
+  /**
+   * A chunk handed to the background uploader.
+   */
+  private static final class Chunk {
+
+    private final byte[] data;
+    private final int length;
+    private final long position;
+
+    Chunk(byte[] data, int length, long position) {
+      this.data = data;
+      this.length = length;
+      this.position = position;
+    }
+  }
 
   BlobWriteChannelImpl(StorageOptions options, BlobInfo blobInfo,
       Map<StorageRpc.Option, ?> optionsMap) {
+    this(options, blobInfo, optionsMap, false, false);
+  }
+
+  /**
+   * Creates a channel that uploads a new blob. If {@code compress} is {@code true}, the bytes
+   * written to the channel are gzip-compressed before being buffered and uploaded; such a channel
+   * can't be serialized, as the state of the compressor can't be captured. If
+   * {@code validateChecksum} is {@code true}, the CRC32C checksum of the uploaded bytes is sent
+   * with the last chunk for the service to check. A deserialized channel no longer sends it, as
+   * the checksum of the bytes uploaded before serialization is lost.
+   */
+  BlobWriteChannelImpl(StorageOptions options, BlobInfo blobInfo,
+      Map<StorageRpc.Option, ?> optionsMap, boolean compress, boolean validateChecksum) {
     this.options = options;
     this.blobInfo = blobInfo;
+    this.compress = compress;
     initTransients();
+    if (validateChecksum) {
+      checksum = ContentChecksum.crc32c();
+    }
     uploadId = storageRpc.open(storageObject, optionsMap);
   }
 
+  /**
+   * Creates a channel that continues the resumable upload {@code uploadId} from the offset
+   * persisted by the service. The channel is closed if the upload is already complete.
+   */
+  BlobWriteChannelImpl(StorageOptions options, BlobInfo blobInfo, final String uploadId) {
+    this.options = options;
+    this.blobInfo = blobInfo;
+    this.uploadId = uploadId;
+    this.compress = false;
+    initTransients();
+    long offset;
+    try {
+      offset = runWithRetries(new Callable<Long>() {
+        @Override
+        public Long call() {
+          return storageRpc.getUploadOffset(uploadId);
+        }
+      }, options.retryParams(), StorageImpl.EXCEPTION_HANDLER);
+    } catch (RetryHelper.RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+    if (offset < 0) {
+      isOpen = false;
+    } else {
+      position = offset;
+      committedOffset = offset;
+    }
+  }
+
   private void writeObject(ObjectOutputStream out) throws IOException {
+    if (isOpen && compress) {
+      throw new NotSerializableException("A channel compressing its content can't be serialized");
+    }
     if (isOpen) {
       flush(true);
+      awaitUploads();
     }
     out.defaultWriteObject();
   }
 
-  private void flush(boolean compact) {
+  private void flush(boolean compact) throws IOException {
     if (limit >= chunkSize || compact && limit >= MIN_CHUNK_SIZE) {
       final int length = limit - limit % MIN_CHUNK_SIZE;
-      try {
-        runWithRetries(callable(new Runnable() {
+      byte[] chunk = buffer;
+      // leftover is moved before the chunk is uploaded, as the chunk is then returned to the pool
+      buffer = compact ? new byte[limit - length] : bufferPool().acquire(chunkSize);
+      System.arraycopy(chunk, length, buffer, 0, limit - length);
+      if (writeBehind > 0 && !compact) {
+        submitChunk(new Chunk(chunk, length, position));
+      } else {
+        awaitUploads();
+        try {
+          upload(chunk, position, length, false);
+        } finally {
+          bufferPool().release(chunk);
+        }
+      }
+      position += length;
+      limit -= length;
+    }
+  }
+
+  private BufferPool bufferPool() {
+    if (bufferPool == null) {
+      bufferPool = options.bufferPool();
+    }
+    return bufferPool;
+  }
+
+  /**
+   * Uploads {@code length} bytes of {@code data} at offset {@code from} of the blob. When an
+   * attempt fails the service may have persisted part of the bytes, so retries first query the
+   * persisted offset and only send the remaining bytes.
+   */
+  private void upload(final byte[] data, final long from, final int length, final boolean last) {
+    StorageObject result;
+    try {
+      result = runWithRetries(new Callable<StorageObject>() {
+        private boolean retry;
+
+        @Override
+        public StorageObject call() {
+          long offset = from;
+          if (retry) {
+            offset = storageRpc.getUploadOffset(uploadId);
+            if (offset < 0 && last) {
+              // the previous attempt completed the upload but its response was lost
+              return null;
+            }
+            if (offset < from || offset > from + length) {
+              throw new StorageException(StorageException.UNKNOWN_CODE,
+                  "Unexpected offset " + offset + " persisted for upload " + uploadId, false);
+            }
+          }
+          retry = true;
+          int persisted = (int) (offset - from);
+          if (persisted < length || last) {
+            return storageRpc.write(uploadId, data, persisted, storageObject, offset,
+                length - persisted, last);
+          }
+          return null;
+        }
+      }, options.retryParams(), StorageImpl.EXCEPTION_HANDLER);
+    } catch (RetryHelper.RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+    if (last) {
+      created = result;
+    }
+    committedOffset = from + length;
+  }
+
+  /**
+   * Hands {@code chunk} to the background uploader, blocking while {@code writeBehind} chunks are
+   * already pending. Chunks are uploaded one at a time in the order they are submitted, as
+   * required by resumable uploads.
+   */
+  private void submitChunk(Chunk chunk) throws IOException {
+    synchronized (uploadLock) {
+      while (pendingChunks.size() >= writeBehind && uploadFailure == null) {
+        waitForUploads();
+      }
+      checkUploadFailure();
+      pendingChunks.add(chunk);
+      if (!uploading) {
+        uploading = true;
+        options.executorFactory().get().execute(new Runnable() {
           @Override
           public void run() {
-            storageRpc.write(uploadId, buffer, 0, storageObject, position, length, false);
+            drainChunks();
           }
-        }), options.retryParams(), StorageImpl.EXCEPTION_HANDLER);
-      } catch (RetryHelper.RetryHelperException e) {
-        throw StorageException.translateAndThrow(e);
+        });
       }
-      position += length;
-      limit -= length;
-      byte[] temp = new byte[compact ? limit : chunkSize];
-      System.arraycopy(buffer, length, temp, 0, limit);
-      buffer = temp;
+    }
+  }
+
+  private void drainChunks() {
+    while (true) {
+      Chunk chunk;
+      synchronized (uploadLock) {
+        chunk = pendingChunks.peek();
+        if (chunk == null || uploadFailure != null) {
+          uploading = false;
+          uploadLock.notifyAll();
+          return;
+        }
+      }
+      RuntimeException failure = null;
+      try {
+        upload(chunk.data, chunk.position, chunk.length, false);
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        bufferPool().release(chunk.data);
+      }
+      synchronized (uploadLock) {
+        pendingChunks.poll();
+        uploadFailure = failure;
+        uploadLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until all the chunks handed to the background uploader are uploaded.
+   *
+   * @throws StorageException if a background upload failed
+   */
+  private void awaitUploads() throws IOException {
+    synchronized (uploadLock) {
+      while (uploading) {
+        waitForUploads();
+      }
+      checkUploadFailure();
+    }
+  }
+
+  private void waitForUploads() throws IOException {
+    try {
+      uploadLock.wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void checkUploadFailure() {
+    if (uploadFailure != null) {
+      throw uploadFailure;
     }
   }
 
@@ -97,6 +311,8 @@ class BlobWriteChannelImpl implements BlobWriteChannel {
   private void initTransients() {
     storageRpc = options.storageRpc();
     storageObject = blobInfo.toPb();
+    uploadLock = new Object();
+    pendingChunks = new ArrayDeque<>();
   }
 
   private void validateOpen() throws IOException {
@@ -105,17 +321,65 @@ class BlobWriteChannelImpl implements BlobWriteChannel {
     }
   }
 
+  /**
+   * Returns the stream compressing the bytes written to the channel into its buffer.
+   */
+  private GZIPOutputStream compressor() throws IOException {
+    if (compressor == null) {
+      compressor = new GZIPOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          append(ByteBuffer.wrap(bytes, offset, length));
+        }
+      }, COMPRESSION_BUFFER_SIZE);
+    }
+    return compressor;
+  }
+
   @Override
   public int write(ByteBuffer byteBuffer) throws IOException {
     validateOpen();
+    synchronized (uploadLock) {
+      checkUploadFailure();
+    }
+    if (!compress) {
+      return append(byteBuffer);
+    }
     int toWrite = byteBuffer.remaining();
-    int spaceInBuffer = buffer.length - limit;
-    if (spaceInBuffer >= toWrite) {
-      byteBuffer.get(buffer, limit, toWrite);
+    if (byteBuffer.hasArray()) {
+      compressor().write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(),
+          toWrite);
+      byteBuffer.position(byteBuffer.limit());
     } else {
-      buffer = Arrays.copyOf(buffer, Math.max(chunkSize, buffer.length + toWrite - spaceInBuffer));
-      byteBuffer.get(buffer, limit, toWrite);
+      byte[] bytes = new byte[toWrite];
+      byteBuffer.get(bytes);
+      compressor().write(bytes);
+    }
+    return toWrite;
+  }
+
+  /**
+   * Appends the content of {@code byteBuffer} to the channel's buffer, uploading the buffered bytes
+   * once a chunk is filled.
+   */
+  private int append(ByteBuffer byteBuffer) throws IOException {
+    int toWrite = byteBuffer.remaining();
+    if (checksum != null) {
+      checksum.update(byteBuffer);
+    }
+    int spaceInBuffer = buffer.length - limit;
+    if (spaceInBuffer < toWrite) {
+      byte[] temp = bufferPool().acquire(Math.max(chunkSize, limit + toWrite));
+      System.arraycopy(buffer, 0, temp, 0, limit);
+      bufferPool().release(buffer);
+      buffer = temp;
     }
+    byteBuffer.get(buffer, limit, toWrite);
     limit += toWrite;
     flush(false);
     return toWrite;
@@ -129,18 +393,19 @@ class BlobWriteChannelImpl implements BlobWriteChannel {
   @Override
   public void close() throws IOException {
     if (isOpen) {
-      try {
-        runWithRetries(callable(new Runnable() {
-          @Override
-          public void run() {
-            storageRpc.write(uploadId, buffer, 0, storageObject, position, limit, true);
-          }
-        }), options.retryParams(), StorageImpl.EXCEPTION_HANDLER);
-      } catch (RetryHelper.RetryHelperException e) {
-        throw StorageException.translateAndThrow(e);
+      if (compress) {
+        // writes the remaining compressed bytes and the gzip trailer to the buffer
+        compressor().close();
+      }
+      awaitUploads();
+      if (checksum != null) {
+        storageObject = storageObject.clone().setCrc32c(checksum.value());
       }
-      position += buffer.length;
+      upload(buffer, position, limit, true);
+      position += limit;
+      limit = 0;
       isOpen = false;
+      bufferPool().release(buffer);
       buffer = null;
     }
   }
@@ -150,4 +415,28 @@ class BlobWriteChannelImpl implements BlobWriteChannel {
     chunkSize = (chunkSize / MIN_CHUNK_SIZE) * MIN_CHUNK_SIZE;
     this.chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize);
   }
+
+  @Override
+  public String uploadId() {
+    return uploadId;
+  }
+
+  @Override
+  public long committedOffset() {
+    return committedOffset;
+  }
+
+  /**
+   * Returns the blob created by the upload once the channel is closed, as described by the
+   * response completing the upload. Returns {@code null} if the channel is open or if that
+   * response was lost, the upload being completed by an earlier attempt.
+   */
+  BlobInfo created() {
+    return created != null ? BlobInfo.fromPb(created) : null;
+  }
+
+  @Override
+  public void writeBehind(int chunks) {
+    this.writeBehind = Math.max(0, chunks);
+  }
 }
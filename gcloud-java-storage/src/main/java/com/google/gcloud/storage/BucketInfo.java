@@ -734,7 +734,7 @@ public final class BucketInfo implements Serializable {
             }
           }));
     }
-    if (bucketPb.getOwner() != null) {
+    if (bucketPb.getOwner() != null && bucketPb.getOwner().getEntity() != null) {
       builder.owner(Entity.fromPb(bucketPb.getOwner().getEntity()));
     }
     if (bucketPb.getVersioning() != null) {
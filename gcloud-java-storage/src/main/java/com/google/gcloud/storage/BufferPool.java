@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays shared by the channels of the storage services with equal options, so
+ * that chunk buffers are reused rather than allocated for every chunk. Buffers are grouped in size
+ * classes: powers of two up to {@code 256KB} and multiples of {@code 256KB} above it, so that the
+ * usual chunk sizes are pooled without waste. At most {@code maxPooledBytes} bytes of idle buffers
+ * are retained, buffers released beyond that are left to the garbage collector. The pool doesn't
+ * bound the buffers in use: {@link #acquire} allocates a new buffer whenever no idle one fits, as
+ * channels can't wait for each other's buffers without risking a deadlock.
+ */
+final class BufferPool {
+
+  private static final int LARGE_SIZE_CLASS = 256 * 1024;
+
+  private final long maxPooledBytes;
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final ConcurrentMap<Integer, Queue<byte[]>> buffers = new ConcurrentHashMap<>();
+
+  BufferPool(long maxPooledBytes) {
+    checkArgument(maxPooledBytes >= 0, "Pool size must not be negative");
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  /**
+   * Returns a buffer of at least {@code size} bytes. The content of the buffer is undefined.
+   */
+  byte[] acquire(int size) {
+    int capacity = sizeClass(size);
+    Queue<byte[]> queue = buffers.get(capacity);
+    byte[] buffer = queue != null ? queue.poll() : null;
+    if (buffer != null) {
+      pooledBytes.addAndGet(-capacity);
+      return buffer;
+    }
+    return new byte[capacity];
+  }
+
+  /**
+   * Returns {@code buffer} to the pool. The caller must not use {@code buffer} afterwards.
+   */
+  void release(byte[] buffer) {
+    if (buffer == null || buffer.length == 0 || sizeClass(buffer.length) != buffer.length) {
+      return;
+    }
+    int capacity = buffer.length;
+    if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+      pooledBytes.addAndGet(-capacity);
+      return;
+    }
+    Queue<byte[]> queue = buffers.get(capacity);
+    if (queue == null) {
+      Queue<byte[]> newQueue = new ConcurrentLinkedQueue<>();
+      queue = buffers.putIfAbsent(capacity, newQueue);
+      if (queue == null) {
+        queue = newQueue;
+      }
+    }
+    queue.offer(buffer);
+  }
+
+  /**
+   * Returns the number of bytes held by idle buffers.
+   */
+  long pooledBytes() {
+    return pooledBytes.get();
+  }
+
+  static int sizeClass(int size) {
+    if (size <= 1) {
+      return 1;
+    }
+    if (size <= LARGE_SIZE_CLASS) {
+      return Integer.highestOneBit(size - 1) << 1;
+    }
+    int remainder = size % LARGE_SIZE_CLASS;
+    if (remainder == 0 || size > Integer.MAX_VALUE - LARGE_SIZE_CLASS) {
+      return size;
+    }
+    return size - remainder + LARGE_SIZE_CLASS;
+  }
+}
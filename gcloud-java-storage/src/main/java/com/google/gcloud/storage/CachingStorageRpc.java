@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.gcloud.ServiceOptions.Clock;
+import com.google.gcloud.spi.ForwardingStorageRpc;
+import com.google.gcloud.spi.StorageRpc;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link StorageRpc} that caches blob metadata. Unconditional get requests are served from the
+ * cache for {@code ttlMillis} milliseconds after the entry was fetched. Past that, the entry is
+ * revalidated with an {@code ifGenerationMatch} and {@code ifMetagenerationNotMatch} request,
+ * which returns no content if the metadata did not change. If the blob was overwritten since, the
+ * request fails its generation precondition, as the metageneration of the new generation may be
+ * the cached one, and the entry is fetched again. The cache holds at most {@code maxEntries}
+ * entries, the least recently used are evicted first. Blobs written or deleted through this object
+ * are updated in or removed from the cache; changes made by other clients are only seen once the
+ * entry expires. Responses of requests with a projection or a fields mask may be partial, they
+ * only remove the blob from the cache.
+ */
+final class CachingStorageRpc extends ForwardingStorageRpc {
+
+  private static final int HTTP_NOT_MODIFIED = 304;
+  private static final int HTTP_PRECONDITION_FAILED = 412;
+
+  private final Cache<BlobId, Entry> cache;
+  private final long ttlMillis;
+  private final Clock clock;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong revalidationCount = new AtomicLong();
+
+  private static final class Entry {
+
+    private final StorageObject object;
+    private final long fetchTime;
+
+    Entry(StorageObject object, long fetchTime) {
+      this.object = object;
+      this.fetchTime = fetchTime;
+    }
+  }
+
+  CachingStorageRpc(StorageRpc delegate, long maxEntries, long ttlMillis, Clock clock) {
+    super(delegate);
+    checkArgument(maxEntries > 0, "Cache size must be positive");
+    checkArgument(ttlMillis >= 0, "Cache TTL must not be negative");
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+  }
+
+  MetadataCacheStats stats() {
+    return new MetadataCacheStats(hitCount.get(), missCount.get(), revalidationCount.get(),
+        cache.stats().evictionCount());
+  }
+
+  /**
+   * Returns whether the responses of requests with {@code options} may lack some of the metadata.
+   */
+  private static boolean isPartial(Map<Option, ?> options) {
+    return options.containsKey(Option.PROJECTION) || options.containsKey(Option.FIELDS);
+  }
+
+  private void put(StorageObject object, Map<Option, ?> options) {
+    if (object != null && !isPartial(options)) {
+      cache.put(BlobId.fromPb(object), new Entry(object.clone(), clock.millis()));
+    }
+  }
+
+  private void invalidate(StorageObject object) {
+    cache.invalidate(BlobId.fromPb(object));
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options) {
+    if (!options.isEmpty() || object.getGeneration() != null) {
+      return delegate().get(object, options);
+    }
+    BlobId blobId = BlobId.fromPb(object);
+    Entry entry = cache.getIfPresent(blobId);
+    if (entry != null && clock.millis() - entry.fetchTime < ttlMillis) {
+      hitCount.incrementAndGet();
+      return entry.object.clone();
+    }
+    StorageObject fetched;
+    try {
+      if (entry != null) {
+        fetched = delegate().get(object, revalidationOptions(entry.object));
+      } else {
+        fetched = delegate().get(object, options);
+      }
+    } catch (StorageException ex) {
+      if (entry != null && ex.code() == HTTP_NOT_MODIFIED) {
+        hitCount.incrementAndGet();
+        revalidationCount.incrementAndGet();
+        cache.put(blobId, new Entry(entry.object, clock.millis()));
+        return entry.object.clone();
+      }
+      if (entry == null || ex.code() != HTTP_PRECONDITION_FAILED) {
+        if (ex.code() == HTTP_NOT_FOUND) {
+          cache.invalidate(blobId);
+        }
+        throw ex;
+      }
+      // the blob was overwritten, the cached metadata is of a previous generation
+      cache.invalidate(blobId);
+      fetched = delegate().get(object, options);
+    }
+    missCount.incrementAndGet();
+    put(fetched, options);
+    return fetched;
+  }
+
+  private static Map<Option, ?> revalidationOptions(StorageObject cached) {
+    if (cached.getGeneration() == null) {
+      return ImmutableMap.of(Option.IF_METAGENERATION_NOT_MATCH, cached.getMetageneration());
+    }
+    return ImmutableMap.of(Option.IF_GENERATION_MATCH, cached.getGeneration(),
+        Option.IF_METAGENERATION_NOT_MATCH, cached.getMetageneration());
+  }
+
+  @Override
+  public StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options) {
+    invalidate(object);
+    StorageObject created = delegate().create(object, content, options);
+    put(created, options);
+    return created;
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options) {
+    invalidate(storageObject);
+    StorageObject patched = delegate().patch(storageObject, options);
+    put(patched, options);
+    return patched;
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) {
+    invalidate(object);
+    return delegate().delete(object, options);
+  }
+
+  @Override
+  public BatchResponse batch(BatchRequest request) {
+    for (Tuple<StorageObject, Map<Option, ?>> tuple : request.toDelete) {
+      invalidate(tuple.x());
+    }
+    for (Tuple<StorageObject, Map<Option, ?>> tuple : request.toUpdate) {
+      invalidate(tuple.x());
+    }
+    return delegate().batch(request);
+  }
+
+  @Override
+  public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+      Map<Option, ?> targetOptions) {
+    invalidate(target);
+    StorageObject composed = delegate().compose(sources, target, targetOptions);
+    put(composed, targetOptions);
+    return composed;
+  }
+
+  @Override
+  public StorageObject copy(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions) {
+    invalidate(target);
+    StorageObject copied = delegate().copy(source, sourceOptions, target, targetOptions);
+    if (!isPartial(sourceOptions)) {
+      put(copied, targetOptions);
+    }
+    return copied;
+  }
+
+  @Override
+  public RewriteResponse rewrite(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions, String rewriteToken,
+      Long maxBytesRewrittenPerCall) {
+    RewriteResponse response = delegate().rewrite(source, sourceOptions, target, targetOptions,
+        rewriteToken, maxBytesRewrittenPerCall);
+    if (response.done) {
+      // the target is only replaced by the call that completes the rewrite
+      invalidate(target);
+      if (!isPartial(sourceOptions)) {
+        put(response.result, targetOptions);
+      }
+    }
+    return response;
+  }
+
+  @Override
+  public String open(StorageObject object, Map<Option, ?> options) {
+    invalidate(object);
+    return delegate().open(object, options);
+  }
+
+  @Override
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset,
+      StorageObject dest, long destOffset, int length, boolean last) {
+    StorageObject result =
+        delegate().write(uploadId, toWrite, toWriteOffset, dest, destOffset, length, last);
+    if (last) {
+      invalidate(dest);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.gcloud.storage.Storage.BlobTargetOption;
+import com.google.gcloud.storage.Storage.ComposeRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A parallel composite upload. Content is split into parts of {@link Builder#partSize} bytes that
+ * are uploaded concurrently as temporary blobs in the target's bucket, and then composed into the
+ * target blob with {@link Storage#compose}. When there are more parts than a single compose
+ * request accepts, parts are first composed into intermediate temporary blobs. Temporary blobs are
+ * deleted once the upload completes or fails.
+ *
+ * <p>Content that fits in a single part is uploaded directly to the target. Parts are uploaded on
+ * the {@link StorageOptions#executorFactory()} executor. When
+ * {@link StorageOptions#gzipContent()} is enabled and the target has no content encoding, each
+ * part is gzip-compressed on its own and the intermediate blobs and the target are stored with a
+ * {@code gzip} content encoding: the composed content is a sequence of gzip members, itself a
+ * valid gzip stream. When uploading a stream, at most
+ * {@code parallelism + 1} parts are held in memory at any time; parts of a file are uploaded from
+ * memory mapped regions of the file.
+ *
+ * <p>Example usage:
+ * <pre>   {@code
+ *     CompositeUpload upload = CompositeUpload.builder(storage, BlobInfo.builder("b", "n").build())
+ *         .partSize(32 * 1024 * 1024)
+ *         .parallelism(8)
+ *         .build();
+ *     BlobInfo blob = upload.upload(Paths.get("backup.tar"));
+ * }</pre>
+ *
+ * @see <a href="https://cloud.google.com/storage/docs/composite-objects">Composite Objects</a>
+ */
+public final class CompositeUpload {
+
+  /**
+   * Maximum number of source blobs of a compose request.
+   */
+  public static final int MAX_COMPOSE_SOURCES = 32;
+  private static final int DEFAULT_PART_SIZE = 32 * 1024 * 1024;
+  private static final int DEFAULT_PARALLELISM = 4;
+
+  private final Storage storage;
+  private final BlobInfo target;
+  private final List<BlobTargetOption> targetOptions;
+  private final int partSize;
+  private final int parallelism;
+  private final ProgressListener listener;
+
+  /**
+   * Receives notifications on the progress of a composite upload. Notifications are sent from the
+   * threads uploading the parts, possibly concurrently and not in part order.
+   */
+  public interface ProgressListener {
+
+    /**
+     * Called once part number {@code part} (0-based) has been uploaded.
+     *
+     * @param part the index of the part in the content
+     * @param size the size of the part in bytes
+     */
+    void partUploaded(int part, long size);
+  }
+
+  public static final class Builder {
+
+    private final Storage storage;
+    private final BlobInfo target;
+    private final List<BlobTargetOption> targetOptions = new ArrayList<>();
+    private int partSize = DEFAULT_PART_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private ProgressListener listener;
+
+    private Builder(Storage storage, BlobInfo target) {
+      this.storage = checkNotNull(storage);
+      this.target = checkNotNull(target);
+    }
+
+    /**
+     * Sets the size in bytes of the uploaded parts. Default is 32MB.
+     */
+    public Builder partSize(int partSize) {
+      checkArgument(partSize > 0, "Part size must be positive");
+      this.partSize = partSize;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of parts uploaded concurrently. Default is 4.
+     */
+    public Builder parallelism(int parallelism) {
+      checkArgument(parallelism > 0, "Parallelism must be positive");
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Sets a listener to be notified as parts are uploaded.
+     */
+    public Builder listener(ProgressListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Sets the options to apply to the target blob.
+     */
+    public Builder targetOptions(BlobTargetOption... options) {
+      Collections.addAll(targetOptions, options);
+      return this;
+    }
+
+    public CompositeUpload build() {
+      return new CompositeUpload(this);
+    }
+  }
+
+  private CompositeUpload(Builder builder) {
+    storage = builder.storage;
+    target = builder.target;
+    targetOptions = ImmutableList.copyOf(builder.targetOptions);
+    partSize = builder.partSize;
+    parallelism = builder.parallelism;
+    listener = builder.listener;
+  }
+
+  public BlobInfo target() {
+    return target;
+  }
+
+  public int partSize() {
+    return partSize;
+  }
+
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Uploads the content of {@code file} to the target blob. Parts are not copied in memory: each
+   * part is uploaded from a memory mapped region of the file, which is read again from its start
+   * if the upload of the part is retried.
+   *
+   * @return the uploaded blob
+   * @throws IOException upon failure reading {@code file}
+   * @throws StorageException upon failure
+   */
+  public BlobInfo upload(Path file) throws IOException {
+    try (FileChannel content = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new Session().upload(content);
+    }
+  }
+
+  /**
+   * Uploads {@code content} to the target blob. The stream is read to its end but not closed.
+   *
+   * @return the uploaded blob
+   * @throws IOException upon failure reading {@code content}
+   * @throws StorageException upon failure
+   */
+  public BlobInfo upload(InputStream content) throws IOException {
+    return new Session().upload(content);
+  }
+
+  /**
+   * Returns a builder for a composite upload of {@code target}, using {@code storage}.
+   */
+  public static Builder builder(Storage storage, BlobInfo target) {
+    return new Builder(storage, target);
+  }
+
+  /**
+   * State of a single upload: the temporary blobs created so far and the pending tasks.
+   */
+  private final class Session {
+
+    private final String temporaryPrefix =
+        target.name() + ".composite-" + UUID.randomUUID() + "/";
+    private final AtomicInteger temporaryCount = new AtomicInteger();
+    private final Set<BlobId> temporaries =
+        Collections.newSetFromMap(new ConcurrentHashMap<BlobId, Boolean>());
+    private final List<RunnableFuture<?>> tasks = new ArrayList<>();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+    // parts are compressed by storage.create, composed blobs must be marked as compressed too
+    private final boolean gzipped =
+        storage.options().gzipContent() && target.contentEncoding() == null;
+    private ExecutorService executor;
+
+    BlobInfo upload(InputStream content) throws IOException {
+      boolean completed = false;
+      try {
+        List<Future<BlobInfo>> parts = new ArrayList<>();
+        int awaited = 0;
+        int length;
+        do {
+          byte[] part = new byte[partSize];
+          length = ByteStreams.read(content, part, 0, partSize);
+          if (parts.isEmpty() && length < partSize) {
+            completed = true;
+            return storage.create(target, Arrays.copyOf(part, length),
+                Iterables.toArray(targetOptions, BlobTargetOption.class));
+          }
+          if (length > 0) {
+            // bound the number of parts in memory
+            while (parts.size() - awaited >= parallelism) {
+              StorageImpl.await(parts.get(awaited++));
+            }
+            parts.add(submit(uploadPart(parts.size(), part, length)));
+          }
+        } while (length == partSize);
+        BlobInfo blob = composeParts(parts);
+        completed = true;
+        return blob;
+      } finally {
+        if (!completed) {
+          aborted.set(true);
+        }
+        cleanUp();
+      }
+    }
+
+    BlobInfo upload(FileChannel content) throws IOException {
+      long size = content.size();
+      if (size <= partSize) {
+        return storage.create(target,
+            new ByteBufferInputStream(content.map(FileChannel.MapMode.READ_ONLY, 0, size)),
+            Iterables.toArray(targetOptions, BlobTargetOption.class));
+      }
+      boolean completed = false;
+      try {
+        List<Future<BlobInfo>> parts = new ArrayList<>();
+        int awaited = 0;
+        for (long offset = 0; offset < size; offset += partSize) {
+          // bound the number of mapped parts
+          while (parts.size() - awaited >= parallelism) {
+            StorageImpl.await(parts.get(awaited++));
+          }
+          int length = (int) Math.min(partSize, size - offset);
+          parts.add(submit(uploadPart(parts.size(), content, offset, length)));
+        }
+        BlobInfo blob = composeParts(parts);
+        completed = true;
+        return blob;
+      } finally {
+        if (!completed) {
+          aborted.set(true);
+        }
+        cleanUp();
+      }
+    }
+
+    private BlobInfo composeParts(List<Future<BlobInfo>> parts) {
+      List<BlobInfo> sources = new ArrayList<>(parts.size());
+      for (Future<BlobInfo> part : parts) {
+        sources.add(StorageImpl.await(part));
+      }
+      return compose(sources);
+    }
+
+    private <T> RunnableFuture<T> submit(Callable<T> task) {
+      if (executor == null) {
+        executor = storage.options().executorFactory().get();
+      }
+      RunnableFuture<T> future = StorageImpl.submit(executor, task);
+      tasks.add(future);
+      return future;
+    }
+
+    private BlobInfo temporaryBlob() {
+      BlobInfo temporary = BlobInfo.builder(target.bucket(),
+          temporaryPrefix + temporaryCount.getAndIncrement()).build();
+      temporaries.add(temporary.blobId());
+      return temporary;
+    }
+
+    private Callable<BlobInfo> uploadPart(final int index, final byte[] part, final int length) {
+      return new Callable<BlobInfo>() {
+        @Override
+        public BlobInfo call() {
+          if (aborted.get()) {
+            return null;
+          }
+          BlobInfo blob = storage.create(temporaryBlob(),
+              length == part.length ? part : Arrays.copyOf(part, length));
+          if (listener != null) {
+            listener.partUploaded(index, length);
+          }
+          return blob;
+        }
+      };
+    }
+
+    private Callable<BlobInfo> uploadPart(final int index, final FileChannel content,
+        final long offset, final int length) {
+      return new Callable<BlobInfo>() {
+        @Override
+        public BlobInfo call() throws IOException {
+          if (aborted.get()) {
+            return null;
+          }
+          ByteBuffer part = content.map(FileChannel.MapMode.READ_ONLY, offset, length);
+          BlobInfo blob = storage.create(temporaryBlob(), new ByteBufferInputStream(part));
+          if (listener != null) {
+            listener.partUploaded(index, length);
+          }
+          return blob;
+        }
+      };
+    }
+
+    private Callable<BlobInfo> composeGroup(final List<BlobInfo> sources) {
+      return new Callable<BlobInfo>() {
+        @Override
+        public BlobInfo call() {
+          if (aborted.get()) {
+            return null;
+          }
+          return storage.compose(composeRequest(sources, composed(temporaryBlob())).build());
+        }
+      };
+    }
+
+    /**
+     * Composes {@code sources} into the target, going through as many levels of intermediate
+     * blobs as needed to keep each compose request within {@link #MAX_COMPOSE_SOURCES} sources.
+     */
+    private BlobInfo compose(List<BlobInfo> sources) {
+      while (sources.size() > MAX_COMPOSE_SOURCES) {
+        List<Future<BlobInfo>> groups = new ArrayList<>();
+        for (List<BlobInfo> group : Lists.partition(sources, MAX_COMPOSE_SOURCES)) {
+          groups.add(submit(composeGroup(group)));
+        }
+        List<BlobInfo> composed = new ArrayList<>(groups.size());
+        for (Future<BlobInfo> group : groups) {
+          composed.add(StorageImpl.await(group));
+        }
+        sources = composed;
+      }
+      return storage.compose(composeRequest(sources, composed(target))
+          .targetOptions(targetOptions)
+          .build());
+    }
+
+    /**
+     * Returns {@code blob} with the content encoding of composed parts.
+     */
+    private BlobInfo composed(BlobInfo blob) {
+      return gzipped ? StorageImpl.gzipEncoded(blob) : blob;
+    }
+
+    private ComposeRequest.Builder composeRequest(List<BlobInfo> sources, BlobInfo composed) {
+      ComposeRequest.Builder builder = ComposeRequest.builder().target(composed);
+      for (BlobInfo source : sources) {
+        if (source.generation() != null) {
+          builder.addSource(source.name(), source.generation());
+        } else {
+          builder.addSource(source.name());
+        }
+      }
+      return builder;
+    }
+
+    /**
+     * Waits for all tasks, so that no temporary blob is created after clean up, and deletes the
+     * temporary blobs. Failures deleting temporary blobs are ignored.
+     */
+    private void cleanUp() {
+      for (RunnableFuture<?> task : tasks) {
+        try {
+          // tasks not started yet are run here, as the executor's threads may all be waiting
+          task.run();
+          task.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (ExecutionException e) {
+          // failure already reported or superseded by another one
+        }
+      }
+      List<RunnableFuture<Boolean>> deletes = new ArrayList<>(temporaries.size());
+      for (final BlobId temporary : temporaries) {
+        deletes.add(submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return storage.delete(temporary);
+          }
+        }));
+      }
+      for (RunnableFuture<Boolean> delete : deletes) {
+        try {
+          delete.run();
+          delete.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (ExecutionException e) {
+          // best effort, temporary blob is left behind
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import com.google.gcloud.spi.ForwardingStorageRpc;
+import com.google.gcloud.spi.StorageRpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link StorageRpc} that keeps the content of the blobs it reads in a local directory. As the
+ * content of a blob generation never changes, cached content is keyed by bucket, name and
+ * generation and is served, through memory mapped reads, for as long as the generation being read
+ * is the cached one. Downloaded content is checked against the blob's CRC32C or MD5 hash before
+ * being cached. Reads of a generation that is not cached yet are sent to the service while the
+ * content is downloaded to the cache in the background, once for all the concurrent reads. The
+ * directory holds at most {@code maxBytes} bytes, the least recently used entries are deleted
+ * first; blobs larger than that are not cached. Blobs with a content encoding are not cached
+ * either, as the content served for them may differ from the stored one. Entries left in the
+ * directory by a previous instance are reused.
+ */
+final class ContentCachingStorageRpc extends ForwardingStorageRpc {
+
+  private static final Logger log = Logger.getLogger(ContentCachingStorageRpc.class.getName());
+  private static final int FILL_CHUNK_SIZE = 2 * 1024 * 1024;
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final long maxBytes;
+  private final Executor executor;
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<String> fills =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private long cachedBytes;
+
+  ContentCachingStorageRpc(StorageRpc delegate, Path directory, long maxBytes,
+      Executor executor) {
+    super(delegate);
+    checkArgument(maxBytes > 0, "Content cache size must be positive");
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.executor = executor;
+    try {
+      Files.createDirectories(directory);
+      loadEntries();
+    } catch (IOException ex) {
+      StorageException exception = new StorageException(StorageException.UNKNOWN_CODE,
+          "Failed to open content cache " + directory + ": " + ex.getMessage(), false);
+      exception.initCause(ex);
+      throw exception;
+    }
+  }
+
+  /**
+   * Indexes the entries found in the cache directory, oldest first, and deletes incomplete ones.
+   */
+  private void loadEntries() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+          Files.deleteIfExists(file);
+        } else if (Files.isRegularFile(file)) {
+          files.add(file);
+        }
+      }
+    }
+    final Map<Path, Long> modified = new LinkedHashMap<>();
+    for (Path file : files) {
+      modified.put(file, Files.getLastModifiedTime(file).toMillis());
+    }
+    Collections.sort(files, new Comparator<Path>() {
+      @Override
+      public int compare(Path first, Path second) {
+        return Long.compare(modified.get(first), modified.get(second));
+      }
+    });
+    for (Path file : files) {
+      add(file.getFileName().toString(), Files.size(file));
+    }
+  }
+
+  private static String key(StorageObject object, long generation) {
+    return Hashing.sha256().hashString(object.getBucket() + "/" + object.getName(), UTF_8)
+        + "-" + generation;
+  }
+
+  private synchronized Path lookup(String key) {
+    if (entries.get(key) == null) {
+      return null;
+    }
+    return directory.resolve(key);
+  }
+
+  private synchronized void add(String key, long size) {
+    Long previous = entries.put(key, size);
+    cachedBytes += size - (previous != null ? previous : 0);
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (cachedBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      remove(eldest.getKey());
+      cachedBytes -= eldest.getValue();
+      iterator.remove();
+    }
+  }
+
+  private synchronized void evict(String key) {
+    Long size = entries.remove(key);
+    if (size != null) {
+      cachedBytes -= size;
+      remove(key);
+    }
+  }
+
+  private void remove(String key) {
+    try {
+      Files.deleteIfExists(directory.resolve(key));
+    } catch (IOException ex) {
+      log.log(Level.FINE, "Failed to delete cached content " + key, ex);
+    }
+  }
+
+  /**
+   * Returns the cached content of the blob generation selected by {@code options}, or {@code null}
+   * if it is not cached. Content that can be cached but is not starts being downloaded in the
+   * background.
+   */
+  private Path cachedContent(StorageObject object, Map<Option, ?> options) {
+    Object generation = options.get(Option.IF_GENERATION_MATCH);
+    if (generation != null && options.size() == 1) {
+      // the generation is known, no request is needed to check that the cached content is current
+      Path path = lookup(key(object, (Long) generation));
+      if (path != null) {
+        return path;
+      }
+    }
+    StorageObject metadata = delegate().get(object, options);
+    if (metadata.getGeneration() == null || metadata.getSize() == null
+        || metadata.getSize().longValue() > maxBytes || metadata.getContentEncoding() != null) {
+      return null;
+    }
+    String key = key(object, metadata.getGeneration());
+    Path path = lookup(key);
+    if (path != null) {
+      return path;
+    }
+    fill(key, metadata);
+    return null;
+  }
+
+  /**
+   * Downloads the content of the blob generation described by {@code metadata} to the cache in
+   * the background, unless it is already being downloaded.
+   */
+  private void fill(final String key, final StorageObject metadata) {
+    if (!fills.add(key)) {
+      return;
+    }
+    Runnable download = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (lookup(key) == null) {
+            download(key, metadata);
+          }
+        } catch (RuntimeException ex) {
+          log.log(Level.WARNING, "Failed to cache content of " + metadata.getName(), ex);
+        } finally {
+          fills.remove(key);
+        }
+      }
+    };
+    try {
+      executor.execute(download);
+    } catch (RejectedExecutionException ex) {
+      fills.remove(key);
+    }
+  }
+
+  /**
+   * Downloads the content of the blob generation described by {@code metadata} in the cache.
+   *
+   * @return the cached content or {@code null} if it could not be written to disk
+   * @throws StorageException if the content does not match the blob's hash
+   */
+  private Path download(String key, StorageObject metadata) {
+    Map<Option, ?> options = ImmutableMap.of(Option.IF_GENERATION_MATCH, metadata.getGeneration());
+    long size = metadata.getSize().longValue();
+    ContentChecksum checksum = ContentChecksum.expecting(metadata);
+    Path temporary = null;
+    try {
+      temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(FILL_CHUNK_SIZE, Math.max(size, 1)));
+        long position = 0;
+        while (position < size) {
+          chunk.clear();
+          int read = delegate().read(metadata, options, position, chunk);
+          if (read == 0) {
+            throw new StorageException(StorageException.UNKNOWN_CODE,
+                "Unexpected end of blob " + metadata.getBucket() + "/" + metadata.getName(), true);
+          }
+          if (checksum != null) {
+            checksum.update(chunk.array(), 0, read);
+          }
+          chunk.flip();
+          while (chunk.hasRemaining()) {
+            channel.write(chunk);
+          }
+          position += read;
+        }
+      }
+      if (checksum != null) {
+        checksum.verify();
+      }
+      Path path = directory.resolve(key);
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+      add(key, size);
+      return path;
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to cache content of " + metadata.getName(), ex);
+      return null;
+    } finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ex) {
+          log.log(Level.FINE, "Failed to delete " + temporary, ex);
+        }
+      }
+    }
+  }
+
+  @Override
+  public byte[] load(StorageObject storageObject, Map<Option, ?> options) {
+    Path path = cachedContent(storageObject, options);
+    if (path != null) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        byte[] content = new byte[Ints.checkedCast(channel.size())];
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, content.length).get(content);
+        return content;
+      } catch (IOException ex) {
+        evict(path.getFileName().toString());
+      }
+    }
+    return delegate().load(storageObject, options);
+  }
+
+  @Override
+  public int read(StorageObject from, Map<Option, ?> options, long position, ByteBuffer buffer) {
+    if (buffer.remaining() == 0) {
+      return 0;
+    }
+    Path path = cachedContent(from, options);
+    if (path != null) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (position >= size) {
+          return 0;
+        }
+        int length = (int) Math.min(buffer.remaining(), size - position);
+        buffer.put(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        return length;
+      } catch (IOException ex) {
+        evict(path.getFileName().toString());
+      }
+    }
+    return delegate().read(from, options, position, buffer);
+  }
+}
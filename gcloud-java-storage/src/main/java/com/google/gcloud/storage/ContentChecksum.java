@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A checksum of blob content, computed incrementally as the content is streamed. Checksums are
+ * encoded as the service encodes them: base64 of the big-endian CRC32C or of the MD5 digest.
+ */
+final class ContentChecksum {
+
+  private final boolean md5;
+  private final Hasher hasher;
+  private final StorageObject expected;
+  private String value;
+
+  private ContentChecksum(boolean md5, StorageObject expected) {
+    this.md5 = md5;
+    this.hasher = md5 ? Hashing.md5().newHasher() : Hashing.crc32c().newHasher();
+    this.expected = expected;
+  }
+
+  /**
+   * Returns a CRC32C checksum.
+   */
+  static ContentChecksum crc32c() {
+    return new ContentChecksum(false, null);
+  }
+
+  /**
+   * Returns a checksum to check content against the CRC32C checksum of {@code metadata} or, if
+   * it has none, against its MD5 hash. Returns {@code null} if {@code metadata} has neither.
+   */
+  static ContentChecksum expecting(StorageObject metadata) {
+    if (metadata.getCrc32c() != null) {
+      return new ContentChecksum(false, metadata);
+    }
+    if (metadata.getMd5Hash() != null) {
+      return new ContentChecksum(true, metadata);
+    }
+    return null;
+  }
+
+  void update(byte[] bytes, int offset, int length) {
+    hasher.putBytes(bytes, offset, length);
+  }
+
+  /**
+   * Adds the bytes between the position and the limit of {@code data} to the checksum. The
+   * position of {@code data} is not changed.
+   */
+  void update(ByteBuffer data) {
+    if (data.hasArray()) {
+      update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+    } else {
+      byte[] bytes = new byte[data.remaining()];
+      data.duplicate().get(bytes);
+      update(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Returns the encoded checksum of the content added so far. No content can be added after this
+   * method is called.
+   */
+  String value() {
+    if (value == null) {
+      HashCode hash = hasher.hash();
+      value = BaseEncoding.base64().encode(md5 ? hash.asBytes() : Ints.toByteArray(hash.asInt()));
+    }
+    return value;
+  }
+
+  /**
+   * Checks the checksum of the content added so far against the expected one.
+   *
+   * @throws StorageException if the checksums differ. The exception is not retryable, so that
+   *     corrupted content is reported rather than silently read again
+   */
+  void verify() {
+    String expectedValue = md5 ? expected.getMd5Hash() : expected.getCrc32c();
+    if (!expectedValue.equals(value())) {
+      throw new StorageException(StorageException.UNKNOWN_CODE, "Content of "
+          + expected.getBucket() + "/" + expected.getName() + " does not match its "
+          + (md5 ? "MD5 hash" : "CRC32C checksum"), false);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.gcloud.RetryHelper.runWithRetries;
+
+import com.google.gcloud.RetryHelper;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.spi.StorageRpc;
+import com.google.gcloud.spi.StorageRpc.RewriteResponse;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Google Storage blob rewrite in progress. A rewrite copies a blob on the service side in several
+ * requests, each one copying a chunk of the blob. The writer is returned by
+ * {@link Storage#rewrite(Storage.CopyRequest)} once the first chunk was copied. Call
+ * {@link #copyChunk()} to copy the next chunks one at a time, for instance to report progress, or
+ * {@link #result()} to complete the rewrite.
+ *
+ * <p>A writer can be serialized, and deserialized later to continue the rewrite from the last
+ * copied chunk.
+ */
+public final class CopyWriter implements Serializable {
+
+  private static final long serialVersionUID = 2519163574549387217L;
+
+  private static final long MEGABYTE = 1024L * 1024;
+
+  private final StorageOptions serviceOptions;
+  private final BlobId source;
+  private final Map<StorageRpc.Option, ?> sourceOptions;
+  private final BlobInfo target;
+  private final Map<StorageRpc.Option, ?> targetOptions;
+  private final Long megabytesCopiedPerChunk;
+  private final RetryParams retryParams;
+  private long blobSize;
+  private long totalBytesCopied;
+  private String rewriteToken;
+  private boolean isDone;
+  private BlobInfo result;
+
+  private transient StorageRpc storageRpc;
+
+  CopyWriter(StorageOptions serviceOptions, BlobId source,
+      Map<StorageRpc.Option, ?> sourceOptions, BlobInfo target,
+      Map<StorageRpc.Option, ?> targetOptions, Long megabytesCopiedPerChunk,
+      RetryParams retryParams) {
+    this.serviceOptions = serviceOptions;
+    this.source = source;
+    this.sourceOptions = sourceOptions;
+    this.target = target;
+    this.targetOptions = targetOptions;
+    this.megabytesCopiedPerChunk = megabytesCopiedPerChunk;
+    this.retryParams = retryParams;
+    this.storageRpc = serviceOptions.storageRpc();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    storageRpc = serviceOptions.storageRpc();
+  }
+
+  /**
+   * Returns the size of the blob being copied.
+   */
+  public long blobSize() {
+    return blobSize;
+  }
+
+  /**
+   * Returns the number of bytes copied so far.
+   */
+  public long totalBytesCopied() {
+    return totalBytesCopied;
+  }
+
+  /**
+   * Returns {@code true} if the whole blob was copied.
+   */
+  public boolean isDone() {
+    return isDone;
+  }
+
+  /**
+   * Returns the token identifying the rewrite on the service side, {@code null} once it is done.
+   */
+  public String rewriteToken() {
+    return rewriteToken;
+  }
+
+  /**
+   * Copies the next chunk of the blob. Does nothing if the whole blob was already copied.
+   *
+   * @throws StorageException upon failure
+   */
+  public void copyChunk() {
+    if (isDone) {
+      return;
+    }
+    final String token = rewriteToken;
+    final Long maxBytesPerCall =
+        megabytesCopiedPerChunk != null ? megabytesCopiedPerChunk * MEGABYTE : null;
+    RewriteResponse response;
+    try {
+      response = runWithRetries(new Callable<RewriteResponse>() {
+        @Override
+        public RewriteResponse call() {
+          return storageRpc.rewrite(source.toPb(), sourceOptions, target.toPb(), targetOptions,
+              token, maxBytesPerCall);
+        }
+      }, retryParams, StorageImpl.EXCEPTION_HANDLER);
+    } catch (RetryHelper.RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+    blobSize = response.objectSize;
+    totalBytesCopied = response.totalBytesRewritten;
+    isDone = response.done;
+    rewriteToken = response.done ? null : response.rewriteToken;
+    if (response.done) {
+      result = BlobInfo.fromPb(response.result);
+    }
+  }
+
+  /**
+   * Copies the remaining chunks of the blob, if any, and returns the copied blob.
+   *
+   * @throws StorageException upon failure
+   */
+  public BlobInfo result() {
+    while (!isDone) {
+      copyChunk();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.gcloud.RetryHelper.runWithRetries;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import com.google.gcloud.RetryHelper;
+import com.google.gcloud.spi.StorageRpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A download of a blob's content to a local file. The file is sized to the blob upfront and the
+ * blob is fetched in chunks, up to {@link StorageOptions#downloadParallelism()} at a time on the
+ * {@link StorageOptions#executorFactory()} executor. Each chunk is written at its offset in the
+ * file as soon as it is received. All chunks are read from the same blob generation.
+ *
+ * <p>Completed chunks are recorded in a progress file next to the target file, named after it with
+ * a {@value #PROGRESS_SUFFIX} suffix. A download that finds a progress file for the same blob
+ * generation only fetches the chunks that are missing, so that an interrupted download can be
+ * resumed. Once all chunks are written, the file is checked against the blob's CRC32C checksum or
+ * MD5 hash and the progress file is deleted, so that a file that doesn't match the blob is
+ * downloaded again in full. Blobs with a content encoding are streamed to the file sequentially
+ * instead, as chunks of their stored content are not chunks of the content served for them, and
+ * can't be resumed or checked.
+ */
+final class FileDownload {
+
+  static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+  static final String PROGRESS_SUFFIX = ".download";
+  // generation, size and chunk size, followed by one byte per chunk
+  private static final int HEADER_SIZE = 8 + 8 + 4;
+  private static final byte CHUNK_COMPLETE = 1;
+
+  private final StorageOptions serviceOptions;
+  private final StorageRpc storageRpc;
+  private final StorageObject storageObject;
+  private final Map<StorageRpc.Option, ?> requestOptions;
+  private final Path path;
+  private final Path progressPath;
+  private final int chunkSize;
+
+  FileDownload(StorageOptions serviceOptions, BlobId blob,
+      Map<StorageRpc.Option, ?> requestOptions, Path path) {
+    this(serviceOptions, blob, requestOptions, path, DEFAULT_CHUNK_SIZE);
+  }
+
+  FileDownload(StorageOptions serviceOptions, BlobId blob,
+      Map<StorageRpc.Option, ?> requestOptions, Path path, int chunkSize) {
+    checkArgument(chunkSize > 0, "Chunk size must be positive");
+    this.serviceOptions = serviceOptions;
+    this.storageRpc = serviceOptions.storageRpc();
+    this.storageObject = blob.toPb();
+    this.requestOptions = requestOptions;
+    this.path = path;
+    this.progressPath = path.resolveSibling(path.getFileName() + PROGRESS_SUFFIX);
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Downloads the blob to the file.
+   *
+   * @return the downloaded blob
+   * @throws IOException upon failure writing the file
+   * @throws StorageException upon failure reading the blob
+   */
+  BlobInfo run() throws IOException {
+    StorageObject metadata = retry(new Callable<StorageObject>() {
+      @Override
+      public StorageObject call() {
+        return storageRpc.get(storageObject, requestOptions);
+      }
+    });
+    if (metadata.getContentEncoding() != null) {
+      stream(metadata);
+    } else {
+      fetchChunks(metadata);
+    }
+    return BlobInfo.fromPb(metadata);
+  }
+
+  private <T> T retry(Callable<T> callable) {
+    try {
+      return runWithRetries(callable, serviceOptions.retryParams(), StorageImpl.EXCEPTION_HANDLER);
+    } catch (RetryHelper.RetryHelperException e) {
+      throw StorageException.translateAndThrow(e);
+    }
+  }
+
+  private void stream(StorageObject metadata) throws IOException {
+    final Map<StorageRpc.Option, ?> options = pinnedOptions(metadata);
+    Files.deleteIfExists(progressPath);
+    try (InputStream content = retry(new Callable<InputStream>() {
+      @Override
+      public InputStream call() {
+        return storageRpc.openStream(storageObject, options);
+      }
+    })) {
+      Files.copy(content, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Returns the request options with the generation of {@code metadata} pinned, so that all
+   * requests read the same version of the blob.
+   */
+  private Map<StorageRpc.Option, ?> pinnedOptions(StorageObject metadata) {
+    if (requestOptions.containsKey(StorageRpc.Option.IF_GENERATION_MATCH)
+        || metadata.getGeneration() == null) {
+      return requestOptions;
+    }
+    return ImmutableMap.<StorageRpc.Option, Object>builder()
+        .putAll(requestOptions)
+        .put(StorageRpc.Option.IF_GENERATION_MATCH, metadata.getGeneration())
+        .build();
+  }
+
+  private void fetchChunks(StorageObject metadata) throws IOException {
+    Map<StorageRpc.Option, ?> options = pinnedOptions(metadata);
+    long size = metadata.getSize().longValue();
+    long generation = metadata.getGeneration() != null ? metadata.getGeneration() : -1;
+    int chunkCount = Ints.checkedCast((size + chunkSize - 1) / chunkSize);
+    try (FileChannel progress = FileChannel.open(progressPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE)) {
+      List<Integer> missing = missingChunks(progress, file, generation, size, chunkCount);
+      if (!missing.isEmpty()) {
+        fetchChunks(options, size, missing, file, progress);
+      }
+    }
+    try {
+      verify(metadata);
+    } finally {
+      // a file that doesn't match the blob is downloaded again in full, not resumed
+      Files.delete(progressPath);
+    }
+  }
+
+  /**
+   * Checks the downloaded file against the CRC32C checksum or the MD5 hash of {@code metadata}.
+   * The file is read back once all chunks are written, as chunks are written out of order.
+   *
+   * @throws StorageException if the file does not match the blob
+   */
+  private void verify(StorageObject metadata) throws IOException {
+    ContentChecksum checksum = ContentChecksum.expecting(metadata);
+    if (checksum == null) {
+      return;
+    }
+    BufferPool pool = serviceOptions.bufferPool();
+    byte[] bytes = pool.acquire(chunkSize);
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (file.read(buffer) >= 0) {
+        checksum.update(bytes, 0, buffer.position());
+        buffer.clear();
+      }
+    } finally {
+      pool.release(bytes);
+    }
+    checksum.verify();
+  }
+
+  /**
+   * Returns the chunks not yet downloaded according to the progress file. If the progress file
+   * does not describe a download of the same blob generation to a file of the expected size, the
+   * download starts over: the progress file is reset and the target file is truncated and then
+   * extended to the blob's size.
+   */
+  private List<Integer> missingChunks(FileChannel progress, FileChannel file, long generation,
+      long size, int chunkCount) throws IOException {
+    List<Integer> missing = new ArrayList<>();
+    if (generation >= 0 && progress.size() == HEADER_SIZE + chunkCount && file.size() == size) {
+      ByteBuffer state = ByteBuffer.allocate(HEADER_SIZE + chunkCount);
+      readFully(progress, state);
+      if (state.getLong(0) == generation && state.getLong(8) == size
+          && state.getInt(16) == chunkSize) {
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+          if (state.get(HEADER_SIZE + chunk) != CHUNK_COMPLETE) {
+            missing.add(chunk);
+          }
+        }
+        return missing;
+      }
+    }
+    // the progress file is reset first, so that it never marks chunks of a stale file complete
+    progress.truncate(0);
+    ByteBuffer state = ByteBuffer.allocate(HEADER_SIZE + chunkCount);
+    state.putLong(generation).putLong(size).putInt(chunkSize).rewind();
+    writeFully(progress, state, 0);
+    file.truncate(0);
+    if (size > 0) {
+      writeFully(file, ByteBuffer.allocate(1), size - 1);
+    }
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      missing.add(chunk);
+    }
+    return missing;
+  }
+
+  /**
+   * Fetches the {@code missing} chunks, each worker taking the next missing chunk until none is
+   * left or a chunk fails. Waits for all workers to stop before returning or throwing.
+   */
+  private void fetchChunks(final Map<StorageRpc.Option, ?> options, final long size,
+      final List<Integer> missing, final FileChannel file, final FileChannel progress)
+      throws IOException {
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicBoolean aborted = new AtomicBoolean();
+    final BufferPool pool = serviceOptions.bufferPool();
+    ExecutorService executor = serviceOptions.executorFactory().get();
+    int workerCount = Math.min(serviceOptions.downloadParallelism(), missing.size());
+    List<RunnableFuture<Void>> workers = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(StorageImpl.submit(executor, new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          try {
+            int index;
+            while (!aborted.get() && (index = next.getAndIncrement()) < missing.size()) {
+              fetchChunk(options, size, missing.get(index), pool, file, progress);
+            }
+            return null;
+          } catch (IOException | RuntimeException e) {
+            aborted.set(true);
+            throw e;
+          }
+        }
+      }));
+    }
+    Throwable failure = null;
+    try {
+      for (RunnableFuture<Void> worker : workers) {
+        try {
+          // a worker that didn't start yet is run here, as the executor's threads may all be
+          // waiting; it finds no chunk left if the other workers fetched them all
+          worker.run();
+          worker.get();
+        } catch (ExecutionException e) {
+          aborted.set(true);
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      aborted.set(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if (failure != null) {
+      Throwables.propagateIfInstanceOf(failure, IOException.class);
+      throw Throwables.propagate(failure);
+    }
+  }
+
+  private void fetchChunk(final Map<StorageRpc.Option, ?> options, long size, int chunk,
+      BufferPool pool, FileChannel file, FileChannel progress) throws IOException {
+    final long from = (long) chunk * chunkSize;
+    final int length = (int) Math.min(chunkSize, size - from);
+    final byte[] bytes = pool.acquire(length);
+    try {
+      retry(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int total = 0;
+          while (total < length) {
+            int read = storageRpc.read(storageObject, options, from + total,
+                ByteBuffer.wrap(bytes, total, length - total));
+            if (read == 0) {
+              throw new StorageException(StorageException.UNKNOWN_CODE, "Unexpected end of blob "
+                  + storageObject.getBucket() + "/" + storageObject.getName(), true);
+            }
+            total += read;
+          }
+          return null;
+        }
+      });
+      writeFully(file, ByteBuffer.wrap(bytes, 0, length), from);
+      // the chunk must reach the disk before it is marked complete, or a download resumed after a
+      // crash could trust a chunk that was never written
+      file.force(false);
+      writeFully(progress, ByteBuffer.wrap(new byte[] {CHUNK_COMPLETE}), HEADER_SIZE + chunk);
+    } finally {
+      pool.release(bytes);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    long position = 0;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An input stream over the gzip compression of the content of another stream. Content is read
+ * from the source stream and compressed as the compressed bytes are read, so that the content is
+ * never held in memory as a whole.
+ */
+final class GzipCompressingInputStream extends InputStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+  private static final int TRAILER_SIZE = 8;
+
+  private final InputStream source;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] input = new byte[BUFFER_SIZE];
+  private byte[] output = HEADER;
+  private int outputPos;
+  private int outputLimit = HEADER.length;
+  private boolean finished;
+
+  GzipCompressingInputStream(InputStream source) {
+    this.source = source;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    while (outputPos >= outputLimit) {
+      if (finished) {
+        return -1;
+      }
+      fill();
+    }
+    int read = Math.min(length, outputLimit - outputPos);
+    System.arraycopy(output, outputPos, bytes, offset, read);
+    outputPos += read;
+    return read;
+  }
+
+  /**
+   * Compresses the next bytes of the source stream into {@code output}, or puts the gzip trailer
+   * there once all of the source stream was compressed.
+   */
+  private void fill() throws IOException {
+    outputPos = 0;
+    if (deflater.finished()) {
+      output = new byte[TRAILER_SIZE];
+      writeIntLittleEndian((int) crc.getValue(), output, 0);
+      writeIntLittleEndian((int) deflater.getBytesRead(), output, 4);
+      outputLimit = TRAILER_SIZE;
+      finished = true;
+      return;
+    }
+    if (deflater.needsInput()) {
+      int read = source.read(input);
+      if (read < 0) {
+        deflater.finish();
+      } else {
+        crc.update(input, 0, read);
+        deflater.setInput(input, 0, read);
+      }
+    }
+    if (output == HEADER) {
+      output = new byte[BUFFER_SIZE];
+    }
+    outputLimit = deflater.deflate(output, 0, output.length);
+  }
+
+  private static void writeIntLittleEndian(int value, byte[] bytes, int offset) {
+    for (int i = 0; i < 4; i++) {
+      bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    deflater.end();
+    source.close();
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.gcloud.storage;
 
+import java.util.Iterator;
+
 /**
  * Interface for Google Cloud storage list result.
  */
@@ -31,4 +33,11 @@ public interface ListResult<T> extends Iterable<T> {
    */
   ListResult<T> nextPage();
 
+  /**
+   * Returns an iterator over the results of this page and of all the following ones. Following
+   * pages are fetched as the iteration reaches them; results returned by the storage service are
+   * fetched ahead of time, according to {@link StorageOptions#listPrefetchDepth()}, while the
+   * current page is consumed.
+   */
+  Iterator<T> iterateAll();
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Statistics of a storage service's blob metadata cache.
+ *
+ * @see StorageOptions.Builder#metadataCacheSize(long)
+ * @see Storage#metadataCacheStats()
+ */
+public final class MetadataCacheStats implements Serializable {
+
+  private static final long serialVersionUID = 2415163717455231475L;
+
+  static final MetadataCacheStats EMPTY = new MetadataCacheStats(0, 0, 0, 0);
+
+  private final long hitCount;
+  private final long missCount;
+  private final long revalidationCount;
+  private final long evictionCount;
+
+  MetadataCacheStats(long hitCount, long missCount, long revalidationCount, long evictionCount) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.revalidationCount = revalidationCount;
+    this.evictionCount = evictionCount;
+  }
+
+  /**
+   * Returns the number of lookups served by a cached entry without any request, including the
+   * entries confirmed by a revalidation.
+   */
+  public long hitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of lookups that were not cached or whose entry had changed.
+   */
+  public long missCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of expired entries confirmed unchanged by a conditional request.
+   */
+  public long revalidationCount() {
+    return revalidationCount;
+  }
+
+  /**
+   * Returns the number of entries evicted because the cache was full.
+   */
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the ratio of lookups served from the cache, {@code 1.0} if there was no lookup.
+   */
+  public double hitRate() {
+    long lookups = hitCount + missCount;
+    return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hitCount", hitCount)
+        .add("missCount", missCount)
+        .add("revalidationCount", revalidationCount)
+        .add("evictionCount", evictionCount)
+        .toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hitCount, missCount, revalidationCount, evictionCount);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof MetadataCacheStats)) {
+      return false;
+    }
+    MetadataCacheStats other = (MetadataCacheStats) obj;
+    return hitCount == other.hitCount && missCount == other.missCount
+        && revalidationCount == other.revalidationCount && evictionCount == other.evictionCount;
+  }
+}
@@ -30,6 +30,7 @@ import java.util.Objects;
 class Option implements Serializable {
 
   private static final long serialVersionUID = -73199088766477208L;
+  static final String NO_ACL_PROJECTION = "noAcl";
 
   private final StorageRpc.Option rpcOption;
   private final Object value;
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * An iterator over the results of a list result and of the pages following it. Pages are fetched
+ * on {@code executor}: once a page is reached, up to {@code prefetchDepth} following pages are
+ * requested, one after the other, while its results are consumed. With a depth of {@code 0}, a
+ * page is only fetched when its results are needed.
+ */
+final class PageIterator<T> extends AbstractIterator<T> {
+
+  private final Executor executor;
+  private final int prefetchDepth;
+  private final Deque<ListenableFuture<ListResult<T>>> pages = new ArrayDeque<>();
+  private final Function<ListResult<T>, ListResult<T>> nextPage =
+      new Function<ListResult<T>, ListResult<T>>() {
+        @Override
+        public ListResult<T> apply(ListResult<T> page) {
+          return page == null ? null : page.nextPage();
+        }
+      };
+  private ListenableFuture<ListResult<T>> lastPage;
+  private Iterator<T> results;
+
+  PageIterator(ListResult<T> firstPage, Executor executor, int prefetchDepth) {
+    checkArgument(prefetchDepth >= 0, "Prefetch depth must not be negative");
+    this.executor = executor;
+    this.prefetchDepth = prefetchDepth;
+    this.lastPage = Futures.immediateFuture(firstPage);
+    this.results = firstPage.iterator();
+    requestPages(prefetchDepth);
+  }
+
+  private void requestPages(int count) {
+    while (pages.size() < count) {
+      lastPage = Futures.transform(lastPage, nextPage, executor);
+      pages.add(lastPage);
+    }
+  }
+
+  @Override
+  protected T computeNext() {
+    while (!results.hasNext()) {
+      requestPages(1);
+      ListResult<T> page = StorageImpl.await(pages.poll());
+      if (page == null) {
+        pages.clear();
+        return endOfData();
+      }
+      results = page.iterator();
+      requestPages(prefetchDepth);
+    }
+    return results.next();
+  }
+}
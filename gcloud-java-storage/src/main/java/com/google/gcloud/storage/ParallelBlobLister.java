@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static com.google.gcloud.RetryHelper.runWithRetries;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.gcloud.RetryHelper;
+import com.google.gcloud.RetryHelper.RetryHelperException;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.spi.StorageRpc;
+import com.google.gcloud.spi.StorageRpc.Tuple;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * An iterator over the blobs of a bucket that lists disjoint ranges of blob names concurrently.
+ * Listing starts with the requested prefix, using the service's path delimiter: the blobs directly
+ * under the prefix are returned and each prefix the delimiter collapsed blobs into becomes a new
+ * range, listed the same way while fewer than {@code maxShards} ranges were found and listed
+ * recursively past that. At most {@code parallelism} pages are requested at a time. Blobs are
+ * returned in name order if {@code ordered}, otherwise in the order pages are received. At most
+ * {@code maxBuffered} blobs are fetched ahead of the caller, except for the range the caller waits
+ * on.
+ */
+final class ParallelBlobLister extends AbstractIterator<BlobInfo> {
+
+  private final String bucket;
+  private final StorageOptions serviceOptions;
+  private final Map<StorageRpc.Option, ?> options;
+  private final RetryParams retryParams;
+  private final Executor executor;
+  private final boolean ordered;
+  private final int parallelism;
+  private final int maxShards;
+  private final int maxBuffered;
+  private final PriorityQueue<Shard> pending = new PriorityQueue<>();
+  private final Deque<BlobInfo> unorderedBlobs = new ArrayDeque<>();
+  private final Deque<Shard> path = new ArrayDeque<>();
+  private int shardCount;
+  private int running;
+  private int buffered;
+  private Shard waitingShard;
+  private RuntimeException failure;
+
+  /**
+   * A range of blob names sharing a prefix. A delimited shard lists the blobs directly under its
+   * prefix and the prefixes below it, an undelimited one lists all the blobs under its prefix.
+   */
+  private final class Shard implements Comparable<Shard> {
+
+    private final String prefix;
+    private final boolean delimited;
+    private final Deque<Object> entries = new ArrayDeque<>();
+    private String pageToken;
+    private boolean done;
+
+    Shard(String prefix, boolean delimited) {
+      this.prefix = prefix;
+      this.delimited = delimited;
+    }
+
+    @Override
+    public int compareTo(Shard other) {
+      return prefix.compareTo(other.prefix);
+    }
+
+    Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> fetch() {
+      ImmutableMap.Builder<StorageRpc.Option, Object> builder = ImmutableMap.builder();
+      builder.putAll(options);
+      builder.put(StorageRpc.Option.PREFIX, prefix);
+      if (delimited) {
+        builder.put(StorageRpc.Option.DELIMITER, serviceOptions.pathDelimiter());
+      }
+      if (pageToken != null) {
+        builder.put(StorageRpc.Option.PAGE_TOKEN, pageToken);
+      }
+      final Map<StorageRpc.Option, ?> requestOptions = builder.build();
+      try {
+        return runWithRetries(
+            new Callable<Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>>>() {
+              @Override
+              public Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> call() {
+                return serviceOptions.storageRpc().listWithPrefixes(bucket, requestOptions);
+              }
+            }, retryParams, StorageImpl.EXCEPTION_HANDLER);
+      } catch (RetryHelperException e) {
+        throw StorageException.translateAndThrow(e);
+      }
+    }
+  }
+
+  ParallelBlobLister(String bucket, StorageOptions serviceOptions,
+      Map<StorageRpc.Option, ?> options, RetryParams retryParams, boolean ordered,
+      int parallelism, int maxShards, int maxBuffered) {
+    this.bucket = bucket;
+    this.serviceOptions = serviceOptions;
+    this.retryParams = retryParams;
+    this.executor = serviceOptions.executorFactory().get();
+    this.ordered = ordered;
+    this.parallelism = parallelism;
+    this.maxShards = maxShards;
+    this.maxBuffered = maxBuffered;
+    Object prefix = options.get(StorageRpc.Option.PREFIX);
+    ImmutableMap.Builder<StorageRpc.Option, Object> builder = ImmutableMap.builder();
+    for (Map.Entry<StorageRpc.Option, ?> option : options.entrySet()) {
+      if (option.getKey() != StorageRpc.Option.PREFIX) {
+        builder.put(option.getKey(), option.getValue());
+      }
+    }
+    this.options = builder.build();
+    Shard root = newShard(prefix == null ? "" : (String) prefix);
+    synchronized (this) {
+      path.push(root);
+      pending.add(root);
+      schedule();
+    }
+  }
+
+  private Shard newShard(String prefix) {
+    return new Shard(prefix, ++shardCount < maxShards);
+  }
+
+  /**
+   * Requests the next page of pending shards, smallest prefixes first, until {@code parallelism}
+   * requests are running or enough blobs are buffered.
+   */
+  private synchronized void schedule() {
+    while (running < parallelism && !pending.isEmpty() && failure == null) {
+      Shard shard;
+      if (buffered < maxBuffered) {
+        shard = pending.poll();
+      } else if (waitingShard != null && pending.remove(waitingShard)) {
+        shard = waitingShard;
+      } else {
+        return;
+      }
+      running++;
+      final Shard fetched = shard;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          fetchPage(fetched);
+        }
+      });
+    }
+  }
+
+  private void fetchPage(Shard shard) {
+    Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> page;
+    try {
+      page = shard.fetch();
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        running--;
+        failure = e;
+        notifyAll();
+      }
+      return;
+    }
+    synchronized (this) {
+      running--;
+      addPage(shard, page.y().x(), page.y().y());
+      shard.pageToken = page.x();
+      if (shard.pageToken != null) {
+        pending.add(shard);
+      } else {
+        shard.done = true;
+      }
+      schedule();
+      notifyAll();
+    }
+  }
+
+  /**
+   * Adds the page's blobs and the shards of the page's prefixes to {@code shard}, in name order.
+   */
+  private void addPage(Shard shard, Iterable<StorageObject> objects, Iterable<String> prefixes) {
+    PeekingIterator<StorageObject> objectIterator = Iterators.peekingIterator(
+        objects == null ? ImmutableList.<StorageObject>of().iterator() : objects.iterator());
+    PeekingIterator<String> prefixIterator = Iterators.peekingIterator(
+        prefixes == null ? ImmutableList.<String>of().iterator() : prefixes.iterator());
+    while (objectIterator.hasNext() || prefixIterator.hasNext()) {
+      if (objectIterator.hasNext() && (!prefixIterator.hasNext()
+          || objectIterator.peek().getName().compareTo(prefixIterator.peek()) < 0)) {
+        BlobInfo blob = BlobInfo.fromPb(objectIterator.next());
+        buffered++;
+        if (ordered) {
+          shard.entries.add(blob);
+        } else {
+          unorderedBlobs.add(blob);
+        }
+      } else {
+        Shard child = newShard(prefixIterator.next());
+        pending.add(child);
+        if (ordered) {
+          shard.entries.add(child);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected synchronized BlobInfo computeNext() {
+    while (true) {
+      if (failure != null) {
+        throw failure;
+      }
+      BlobInfo blob = ordered ? nextOrdered() : unorderedBlobs.poll();
+      if (blob != null) {
+        buffered--;
+        schedule();
+        return blob;
+      }
+      if (ordered ? path.isEmpty() : running == 0 && pending.isEmpty()) {
+        return endOfData();
+      }
+      schedule();
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        RetryHelper.RetryInterruptedException.propagate();
+      }
+    }
+  }
+
+  /**
+   * Returns the next blob in name order or {@code null} if it was not received yet or if all the
+   * blobs were returned.
+   */
+  private BlobInfo nextOrdered() {
+    while (!path.isEmpty()) {
+      Shard shard = path.peek();
+      Object entry = shard.entries.poll();
+      if (entry instanceof BlobInfo) {
+        waitingShard = null;
+        return (BlobInfo) entry;
+      } else if (entry != null) {
+        path.push((Shard) entry);
+      } else if (shard.done) {
+        path.pop();
+      } else {
+        waitingShard = shard;
+        return null;
+      }
+    }
+    return null;
+  }
+}
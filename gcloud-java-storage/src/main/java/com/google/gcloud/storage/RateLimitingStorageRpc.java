@@ -0,0 +1,425 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.gcloud.ServiceOptions.Clock;
+import com.google.gcloud.spi.ForwardingStorageRpc;
+import com.google.gcloud.spi.StorageRpc;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link StorageRpc} that adapts the rate of its requests to the rate the service sustains.
+ * Each request takes a permit from the token bucket of the bucket it is addressed to, waiting for
+ * one if needed. Requests not addressed to a single bucket, such as bucket listings, share a
+ * service-wide token bucket. The rate of a token bucket grows additively, by a tenth of the initial
+ * rate per second, while its requests succeed and are held back by the limit. It is halved when
+ * the service answers 429 (Too Many Requests) or 503 (Service Unavailable), at most once per
+ * second, so that the requests already sent at the previous rate don't halve it repeatedly. The
+ * rates of all the callers sharing the RPC thus converge to the rate the service sustains instead
+ * of each caller retrying on its own.
+ */
+final class RateLimitingStorageRpc extends ForwardingStorageRpc {
+
+  static final String SERVICE_KEY = "";
+  private static final double MIN_RATE = 1.0;
+  private static final double DECREASE_FACTOR = 0.5;
+  private static final long DECREASE_INTERVAL_MILLIS = 1000;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+  private final double initialRate;
+  private final Clock clock;
+  private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+  private final class Limiter {
+
+    private final RateLimiter permits = RateLimiter.create(initialRate);
+    private double rate = initialRate;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    /**
+     * Takes a permit, returning {@code true} if the caller had to wait for it.
+     */
+    boolean acquire() {
+      return permits.acquire() > 0;
+    }
+
+    synchronized void succeeded() {
+      // one tenth of the initial rate per second of requests sent at the current rate
+      rate += initialRate / 10 / rate;
+      permits.setRate(rate);
+    }
+
+    synchronized void throttled() {
+      long now = clock.millis();
+      if (lastDecrease == Long.MIN_VALUE || now - lastDecrease >= DECREASE_INTERVAL_MILLIS) {
+        rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+        permits.setRate(rate);
+        lastDecrease = now;
+      }
+    }
+
+    synchronized double rate() {
+      return rate;
+    }
+  }
+
+  /**
+   * A permit to send a request, that adjusts the rate of its token bucket to the outcome of the
+   * request.
+   */
+  private static final class Permit {
+
+    private final Limiter limiter;
+    private final boolean waited;
+
+    Permit(Limiter limiter) {
+      this.limiter = limiter;
+      this.waited = limiter.acquire();
+    }
+
+    <T> T succeeded(T result) {
+      if (waited) {
+        limiter.succeeded();
+      }
+      return result;
+    }
+
+    StorageException failed(StorageException exception) {
+      if (isThrottled(exception)) {
+        limiter.throttled();
+      }
+      return exception;
+    }
+  }
+
+  RateLimitingStorageRpc(StorageRpc delegate, double initialRate, Clock clock) {
+    super(delegate);
+    this.initialRate = initialRate;
+    this.clock = clock;
+  }
+
+  private static boolean isThrottled(StorageException exception) {
+    return exception.code() == HTTP_TOO_MANY_REQUESTS
+        || exception.code() == HTTP_SERVICE_UNAVAILABLE;
+  }
+
+  private Limiter limiter(String bucket) {
+    String key = bucket != null ? bucket : SERVICE_KEY;
+    Limiter limiter = limiters.get(key);
+    if (limiter == null) {
+      Limiter created = new Limiter();
+      limiter = limiters.putIfAbsent(key, created);
+      if (limiter == null) {
+        limiter = created;
+      }
+    }
+    return limiter;
+  }
+
+  private Permit acquire(String bucket) {
+    return new Permit(limiter(bucket));
+  }
+
+  /**
+   * Returns the current rate, in requests per second, of the token bucket of each bucket that was
+   * sent requests, requests not addressed to a single bucket being keyed by the empty string.
+   */
+  Map<String, Double> rates() {
+    ImmutableMap.Builder<String, Double> rates = ImmutableMap.builder();
+    for (Map.Entry<String, Limiter> entry : limiters.entrySet()) {
+      rates.put(entry.getKey(), entry.getValue().rate());
+    }
+    return rates.build();
+  }
+
+  @Override
+  public Bucket create(Bucket bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket.getName());
+    try {
+      return permit.succeeded(super.create(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public StorageObject create(StorageObject object, InputStream content,
+      Map<Option, ?> options) {
+    Permit permit = acquire(object.getBucket());
+    try {
+      return permit.succeeded(super.create(object, content, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public Tuple<String, Iterable<Bucket>> list(Map<Option, ?> options) {
+    Permit permit = acquire(null);
+    try {
+      return permit.succeeded(super.list(options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket);
+    try {
+      return permit.succeeded(super.list(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> listWithPrefixes(
+      String bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket);
+    try {
+      return permit.succeeded(super.listWithPrefixes(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public Bucket get(Bucket bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket.getName());
+    try {
+      return permit.succeeded(super.get(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public StorageObject get(StorageObject object, Map<Option, ?> options) {
+    Permit permit = acquire(object.getBucket());
+    try {
+      return permit.succeeded(super.get(object, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public Bucket patch(Bucket bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket.getName());
+    try {
+      return permit.succeeded(super.patch(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public StorageObject patch(StorageObject storageObject, Map<Option, ?> options) {
+    Permit permit = acquire(storageObject.getBucket());
+    try {
+      return permit.succeeded(super.patch(storageObject, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public boolean delete(Bucket bucket, Map<Option, ?> options) {
+    Permit permit = acquire(bucket.getName());
+    try {
+      return permit.succeeded(super.delete(bucket, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public boolean delete(StorageObject object, Map<Option, ?> options) {
+    Permit permit = acquire(object.getBucket());
+    try {
+      return permit.succeeded(super.delete(object, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  /**
+   * Takes a permit for each request of the batch, from the token bucket of the request's bucket,
+   * and adjusts each token bucket to the outcome of its requests.
+   */
+  @Override
+  public BatchResponse batch(BatchRequest request) {
+    List<Tuple<StorageObject, Permit>> permits = new ArrayList<>();
+    for (Tuple<StorageObject, Map<Option, ?>> tuple : request.toDelete) {
+      permits.add(Tuple.of(tuple.x(), acquire(tuple.x().getBucket())));
+    }
+    for (Tuple<StorageObject, Map<Option, ?>> tuple : request.toUpdate) {
+      permits.add(Tuple.of(tuple.x(), acquire(tuple.x().getBucket())));
+    }
+    for (Tuple<StorageObject, Map<Option, ?>> tuple : request.toGet) {
+      permits.add(Tuple.of(tuple.x(), acquire(tuple.x().getBucket())));
+    }
+    BatchResponse response;
+    try {
+      response = super.batch(request);
+    } catch (StorageException ex) {
+      for (Tuple<StorageObject, Permit> permit : permits) {
+        permit.y().failed(ex);
+      }
+      throw ex;
+    }
+    int deletes = request.toDelete.size();
+    int updates = request.toUpdate.size();
+    for (int i = 0; i < permits.size(); i++) {
+      Tuple<StorageObject, Permit> permit = permits.get(i);
+      Tuple<?, StorageException> result;
+      if (i < deletes) {
+        result = response.deletes.get(permit.x());
+      } else if (i < deletes + updates) {
+        result = response.updates.get(permit.x());
+      } else {
+        result = response.gets.get(permit.x());
+      }
+      if (result != null && result.y() != null) {
+        permit.y().failed(result.y());
+      } else {
+        permit.y().succeeded(null);
+      }
+    }
+    return response;
+  }
+
+  @Override
+  public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+      Map<Option, ?> targetOptions) {
+    Permit permit = acquire(target.getBucket());
+    try {
+      return permit.succeeded(super.compose(sources, target, targetOptions));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public StorageObject copy(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions) {
+    Permit permit = acquire(target.getBucket());
+    try {
+      return permit.succeeded(super.copy(source, sourceOptions, target, targetOptions));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public RewriteResponse rewrite(StorageObject source, Map<Option, ?> sourceOptions,
+      StorageObject target, Map<Option, ?> targetOptions, String rewriteToken,
+      Long maxBytesRewrittenPerCall) {
+    Permit permit = acquire(target.getBucket());
+    try {
+      return permit.succeeded(super.rewrite(source, sourceOptions, target, targetOptions,
+          rewriteToken, maxBytesRewrittenPerCall));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public byte[] load(StorageObject storageObject, Map<Option, ?> options) {
+    Permit permit = acquire(storageObject.getBucket());
+    try {
+      return permit.succeeded(super.load(storageObject, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public int read(StorageObject from, Map<Option, ?> options, long position, ByteBuffer buffer) {
+    Permit permit = acquire(from.getBucket());
+    try {
+      return permit.succeeded(super.read(from, options, position, buffer));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options) {
+    Permit permit = acquire(from.getBucket());
+    try {
+      return permit.succeeded(super.openStream(from, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public InputStream openStream(StorageObject from, Map<Option, ?> options, long position) {
+    Permit permit = acquire(from.getBucket());
+    try {
+      return permit.succeeded(super.openStream(from, options, position));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public String open(StorageObject object, Map<Option, ?> options) {
+    Permit permit = acquire(object.getBucket());
+    try {
+      return permit.succeeded(super.open(object, options));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public StorageObject write(String uploadId, byte[] toWrite, int toWriteOffset,
+      StorageObject dest, long destOffset, int length, boolean last) {
+    Permit permit = acquire(dest.getBucket());
+    try {
+      return permit.succeeded(
+          super.write(uploadId, toWrite, toWriteOffset, dest, destOffset, length, last));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+
+  @Override
+  public long getUploadOffset(String uploadId) {
+    Permit permit = acquire(null);
+    try {
+      return permit.succeeded(super.getUploadOffset(uploadId));
+    } catch (StorageException ex) {
+      throw permit.failed(ex);
+    }
+  }
+}
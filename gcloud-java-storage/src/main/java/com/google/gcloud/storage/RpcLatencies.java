@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import com.google.gcloud.LatencyTracker;
+
+/**
+ * The latencies of the hedged requests of the storage services with equal options, from which
+ * {@link com.google.gcloud.RetryHelper#runWithHedging} derives when to hedge a request. Reads are
+ * tracked per size class, powers of two, as the latency of a read grows with its size.
+ */
+final class RpcLatencies {
+
+  private final LatencyTracker bucketGets = new LatencyTracker();
+  private final LatencyTracker blobGets = new LatencyTracker();
+  private final LatencyTracker[] reads = new LatencyTracker[Integer.SIZE];
+
+  RpcLatencies() {
+    for (int i = 0; i < reads.length; i++) {
+      reads[i] = new LatencyTracker();
+    }
+  }
+
+  LatencyTracker bucketGets() {
+    return bucketGets;
+  }
+
+  LatencyTracker blobGets() {
+    return blobGets;
+  }
+
+  /**
+   * Returns the latencies of the reads of up to {@code length} bytes, rounded up to a power of two.
+   */
+  LatencyTracker reads(int length) {
+    return reads[Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1)];
+  }
+}
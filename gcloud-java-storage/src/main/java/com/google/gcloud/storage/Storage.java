@@ -19,20 +19,25 @@ package com.google.gcloud.storage;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.gcloud.AuthCredentials.ServiceAccountAuthCredentials;
 import com.google.gcloud.Service;
 import com.google.gcloud.spi.StorageRpc;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -64,6 +69,96 @@ public interface Storage extends Service<StorageOptions> {
     }
   }
 
+  /**
+   * Bucket fields that can be selected with {@link BucketSourceOption#fields(BucketField...)} and
+   * {@link BucketListOption#fields(BucketField...)}. The bucket's name is always returned.
+   */
+  enum BucketField {
+    ID("id"),
+    SELF_LINK("selfLink"),
+    NAME("name"),
+    TIME_CREATED("timeCreated"),
+    METAGENERATION("metageneration"),
+    ACL("acl"),
+    DEFAULT_OBJECT_ACL("defaultObjectAcl"),
+    OWNER("owner"),
+    LOCATION("location"),
+    WEBSITE("website"),
+    VERSIONING("versioning"),
+    CORS("cors"),
+    LIFECYCLE("lifecycle"),
+    STORAGE_CLASS("storageClass"),
+    ETAG("etag");
+
+    private final String selector;
+
+    BucketField(String selector) {
+      this.selector = selector;
+    }
+
+    String selector() {
+      return selector;
+    }
+
+    static String selector(BucketField... fields) {
+      Set<String> selectors = new LinkedHashSet<>();
+      selectors.add(NAME.selector());
+      for (BucketField field : fields) {
+        selectors.add(field.selector());
+      }
+      return Joiner.on(',').join(selectors);
+    }
+  }
+
+  /**
+   * Blob fields that can be selected with {@link BlobSourceOption#fields(BlobField...)} and
+   * {@link BlobListOption#fields(BlobField...)}. The blob's bucket and name are always returned.
+   */
+  enum BlobField {
+    ACL("acl"),
+    BUCKET("bucket"),
+    CACHE_CONTROL("cacheControl"),
+    COMPONENT_COUNT("componentCount"),
+    CONTENT_DISPOSITION("contentDisposition"),
+    CONTENT_ENCODING("contentEncoding"),
+    CONTENT_LANGUAGE("contentLanguage"),
+    CONTENT_TYPE("contentType"),
+    CRC32C("crc32c"),
+    ETAG("etag"),
+    GENERATION("generation"),
+    ID("id"),
+    MD5HASH("md5Hash"),
+    MEDIA_LINK("mediaLink"),
+    METADATA("metadata"),
+    METAGENERATION("metageneration"),
+    NAME("name"),
+    OWNER("owner"),
+    SELF_LINK("selfLink"),
+    SIZE("size"),
+    TIME_DELETED("timeDeleted"),
+    UPDATED("updated");
+
+    private final String selector;
+
+    BlobField(String selector) {
+      this.selector = selector;
+    }
+
+    String selector() {
+      return selector;
+    }
+
+    static String selector(BlobField... fields) {
+      Set<String> selectors = new LinkedHashSet<>();
+      selectors.add(BUCKET.selector());
+      selectors.add(NAME.selector());
+      for (BlobField field : fields) {
+        selectors.add(field.selector());
+      }
+      return Joiner.on(',').join(selectors);
+    }
+  }
+
   class BucketTargetOption extends Option {
 
     private static final long serialVersionUID = -5880204616982900975L;
@@ -97,8 +192,8 @@ public interface Storage extends Service<StorageOptions> {
 
     private static final long serialVersionUID = 5185657617120212117L;
 
-    private BucketSourceOption(StorageRpc.Option rpcOption, long metageneration) {
-      super(rpcOption, metageneration);
+    private BucketSourceOption(StorageRpc.Option rpcOption, Object value) {
+      super(rpcOption, value);
     }
 
     public static BucketSourceOption metagenerationMatch(long metageneration) {
@@ -108,6 +203,22 @@ public interface Storage extends Service<StorageOptions> {
     public static BucketSourceOption metagenerationNotMatch(long metageneration) {
       return new BucketSourceOption(StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, metageneration);
     }
+
+    /**
+     * Returns an option to only return the given fields of the bucket, other fields are
+     * {@code null}. Only applies to get requests.
+     */
+    public static BucketSourceOption fields(BucketField... fields) {
+      return new BucketSourceOption(StorageRpc.Option.FIELDS, BucketField.selector(fields));
+    }
+
+    /**
+     * Returns an option to return the bucket without its access control lists. Only applies to
+     * get requests.
+     */
+    public static BucketSourceOption noAcl() {
+      return new BucketSourceOption(StorageRpc.Option.PROJECTION, Option.NO_ACL_PROJECTION);
+    }
   }
 
   class BlobTargetOption extends Option {
@@ -151,7 +262,7 @@ public interface Storage extends Service<StorageOptions> {
 
     private static final long serialVersionUID = -3712768261070182991L;
 
-    private BlobSourceOption(StorageRpc.Option rpcOption, long value) {
+    private BlobSourceOption(StorageRpc.Option rpcOption, Object value) {
       super(rpcOption, value);
     }
 
@@ -170,6 +281,22 @@ public interface Storage extends Service<StorageOptions> {
     public static BlobSourceOption metagenerationNotMatch(long metageneration) {
       return new BlobSourceOption(StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, metageneration);
     }
+
+    /**
+     * Returns an option to only return the given fields of the blob, other fields are
+     * {@code null}. Only applies to get requests.
+     */
+    public static BlobSourceOption fields(BlobField... fields) {
+      return new BlobSourceOption(StorageRpc.Option.FIELDS, BlobField.selector(fields));
+    }
+
+    /**
+     * Returns an option to return the blob without its access control list and owner. Only
+     * applies to get requests.
+     */
+    public static BlobSourceOption noAcl() {
+      return new BlobSourceOption(StorageRpc.Option.PROJECTION, Option.NO_ACL_PROJECTION);
+    }
   }
 
   class BucketListOption extends Option {
@@ -191,6 +318,21 @@ public interface Storage extends Service<StorageOptions> {
     public static BucketListOption prefix(String prefix) {
       return new BucketListOption(StorageRpc.Option.PREFIX, prefix);
     }
+
+    /**
+     * Returns an option to only return the given fields of the listed buckets, other fields are
+     * {@code null}.
+     */
+    public static BucketListOption fields(BucketField... fields) {
+      return new BucketListOption(StorageRpc.Option.FIELDS, BucketField.selector(fields));
+    }
+
+    /**
+     * Returns an option to list buckets without their access control lists.
+     */
+    public static BucketListOption noAcl() {
+      return new BucketListOption(StorageRpc.Option.PROJECTION, Option.NO_ACL_PROJECTION);
+    }
   }
 
   class BlobListOption extends Option {
@@ -216,6 +358,21 @@ public interface Storage extends Service<StorageOptions> {
     public static BlobListOption recursive(boolean recursive) {
       return new BlobListOption(StorageRpc.Option.DELIMITER, recursive);
     }
+
+    /**
+     * Returns an option to only return the given fields of the listed blobs, other fields are
+     * {@code null}.
+     */
+    public static BlobListOption fields(BlobField... fields) {
+      return new BlobListOption(StorageRpc.Option.FIELDS, BlobField.selector(fields));
+    }
+
+    /**
+     * Returns an option to list blobs without their access control lists and owners.
+     */
+    public static BlobListOption noAcl() {
+      return new BlobListOption(StorageRpc.Option.PROJECTION, Option.NO_ACL_PROJECTION);
+    }
   }
 
   class SignUrlOption implements Serializable {
@@ -396,6 +553,7 @@ public interface Storage extends Service<StorageOptions> {
     private final List<BlobSourceOption> sourceOptions;
     private final BlobInfo target;
     private final List<BlobTargetOption> targetOptions;
+    private final Long megabytesCopiedPerChunk;
 
     public static class Builder {
 
@@ -403,6 +561,7 @@ public interface Storage extends Service<StorageOptions> {
       private final Set<BlobTargetOption> targetOptions = new LinkedHashSet<>();
       private BlobId source;
       private BlobInfo target;
+      private Long megabytesCopiedPerChunk;
 
       public Builder source(String bucket, String blob) {
         this.source = BlobId.of(bucket, blob);
@@ -439,6 +598,19 @@ public interface Storage extends Service<StorageOptions> {
         return this;
       }
 
+      /**
+       * Sets how many megabytes a rewrite copies in each request. If not set, the service
+       * chooses. Only used by {@link Storage#rewrite(CopyRequest)}.
+       *
+       * @return the builder.
+       */
+      public Builder megabytesCopiedPerChunk(Long megabytesCopiedPerChunk) {
+        checkArgument(megabytesCopiedPerChunk == null || megabytesCopiedPerChunk > 0,
+            "Megabytes copied per chunk must be positive");
+        this.megabytesCopiedPerChunk = megabytesCopiedPerChunk;
+        return this;
+      }
+
       public CopyRequest build() {
         checkNotNull(source);
         checkNotNull(target);
@@ -451,6 +623,7 @@ public interface Storage extends Service<StorageOptions> {
       sourceOptions = ImmutableList.copyOf(builder.sourceOptions);
       target = checkNotNull(builder.target);
       targetOptions = ImmutableList.copyOf(builder.targetOptions);
+      megabytesCopiedPerChunk = builder.megabytesCopiedPerChunk;
     }
 
     public BlobId source() {
@@ -469,6 +642,10 @@ public interface Storage extends Service<StorageOptions> {
       return targetOptions;
     }
 
+    public Long megabytesCopiedPerChunk() {
+      return megabytesCopiedPerChunk;
+    }
+
     public static CopyRequest of(String sourceBucket, String sourceBlob, BlobInfo target) {
       return builder().source(sourceBucket, sourceBlob).target(target).build();
     }
@@ -526,6 +703,21 @@ public interface Storage extends Service<StorageOptions> {
    */
   BlobInfo create(BlobInfo blobInfo, InputStream content, BlobTargetOption... options);
 
+  /**
+   * Uploads the content of {@code path} to a new blob, choosing how from the size of the file.
+   * Files up to {@link StorageOptions#directUploadThreshold()} bytes are uploaded in a single
+   * request. Files of at least {@link StorageOptions#compositeUploadThreshold()} bytes, when
+   * composite uploads are enabled, are uploaded as a {@link CompositeUpload}. Other files are
+   * uploaded with a resumable upload. The file is read through memory mapped regions rather than
+   * copied to intermediate buffers. A failed single request upload is retried by reading the file
+   * again from the start of the request's content.
+   *
+   * @return the uploaded blob
+   * @throws IOException upon failure reading {@code path}
+   * @throws StorageException upon failure
+   */
+  BlobInfo upload(BlobInfo blobInfo, Path path, BlobTargetOption... options) throws IOException;
+
   /**
    * Return the requested bucket or {@code null} if not found.
    *
@@ -568,6 +760,21 @@ public interface Storage extends Service<StorageOptions> {
    */
   ListResult<BlobInfo> list(String bucket, BlobListOption... options);
 
+  /**
+   * Lists all the bucket's blobs, optionally under a {@link BlobListOption#prefix(String)}, by
+   * listing disjoint ranges of blob names concurrently. Ranges are found by listing with the
+   * service's {@link StorageOptions#pathDelimiter()}: buckets whose blob names hold no delimiter
+   * are listed sequentially. Up to {@link StorageOptions#listParallelism()} pages are requested at
+   * a time, on the {@link StorageOptions#executorFactory()} executor, while the returned iterator
+   * is consumed. {@link BlobListOption#startPageToken(String)} and
+   * {@link BlobListOption#recursive(boolean)} are not supported.
+   *
+   * @param ordered whether blobs are returned in name order. Unordered listing returns blobs as
+   *     soon as they are received.
+   * @throws StorageException upon failure, when the iterator reaches the failed request
+   */
+  Iterator<BlobInfo> listParallel(String bucket, boolean ordered, BlobListOption... options);
+
   /**
    * Update bucket information.
    *
@@ -640,6 +847,17 @@ public interface Storage extends Service<StorageOptions> {
    */
   BlobInfo copy(CopyRequest copyRequest);
 
+  /**
+   * Send a rewrite request. Unlike {@link #copy(CopyRequest)}, rewrites can copy blobs of any size
+   * across locations and storage classes: the service copies the blob in several requests, each
+   * copying a chunk of the blob. This method sends the first request, the returned
+   * {@link CopyWriter} sends the following ones.
+   *
+   * @return a writer to complete the rewrite and track its progress.
+   * @throws StorageException upon failure
+   */
+  CopyWriter rewrite(CopyRequest copyRequest);
+
   /**
    * Reads all the bytes from a blob.
    *
@@ -657,7 +875,28 @@ public interface Storage extends Service<StorageOptions> {
   byte[] readAllBytes(BlobId blob, BlobSourceOption... options);
 
   /**
-   * Send a batch request.
+   * Downloads the blob's content to {@code path}. The file is sized to the blob before the
+   * content is fetched, in chunks read concurrently, up to
+   * {@link StorageOptions#downloadParallelism()} at a time, and written at their offset in the
+   * file. Completed chunks are recorded in a progress file next to {@code path}, named after it
+   * with a {@code .download} suffix: if the download fails or is interrupted, calling this method
+   * again only fetches the missing chunks, provided the blob was not replaced in the meantime. The
+   * progress file is deleted once the download completes. The downloaded file is checked against
+   * the blob's CRC32C checksum or MD5 hash. Blobs with a content encoding are downloaded
+   * sequentially and can't be resumed or checked.
+   *
+   * @return the downloaded blob
+   * @throws IOException upon failure writing {@code path}
+   * @throws StorageException upon failure reading the blob or if the downloaded file does not
+   *     match the blob
+   */
+  BlobInfo downloadTo(BlobId blob, Path path, BlobSourceOption... options) throws IOException;
+
+  /**
+   * Send a batch request. Batches larger than the service allows are split and sent as several
+   * batch requests, up to {@link StorageOptions#batchParallelism()} at a time. Results are
+   * returned in the order of the requests in {@code batchRequest}. Entries that fail with a
+   * retryable error are sent again, as configured by {@link StorageOptions#retryParams()}.
    *
    * @return the batch response
    * @throws StorageException upon failure
@@ -685,6 +924,16 @@ public interface Storage extends Service<StorageOptions> {
    */
   BlobWriteChannel writer(BlobInfo blobInfo, BlobTargetOption... options);
 
+  /**
+   * Return a channel for continuing the resumable upload {@code uploadId}, as returned by
+   * {@link BlobWriteChannel#uploadId()}. Content must be written starting from the channel's
+   * {@link BlobWriteChannel#committedOffset()}. If the upload is already complete the returned
+   * channel is closed.
+   *
+   * @throws StorageException upon failure
+   */
+  BlobWriteChannel resumeWriter(BlobInfo blobInfo, String uploadId);
+
   /**
    * Generates a signed URL for a blob.
    * If you have a blob that you want to allow access to for a fixed
@@ -737,4 +986,28 @@ public interface Storage extends Service<StorageOptions> {
    * @throws StorageException upon failure
    */
   List<Boolean> delete(BlobId... blobIds);
+
+  /**
+   * Returns an asynchronous view of this service. Requests issued through the returned object run
+   * on the executor provided by {@link StorageOptions#executorFactory()} and complete a future.
+   */
+  AsyncStorage async();
+
+  /**
+   * Returns the statistics of the service's blob metadata cache. All counts are {@code 0} if the
+   * cache is disabled.
+   *
+   * @see StorageOptions.Builder#metadataCacheSize(long)
+   */
+  MetadataCacheStats metadataCacheStats();
+
+  /**
+   * Returns the rate in requests per second currently allowed for each bucket the service sent
+   * requests to. The rate of the requests not addressed to a single bucket, such as bucket
+   * listings, is keyed by the empty string. The returned map is empty if requests are not rate
+   * limited.
+   *
+   * @see StorageOptions.Builder#initialRequestRate(double)
+   */
+  Map<String, Double> requestRates();
 }
@@ -28,7 +28,7 @@ import com.google.gcloud.RetryHelper.RetryHelperException;
 public class StorageException extends RuntimeException {
 
   private static final long serialVersionUID = -3748432005065428084L;
-  private static final int UNKNOWN_CODE = -1;
+  static final int UNKNOWN_CODE = -1;
 
   private final int code;
   private final boolean retryable;
@@ -66,4 +66,24 @@ public class StorageException extends RuntimeException {
     }
     throw new StorageException(UNKNOWN_CODE, ex.getMessage(), false);
   }
+
+  /**
+   * Translate a failure of an asynchronous request into a {@code StorageException}.
+   *
+   * @return the {@code StorageException} that caused {@code throwable}, if any, or a new
+   *     non-retryable {@code StorageException} otherwise
+   */
+  static StorageException translate(Throwable throwable) {
+    if (throwable instanceof StorageException) {
+      return (StorageException) throwable;
+    }
+    if (throwable instanceof RetryHelperException
+        && throwable.getCause() instanceof StorageException) {
+      return (StorageException) throwable.getCause();
+    }
+    StorageException exception =
+        new StorageException(UNKNOWN_CODE, throwable.getMessage(), false);
+    exception.initCause(throwable);
+    return exception;
+  }
 }
@@ -18,6 +18,7 @@ package com.google.gcloud.storage;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.gcloud.RetryHelper.runWithHedging;
 import static com.google.gcloud.RetryHelper.runWithRetries;
 import static com.google.gcloud.spi.StorageRpc.Option.DELIMITER;
 import static com.google.gcloud.spi.StorageRpc.Option.IF_GENERATION_MATCH;
@@ -34,6 +35,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.api.services.storage.model.StorageObject;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -46,17 +48,26 @@ import com.google.gcloud.AuthCredentials.ServiceAccountAuthCredentials;
 import com.google.gcloud.BaseService;
 import com.google.gcloud.ExceptionHandler;
 import com.google.gcloud.ExceptionHandler.Interceptor;
+import com.google.gcloud.RetryHelper;
 import com.google.gcloud.RetryHelper.RetryHelperException;
+import com.google.gcloud.RetryParams;
 import com.google.gcloud.spi.StorageRpc;
 import com.google.gcloud.spi.StorageRpc.Tuple;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
@@ -64,10 +75,19 @@ import java.security.SignatureException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 
 final class StorageImpl extends BaseService<StorageOptions> implements Storage {
@@ -92,18 +112,40 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   };
   static final ExceptionHandler EXCEPTION_HANDLER = ExceptionHandler.builder()
       .abortOn(RuntimeException.class).interceptor(EXCEPTION_HANDLER_INTERCEPTOR).build();
+  // streamed reads that fail are reopened, unless they were interrupted
+  static final ExceptionHandler STREAM_EXCEPTION_HANDLER = ExceptionHandler.builder()
+      .retryOn(IOException.class).abortOn(InterruptedIOException.class, RuntimeException.class)
+      .interceptor(EXCEPTION_HANDLER_INTERCEPTOR).build();
   private static final byte[] EMPTY_BYTE_ARRAY = {};
+  static final int MAX_BATCH_SIZE = 100;
+  private static final long UPLOAD_REGION_SIZE = 64L * 1024 * 1024;
+  private static final int SHARDS_PER_LIST_REQUEST = 4;
+  private static final int MAX_BUFFERED_LISTED_BLOBS = 10_000;
+  static final String GZIP_ENCODING = "gzip";
 
   private final StorageRpc storageRpc;
+  private final RetryParams retryParams;
 
   StorageImpl(StorageOptions options) {
+    this(options, null);
+  }
+
+  /**
+   * Creates a service that retries requests as configured by {@code retryParams} rather than by
+   * {@code options.retryParams()}, if not {@code null}.
+   */
+  StorageImpl(StorageOptions options, RetryParams retryParams) {
     super(options);
+    this.retryParams = retryParams;
     storageRpc = options.storageRpc();
     // todo: configure timeouts - https://developers.google.com/api-client-library/java/google-api-java-client/errors
-    // todo: provide rewrite - https://cloud.google.com/storage/docs/json_api/v1/objects/rewrite
     // todo: check if we need to expose https://cloud.google.com/storage/docs/json_api/v1/bucketAccessControls/insert vs using bucket update/patch
   }
 
+  private RetryParams retryParams() {
+    return retryParams != null ? retryParams : options().retryParams();
+  }
+
   @Override
   public BucketInfo create(BucketInfo bucketInfo, BucketTargetOption... options) {
     final com.google.api.services.storage.model.Bucket bucketPb = bucketInfo.toPb();
@@ -115,7 +157,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
           public com.google.api.services.storage.model.Bucket call() {
             return storageRpc.create(bucketPb, optionsMap);
           }
-        }, options().retryParams(), EXCEPTION_HANDLER));
+        }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -133,42 +175,124 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   }
 
   @Override
-  public BlobInfo create(BlobInfo blobInfo, final InputStream content,
-      BlobTargetOption... options) {
-    final StorageObject blobPb = blobInfo.toPb();
+  public BlobInfo create(BlobInfo blobInfo, InputStream content, BlobTargetOption... options) {
     final Map<StorageRpc.Option, ?> optionsMap = optionMap(blobInfo, options);
+    InputStream source = firstNonNull(content, new ByteArrayInputStream(EMPTY_BYTE_ARRAY));
+    // content mapped from a file is read again from its start when a request is retried
+    final ByteBufferInputStream rewindable =
+        source instanceof ByteBufferInputStream ? (ByteBufferInputStream) source : null;
+    if (rewindable != null) {
+      rewindable.mark(0);
+    }
+    final boolean compress = compressContent(blobInfo);
+    if (compress) {
+      blobInfo = gzipEncoded(blobInfo);
+      if (rewindable == null) {
+        source = new GzipCompressingInputStream(source);
+      }
+    }
+    final StorageObject blobPb = blobInfo.toPb();
+    final InputStream stream = source;
     try {
       return BlobInfo.fromPb(runWithRetries(new Callable<StorageObject>() {
         @Override
         public StorageObject call() {
-          return storageRpc.create(blobPb,
-              firstNonNull(content, new ByteArrayInputStream(EMPTY_BYTE_ARRAY)), optionsMap);
+          InputStream blobContent = stream;
+          if (rewindable != null) {
+            rewindable.reset();
+            if (compress) {
+              // a compressor can't be rewound, each attempt compresses the content from its start
+              blobContent = new GzipCompressingInputStream(rewindable);
+            }
+          }
+          return storageRpc.create(blobPb, blobContent, optionsMap);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER));
+      }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
   }
 
+  @Override
+  public BlobInfo upload(BlobInfo blobInfo, Path path, BlobTargetOption... options)
+      throws IOException {
+    long compositeUploadThreshold = options().compositeUploadThreshold();
+    if (compositeUploadThreshold > 0 && Files.size(path) >= compositeUploadThreshold) {
+      return CompositeUpload.builder(this, blobInfo).targetOptions(options).build().upload(path);
+    }
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = file.size();
+      if (size <= Math.min(options().directUploadThreshold(), Integer.MAX_VALUE)) {
+        return create(blobInfo,
+            new ByteBufferInputStream(file.map(FileChannel.MapMode.READ_ONLY, 0, size)), options);
+      }
+      BlobInfo created;
+      try (BlobWriteChannelImpl writer = newWriter(blobInfo, options)) {
+        for (long offset = 0; offset < size; offset += UPLOAD_REGION_SIZE) {
+          ByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY, offset,
+              Math.min(UPLOAD_REGION_SIZE, size - offset));
+          while (region.hasRemaining()) {
+            writer.write(region);
+          }
+        }
+        // closed here to complete the upload and get the created blob
+        writer.close();
+        created = writer.created();
+      }
+      // the response completing the upload is lost if the upload was completed by a failed attempt
+      return created != null ? created : get(blobInfo.blobId());
+    }
+  }
+
+  /**
+   * Returns whether the content of {@code blobInfo} should be gzip-compressed when uploaded.
+   */
+  private boolean compressContent(BlobInfo blobInfo) {
+    return options().gzipContent() && blobInfo.contentEncoding() == null;
+  }
+
+  /**
+   * Returns a copy of {@code blobInfo} for gzip-compressed content. Hashes are cleared, as they are
+   * the hashes of the uncompressed content.
+   */
+  static BlobInfo gzipEncoded(BlobInfo blobInfo) {
+    BlobInfo.Builder builder = blobInfo.toBuilder().contentEncoding(GZIP_ENCODING);
+    if (blobInfo.md5() != null) {
+      builder.md5(null);
+    }
+    if (blobInfo.crc32c() != null) {
+      builder.crc32c(null);
+    }
+    return builder.build();
+  }
+
   @Override
   public BucketInfo get(String bucket, BucketSourceOption... options) {
     final com.google.api.services.storage.model.Bucket bucketPb = BucketInfo.of(bucket).toPb();
     final Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
-    try {
-      com.google.api.services.storage.model.Bucket answer = runWithRetries(
-          new Callable<com.google.api.services.storage.model.Bucket>() {
-            @Override
-            public com.google.api.services.storage.model.Bucket call() {
-              try {
-                return storageRpc.get(bucketPb, optionsMap);
-              } catch (StorageException ex) {
-                if (ex.code() == HTTP_NOT_FOUND) {
-                  return null;
-                }
-                throw ex;
+    Callable<com.google.api.services.storage.model.Bucket> get =
+        new Callable<com.google.api.services.storage.model.Bucket>() {
+          @Override
+          public com.google.api.services.storage.model.Bucket call() {
+            try {
+              return storageRpc.get(bucketPb, optionsMap);
+            } catch (StorageException ex) {
+              if (ex.code() == HTTP_NOT_FOUND) {
+                return null;
               }
+              throw ex;
             }
-          }, options().retryParams(), EXCEPTION_HANDLER);
+          }
+        };
+    RetryParams retryParams = retryParams();
+    try {
+      com.google.api.services.storage.model.Bucket answer;
+      if (retryParams.getHedgeDelayPercentile() > 0) {
+        answer = runWithHedging(get, retryParams, EXCEPTION_HANDLER,
+            options().latencies().bucketGets());
+      } else {
+        answer = runWithRetries(get, retryParams, EXCEPTION_HANDLER);
+      }
       return answer == null ? null : BucketInfo.fromPb(answer);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
@@ -185,25 +309,39 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     final StorageObject storedObject = blob.toPb();
     final Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
     try {
-      StorageObject storageObject = runWithRetries(new Callable<StorageObject>() {
-        @Override
-        public StorageObject call() {
-          try {
-            return storageRpc.get(storedObject, optionsMap);
-          } catch (StorageException ex) {
-            if (ex.code() == HTTP_NOT_FOUND) {
-              return null;
+      StorageObject storageObject = getMetadata(options(), retryParams(),
+          new Callable<StorageObject>() {
+            @Override
+            public StorageObject call() {
+              try {
+                return storageRpc.get(storedObject, optionsMap);
+              } catch (StorageException ex) {
+                if (ex.code() == HTTP_NOT_FOUND) {
+                  return null;
+                }
+                throw ex;
+              }
             }
-            throw ex;
-          }
-        }
-      }, options().retryParams(), EXCEPTION_HANDLER);
+          });
       return storageObject == null ? null : BlobInfo.fromPb(storageObject);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
   }
 
+  /**
+   * Runs {@code get}, a read of blob metadata, retried and hedged as configured by
+   * {@code retryParams}. Reads are not hedged while the metadata cache is enabled, as the latency
+   * of cache hits would have hedges sent too early.
+   */
+  static StorageObject getMetadata(StorageOptions options, RetryParams retryParams,
+      Callable<StorageObject> get) {
+    if (retryParams.getHedgeDelayPercentile() <= 0 || options.metadataCacheSize() > 0) {
+      return runWithRetries(get, retryParams, EXCEPTION_HANDLER);
+    }
+    return runWithHedging(get, retryParams, EXCEPTION_HANDLER, options.latencies().blobGets());
+  }
+
   @Override
   public BlobInfo get(BlobId blob) {
     return get(blob, new BlobSourceOption[0]);
@@ -243,7 +381,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
     @Override
     public ListResult<BucketInfo> nextPage() {
-      return listBuckets(serviceOptions, requestOptions);
+      return listBuckets(serviceOptions, requestOptions, serviceOptions.retryParams());
     }
   }
 
@@ -260,17 +398,42 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
     @Override
     public ListResult<BlobInfo> nextPage() {
-      return listBlobs(bucket, serviceOptions, requestOptions);
+      return listBlobs(bucket, serviceOptions, requestOptions, serviceOptions.retryParams());
+    }
+  }
+
+  /**
+   * A list result whose {@link #iterateAll()} fetches the following pages ahead of time, on the
+   * service's executor.
+   */
+  private static class PrefetchingListResult<T extends Serializable> extends BaseListResult<T> {
+
+    private static final long serialVersionUID = -2370591773585386224L;
+    private final StorageOptions serviceOptions;
+
+    PrefetchingListResult(StorageOptions serviceOptions, NextPageFetcher<T> pageFetcher,
+        String cursor, Iterable<T> results) {
+      super(pageFetcher, cursor, results);
+      this.serviceOptions = serviceOptions;
+    }
+
+    @Override
+    public Iterator<T> iterateAll() {
+      int prefetchDepth = serviceOptions.listPrefetchDepth();
+      if (prefetchDepth == 0) {
+        return super.iterateAll();
+      }
+      return new PageIterator<>(this, serviceOptions.executorFactory().get(), prefetchDepth);
     }
   }
 
   @Override
   public ListResult<BucketInfo> list(BucketListOption... options) {
-    return listBuckets(options(), optionMap(options));
+    return listBuckets(options(), optionMap(options), retryParams());
   }
 
   private static ListResult<BucketInfo> listBuckets(final StorageOptions serviceOptions,
-      final Map<StorageRpc.Option, ?> optionsMap) {
+      final Map<StorageRpc.Option, ?> optionsMap, RetryParams retryParams) {
     try {
       Tuple<String, Iterable<com.google.api.services.storage.model.Bucket>> result = runWithRetries(
           new Callable<Tuple<String, Iterable<com.google.api.services.storage.model.Bucket>>>() {
@@ -278,7 +441,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
             public Tuple<String, Iterable<com.google.api.services.storage.model.Bucket>> call() {
               return serviceOptions.storageRpc().list(optionsMap);
             }
-          }, serviceOptions.retryParams(), EXCEPTION_HANDLER);
+          }, retryParams, EXCEPTION_HANDLER);
       String cursor = result.x();
       Iterable<BucketInfo> buckets =
           result.y() == null ? ImmutableList.<BucketInfo>of() : Iterables.transform(result.y(),
@@ -288,8 +451,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
                   return BucketInfo.fromPb(bucketPb);
                 }
               });
-      return new BaseListResult<>(new BucketPageFetcher(serviceOptions, cursor, optionsMap), cursor,
-          buckets);
+      return new PrefetchingListResult<>(serviceOptions,
+          new BucketPageFetcher(serviceOptions, cursor, optionsMap), cursor, buckets);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -297,11 +460,24 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
   @Override
   public ListResult<BlobInfo> list(final String bucket, BlobListOption... options) {
-    return listBlobs(bucket, options(), optionMap(options));
+    return listBlobs(bucket, options(), optionMap(options), retryParams());
+  }
+
+  @Override
+  public Iterator<BlobInfo> listParallel(String bucket, boolean ordered,
+      BlobListOption... options) {
+    Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
+    checkArgument(!optionsMap.containsKey(StorageRpc.Option.PAGE_TOKEN)
+        && !optionsMap.containsKey(StorageRpc.Option.DELIMITER),
+        "Parallel listing does not support page tokens or non recursive listing");
+    int parallelism = options().listParallelism();
+    return new ParallelBlobLister(bucket, options(), optionsMap, retryParams(), ordered,
+        parallelism, SHARDS_PER_LIST_REQUEST * parallelism, MAX_BUFFERED_LISTED_BLOBS);
   }
 
   private static ListResult<BlobInfo> listBlobs(final String bucket,
-      final StorageOptions serviceOptions, final Map<StorageRpc.Option, ?> optionsMap) {
+      final StorageOptions serviceOptions, final Map<StorageRpc.Option, ?> optionsMap,
+      RetryParams retryParams) {
     try {
       Tuple<String, Iterable<StorageObject>> result = runWithRetries(
           new Callable<Tuple<String, Iterable<StorageObject>>>() {
@@ -309,7 +485,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
             public Tuple<String, Iterable<StorageObject>> call() {
               return serviceOptions.storageRpc().list(bucket, optionsMap);
             }
-          }, serviceOptions.retryParams(), EXCEPTION_HANDLER);
+          }, retryParams, EXCEPTION_HANDLER);
       String cursor = result.x();
       Iterable<BlobInfo> blobs =
           result.y() == null ? ImmutableList.<BlobInfo>of() : Iterables.transform(result.y(),
@@ -319,9 +495,8 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
                   return BlobInfo.fromPb(storageObject);
                 }
               });
-      return new BaseListResult<>(new BlobPageFetcher(bucket, serviceOptions, cursor, optionsMap),
-          cursor,
-          blobs);
+      return new PrefetchingListResult<>(serviceOptions,
+          new BlobPageFetcher(bucket, serviceOptions, cursor, optionsMap), cursor, blobs);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -338,7 +513,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
             public com.google.api.services.storage.model.Bucket call() {
               return storageRpc.patch(bucketPb, optionsMap);
             }
-          }, options().retryParams(), EXCEPTION_HANDLER));
+          }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -354,7 +529,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
         public StorageObject call() {
           return storageRpc.patch(storageObject, optionsMap);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER));
+      }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -375,7 +550,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
         public Boolean call() {
           return storageRpc.delete(bucketPb, optionsMap);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER);
+      }, retryParams(), EXCEPTION_HANDLER);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -396,7 +571,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
         public Boolean call() {
           return storageRpc.delete(storageObject, optionsMap);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER);
+      }, retryParams(), EXCEPTION_HANDLER);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -424,7 +599,7 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
         public StorageObject call() {
           return storageRpc.compose(sources, target, targetOptions);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER));
+      }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
@@ -445,12 +620,24 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
         public StorageObject call() {
           return storageRpc.copy(source, sourceOptions, target, targetOptions);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER));
+      }, retryParams(), EXCEPTION_HANDLER));
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
   }
 
+  @Override
+  public CopyWriter rewrite(CopyRequest copyRequest) {
+    Map<StorageRpc.Option, ?> sourceOptions =
+        optionMap(null, null, copyRequest.sourceOptions(), true);
+    Map<StorageRpc.Option, ?> targetOptions = optionMap(copyRequest.target().generation(),
+        copyRequest.target().metageneration(), copyRequest.targetOptions());
+    CopyWriter copyWriter = new CopyWriter(options(), copyRequest.source(), sourceOptions,
+        copyRequest.target(), targetOptions, copyRequest.megabytesCopiedPerChunk(), retryParams());
+    copyWriter.copyChunk();
+    return copyWriter;
+  }
+
   @Override
   public byte[] readAllBytes(String bucket, String blob, BlobSourceOption... options) {
     return readAllBytes(BlobId.of(bucket, blob), options);
@@ -459,19 +646,25 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
   @Override
   public byte[] readAllBytes(BlobId blob, BlobSourceOption... options) {
     final StorageObject storageObject = blob.toPb();
-    final Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
+    final Map<StorageRpc.Option, ?> optionsMap = readOptionMap(options);
     try {
       return runWithRetries(new Callable<byte[]>() {
         @Override
         public byte[] call() {
           return storageRpc.load(storageObject, optionsMap);
         }
-      }, options().retryParams(), EXCEPTION_HANDLER);
+      }, retryParams(), EXCEPTION_HANDLER);
     } catch (RetryHelperException e) {
       throw StorageException.translateAndThrow(e);
     }
   }
 
+  @Override
+  public BlobInfo downloadTo(BlobId blob, Path path, BlobSourceOption... options)
+      throws IOException {
+    return new FileDownload(options(), blob, readOptionMap(options), path).run();
+  }
+
   @Override
   public BatchResponse apply(BatchRequest batchRequest) {
     List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> toDelete =
@@ -497,17 +690,216 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
       Map<StorageRpc.Option, ?> optionsMap = optionMap(null, null, entry.getValue());
       toGet.add(Tuple.<StorageObject, Map<StorageRpc.Option, ?>>of(blob.toPb(), optionsMap));
     }
-    StorageRpc.BatchResponse response =
-        storageRpc.batch(new StorageRpc.BatchRequest(toDelete, toUpdate, toGet));
-    List<BatchResponse.Result<Boolean>> deletes = transformBatchResult(
-        toDelete, response.deletes, Functions.<Boolean>identity());
-    List<BatchResponse.Result<BlobInfo>> updates = transformBatchResult(
-        toUpdate, response.updates, BlobInfo.FROM_PB_FUNCTION);
-    List<BatchResponse.Result<BlobInfo>> gets = transformBatchResult(
-        toGet, response.gets, BlobInfo.FROM_PB_FUNCTION, HTTP_NOT_FOUND);
+    List<StorageRpc.BatchRequest> requests = splitBatch(toDelete, toUpdate, toGet);
+    List<StorageRpc.BatchResponse> responses = executeBatches(requests);
+    List<BatchResponse.Result<Boolean>> deletes = Lists.newArrayListWithCapacity(toDelete.size());
+    List<BatchResponse.Result<BlobInfo>> updates = Lists.newArrayListWithCapacity(toUpdate.size());
+    List<BatchResponse.Result<BlobInfo>> gets = Lists.newArrayListWithCapacity(toGet.size());
+    for (int i = 0; i < requests.size(); i++) {
+      StorageRpc.BatchRequest request = requests.get(i);
+      StorageRpc.BatchResponse response = responses.get(i);
+      deletes.addAll(transformBatchResult(
+          request.toDelete, response.deletes, Functions.<Boolean>identity()));
+      updates.addAll(transformBatchResult(
+          request.toUpdate, response.updates, BlobInfo.FROM_PB_FUNCTION));
+      gets.addAll(transformBatchResult(
+          request.toGet, response.gets, BlobInfo.FROM_PB_FUNCTION, HTTP_NOT_FOUND));
+    }
     return new BatchResponse(deletes, updates, gets);
   }
 
+  /**
+   * Splits a batch into batches of at most {@link #MAX_BATCH_SIZE} requests. Entries keep their
+   * order, so that concatenating the results of the split batches gives the results of the
+   * original one.
+   */
+  private static List<StorageRpc.BatchRequest> splitBatch(
+      List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> toDelete,
+      List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> toUpdate,
+      List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> toGet) {
+    List<List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>> entries =
+        ImmutableList.of(toDelete, toUpdate, toGet);
+    List<StorageRpc.BatchRequest> batches = Lists.newArrayList();
+    List<List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>> batch = newBatch();
+    int size = 0;
+    for (int type = 0; type < entries.size(); type++) {
+      for (Tuple<StorageObject, Map<StorageRpc.Option, ?>> entry : entries.get(type)) {
+        if (size == MAX_BATCH_SIZE) {
+          batches.add(new StorageRpc.BatchRequest(batch.get(0), batch.get(1), batch.get(2)));
+          batch = newBatch();
+          size = 0;
+        }
+        batch.get(type).add(entry);
+        size++;
+      }
+    }
+    if (size > 0 || batches.isEmpty()) {
+      batches.add(new StorageRpc.BatchRequest(batch.get(0), batch.get(1), batch.get(2)));
+    }
+    return batches;
+  }
+
+  private static List<List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>> newBatch() {
+    List<List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>> batch = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      batch.add(Lists.<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>newArrayList());
+    }
+    return batch;
+  }
+
+  /**
+   * Sends {@code requests}, at most {@link StorageOptions#batchParallelism()} of them at a time.
+   *
+   * @return the responses, in the order of {@code requests}
+   * @throws StorageException if a batch request fails
+   */
+  private List<StorageRpc.BatchResponse> executeBatches(List<StorageRpc.BatchRequest> requests) {
+    if (requests.size() == 1) {
+      return ImmutableList.of(batchWithRetries(requests.get(0)));
+    }
+    ExecutorService executor = options().executorFactory().get();
+    int parallelism = options().batchParallelism();
+    List<Future<StorageRpc.BatchResponse>> futures =
+        Lists.newArrayListWithCapacity(requests.size());
+    List<StorageRpc.BatchResponse> responses = Lists.newArrayListWithCapacity(requests.size());
+    try {
+      for (final StorageRpc.BatchRequest request : requests) {
+        if (futures.size() - responses.size() >= parallelism) {
+          responses.add(await(futures.get(responses.size())));
+        }
+        futures.add(submit(executor, new Callable<StorageRpc.BatchResponse>() {
+          @Override
+          public StorageRpc.BatchResponse call() {
+            return batchWithRetries(request);
+          }
+        }));
+      }
+      while (responses.size() < futures.size()) {
+        responses.add(await(futures.get(responses.size())));
+      }
+    } finally {
+      for (Future<StorageRpc.BatchResponse> future : futures) {
+        future.cancel(false);
+      }
+    }
+    return responses;
+  }
+
+  /**
+   * Sends {@code request}, then sends again only the entries that failed with a retryable error,
+   * as configured by {@link StorageOptions#retryParams()}. Retryable failures of the whole batch
+   * request are retried as well.
+   *
+   * @return the response of the last attempt of each entry
+   * @throws StorageException if the batch request fails before any entry gets a response
+   */
+  private StorageRpc.BatchResponse batchWithRetries(StorageRpc.BatchRequest request) {
+    BatchAttempt attempt = new BatchAttempt(request);
+    try {
+      runWithRetries(attempt, retryParams(), EXCEPTION_HANDLER);
+    } catch (RetryHelperException e) {
+      if (!attempt.responded || e instanceof RetryHelper.RetryInterruptedException) {
+        throw StorageException.translateAndThrow(e);
+      }
+      // entries that kept failing are reported with their last failure
+    }
+    return new StorageRpc.BatchResponse(attempt.deletes, attempt.updates, attempt.gets);
+  }
+
+  /**
+   * An attempt of a batch request. Each attempt only sends the entries whose last response was a
+   * retryable failure and fails with a retryable exception if some of them fail again.
+   */
+  private final class BatchAttempt implements Callable<Void> {
+
+    private final Map<StorageObject, Tuple<Boolean, StorageException>> deletes =
+        Maps.newHashMap();
+    private final Map<StorageObject, Tuple<StorageObject, StorageException>> updates =
+        Maps.newHashMap();
+    private final Map<StorageObject, Tuple<StorageObject, StorageException>> gets =
+        Maps.newHashMap();
+    private StorageRpc.BatchRequest pending;
+    private boolean responded;
+
+    BatchAttempt(StorageRpc.BatchRequest request) {
+      pending = request;
+    }
+
+    @Override
+    public Void call() {
+      StorageRpc.BatchResponse response = storageRpc.batch(pending);
+      responded = true;
+      deletes.putAll(response.deletes);
+      updates.putAll(response.updates);
+      gets.putAll(response.gets);
+      pending = new StorageRpc.BatchRequest(retryable(pending.toDelete, deletes),
+          retryable(pending.toUpdate, updates), retryable(pending.toGet, gets));
+      int failed = pending.toDelete.size() + pending.toUpdate.size() + pending.toGet.size();
+      if (failed > 0) {
+        throw new StorageException(StorageException.UNKNOWN_CODE,
+            failed + " batch entries failed with a retryable error", true);
+      }
+      return null;
+    }
+
+    private List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> retryable(
+        List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> requests,
+        Map<StorageObject, ? extends Tuple<?, StorageException>> results) {
+      List<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> retryable = Lists.newArrayList();
+      for (Tuple<StorageObject, Map<StorageRpc.Option, ?>> request : requests) {
+        Tuple<?, StorageException> result = results.get(request.x());
+        if (result != null && result.y() != null && result.y().retryable()) {
+          retryable.add(request);
+        }
+      }
+      return retryable;
+    }
+  }
+
+  /**
+   * Submits {@code task} to {@code executor}. A thread waiting for the returned future with
+   * {@link #await} runs the task itself if no thread of {@code executor} started it yet, so that
+   * callers that are themselves threads of a busy executor, such as the ones running
+   * {@link AsyncStorage} calls, never wait for tasks queued behind them.
+   */
+  static <T> RunnableFuture<T> submit(Executor executor, Callable<T> task) {
+    RunnableFuture<T> future = new FutureTask<>(task);
+    try {
+      executor.execute(future);
+    } catch (RejectedExecutionException e) {
+      // the task is run by the thread waiting for it
+    }
+    return future;
+  }
+
+  /**
+   * Waits for {@code future} and returns its result, rethrowing the task's failure. A future
+   * returned by {@link #submit} whose task didn't start yet is run by the calling thread.
+   *
+   * @throws StorageException if the task failed with a checked exception
+   * @throws RetryHelper.RetryInterruptedException if the thread is interrupted while waiting
+   */
+  static <T> T await(Future<T> future) {
+    if (future instanceof RunnableFuture) {
+      // does nothing if the task was already started
+      ((RunnableFuture<T>) future).run();
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      RetryHelper.RetryInterruptedException.propagate();
+      throw new AssertionError("Unreachable");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new StorageException(StorageException.UNKNOWN_CODE, e.getCause().getMessage(), false);
+    }
+  }
+
   private <I, O extends Serializable> List<BatchResponse.Result<O>> transformBatchResult(
       Iterable<Tuple<StorageObject, Map<StorageRpc.Option, ?>>> request,
       Map<StorageObject, Tuple<I, StorageException>> results, Function<I, O> transform,
@@ -533,20 +925,48 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
 
   @Override
   public BlobReadChannel reader(String bucket, String blob, BlobSourceOption... options) {
-    Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
-    return new BlobReadChannelImpl(options(), BlobId.of(bucket, blob), optionsMap);
+    Map<StorageRpc.Option, ?> optionsMap = readOptionMap(options);
+    return new BlobReadChannelImpl(options(), BlobId.of(bucket, blob), optionsMap,
+        options().gzipContent(), options().validateChecksums());
   }
 
   @Override
   public BlobReadChannel reader(BlobId blob, BlobSourceOption... options) {
-    Map<StorageRpc.Option, ?> optionsMap = optionMap(options);
-    return new BlobReadChannelImpl(options(), blob, optionsMap);
+    Map<StorageRpc.Option, ?> optionsMap = readOptionMap(options);
+    return new BlobReadChannelImpl(options(), blob, optionsMap, options().gzipContent(),
+        options().validateChecksums());
   }
 
   @Override
   public BlobWriteChannel writer(BlobInfo blobInfo, BlobTargetOption... options) {
+    return newWriter(blobInfo, options);
+  }
+
+  private BlobWriteChannelImpl newWriter(BlobInfo blobInfo, BlobTargetOption... options) {
     final Map<StorageRpc.Option, ?> optionsMap = optionMap(blobInfo, options);
-    return new BlobWriteChannelImpl(options(), blobInfo, optionsMap);
+    boolean compress = compressContent(blobInfo);
+    return new BlobWriteChannelImpl(options(), compress ? gzipEncoded(blobInfo) : blobInfo,
+        optionsMap, compress, options().validateChecksums());
+  }
+
+  @Override
+  public AsyncStorage async() {
+    return new AsyncStorageImpl(options());
+  }
+
+  @Override
+  public MetadataCacheStats metadataCacheStats() {
+    return options().metadataCacheStats();
+  }
+
+  @Override
+  public Map<String, Double> requestRates() {
+    return options().requestRates();
+  }
+
+  @Override
+  public BlobWriteChannel resumeWriter(BlobInfo blobInfo, String uploadId) {
+    return new BlobWriteChannelImpl(options(), blobInfo, uploadId);
   }
 
   @Override
@@ -654,6 +1074,15 @@ final class StorageImpl extends BaseService<StorageOptions> implements Storage {
     });
   }
 
+  /**
+   * Returns the options of a content read. Field selection and projection options are dropped, as
+   * reads need the complete metadata of the blob.
+   */
+  private Map<StorageRpc.Option, ?> readOptionMap(BlobSourceOption... options) {
+    return Maps.filterKeys(optionMap(options), Predicates.not(Predicates.in(
+        EnumSet.of(StorageRpc.Option.FIELDS, StorageRpc.Option.PROJECTION))));
+  }
+
   private Map<StorageRpc.Option, ?> optionMap(Long generation, Long metaGeneration,
       Iterable<? extends Option> options) {
     return optionMap(generation, metaGeneration, options, false);
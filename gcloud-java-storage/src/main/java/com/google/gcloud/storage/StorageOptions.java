@@ -16,15 +16,21 @@
 
 package com.google.gcloud.storage;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gcloud.ServiceOptions;
 import com.google.gcloud.spi.DefaultStorageRpc;
 import com.google.gcloud.spi.StorageRpc;
 import com.google.gcloud.spi.StorageRpcFactory;
 
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
 
@@ -32,19 +38,73 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
   private static final String GCS_SCOPE = "https://www.googleapis.com/auth/devstorage.full_control";
   private static final Set<String> SCOPES = ImmutableSet.of(GCS_SCOPE);
   private static final String DEFAULT_PATH_DELIMITER = "/";
+  private static final long DEFAULT_BUFFER_POOL_SIZE = 64L * 1024 * 1024;
+  private static final int DEFAULT_BATCH_PARALLELISM = 4;
+  private static final long DEFAULT_METADATA_CACHE_TTL_MILLIS = 10_000L;
+  private static final long DEFAULT_CONTENT_CACHE_SIZE = 1024L * 1024 * 1024;
+  private static final int DEFAULT_LIST_PREFETCH_DEPTH = 1;
+  private static final int DEFAULT_LIST_PARALLELISM = 8;
+  private static final int DEFAULT_DOWNLOAD_PARALLELISM = 8;
+  private static final long DEFAULT_DIRECT_UPLOAD_THRESHOLD = 8L * 1024 * 1024;
 
   private final String pathDelimiter;
-  private transient StorageRpc storageRpc;
+  private final long bufferPoolSize;
+  private final long batchingWindowMillis;
+  private final int batchParallelism;
+  private final long metadataCacheSize;
+  private final long metadataCacheTtlMillis;
+  private final String contentCacheDirectory;
+  private final long contentCacheSize;
+  private final int listPrefetchDepth;
+  private final int listParallelism;
+  private final boolean gzipContent;
+  private final boolean validateChecksums;
+  private final int downloadParallelism;
+  private final long directUploadThreshold;
+  private final long compositeUploadThreshold;
+  private final double initialRequestRate;
+  private transient SharedRpc rpc;
 
   public static class Builder extends
       ServiceOptions.Builder<StorageRpc, StorageOptions, Builder> {
 
     private String pathDelimiter;
+    private long bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+    private long batchingWindowMillis;
+    private int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+    private long metadataCacheSize;
+    private long metadataCacheTtlMillis = DEFAULT_METADATA_CACHE_TTL_MILLIS;
+    private String contentCacheDirectory;
+    private long contentCacheSize = DEFAULT_CONTENT_CACHE_SIZE;
+    private int listPrefetchDepth = DEFAULT_LIST_PREFETCH_DEPTH;
+    private int listParallelism = DEFAULT_LIST_PARALLELISM;
+    private boolean gzipContent;
+    private boolean validateChecksums;
+    private int downloadParallelism = DEFAULT_DOWNLOAD_PARALLELISM;
+    private long directUploadThreshold = DEFAULT_DIRECT_UPLOAD_THRESHOLD;
+    private long compositeUploadThreshold;
+    private double initialRequestRate;
 
     private Builder() {}
 
     private Builder(StorageOptions options) {
       super(options);
+      pathDelimiter = options.pathDelimiter;
+      bufferPoolSize = options.bufferPoolSize;
+      batchingWindowMillis = options.batchingWindowMillis;
+      batchParallelism = options.batchParallelism;
+      metadataCacheSize = options.metadataCacheSize;
+      metadataCacheTtlMillis = options.metadataCacheTtlMillis;
+      contentCacheDirectory = options.contentCacheDirectory;
+      contentCacheSize = options.contentCacheSize;
+      listPrefetchDepth = options.listPrefetchDepth;
+      listParallelism = options.listParallelism;
+      gzipContent = options.gzipContent;
+      validateChecksums = options.validateChecksums;
+      downloadParallelism = options.downloadParallelism;
+      directUploadThreshold = options.directUploadThreshold;
+      compositeUploadThreshold = options.compositeUploadThreshold;
+      initialRequestRate = options.initialRequestRate;
     }
 
     /**
@@ -58,6 +118,233 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
       return this;
     }
 
+    /**
+     * Sets the maximum number of bytes of idle chunk buffers retained for reuse by the read and
+     * write channels of all the services with equal options. {@code 0} disables buffer reuse.
+     * Default is 64MB. This bounds the memory held by idle buffers only: buffers in use are not
+     * counted, each channel holding up to {@code chunkSize} bytes per pending chunk, as set by
+     * its chunk size, parallelism, read-ahead and write-behind.
+     *
+     * @param bufferPoolSize the maximum size in bytes of the buffer pool
+     * @return the builder.
+     */
+    public Builder bufferPoolSize(long bufferPoolSize) {
+      checkArgument(bufferPoolSize >= 0, "Buffer pool size must not be negative");
+      this.bufferPoolSize = bufferPoolSize;
+      return this;
+    }
+
+    /**
+     * Sets how long single-object get, update and delete requests are held so that concurrent ones
+     * can be sent together as a batch request. Requests are sent as soon as 100 of them are
+     * pending. {@code 0} disables batching. Default is {@code 0}.
+     *
+     * @param batchingWindowMillis the batching window in milliseconds
+     * @return the builder.
+     */
+    public Builder batchingWindowMillis(long batchingWindowMillis) {
+      checkArgument(batchingWindowMillis >= 0, "Batching window must not be negative");
+      this.batchingWindowMillis = batchingWindowMillis;
+      return this;
+    }
+
+    /**
+     * Sets how many batch requests {@link Storage#apply(BatchRequest)} sends concurrently when a
+     * batch is larger than the service allows and is split. Default is 4.
+     *
+     * @param batchParallelism the maximum number of concurrent batch requests
+     * @return the builder.
+     */
+    public Builder batchParallelism(int batchParallelism) {
+      checkArgument(batchParallelism > 0, "Batch parallelism must be positive");
+      this.batchParallelism = batchParallelism;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of blobs whose metadata is cached by the service. Blob get requests
+     * without options are served from the cache, which is kept up to date with the changes made
+     * through the service. {@code 0} disables the cache. Default is {@code 0}.
+     *
+     * @param metadataCacheSize the maximum number of cached entries
+     * @return the builder.
+     * @see Storage#metadataCacheStats()
+     */
+    public Builder metadataCacheSize(long metadataCacheSize) {
+      checkArgument(metadataCacheSize >= 0, "Metadata cache size must not be negative");
+      this.metadataCacheSize = metadataCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets for how long cached blob metadata is used without a request. Expired entries are
+     * revalidated with a conditional request that returns no content if the blob's metageneration
+     * did not change. Changes made by other clients may be missed for this long. Default is 10
+     * seconds.
+     *
+     * @param metadataCacheTtlMillis the time to live of cached entries in milliseconds
+     * @return the builder.
+     */
+    public Builder metadataCacheTtlMillis(long metadataCacheTtlMillis) {
+      checkArgument(metadataCacheTtlMillis >= 0, "Metadata cache TTL must not be negative");
+      this.metadataCacheTtlMillis = metadataCacheTtlMillis;
+      return this;
+    }
+
+    /**
+     * Sets a local directory where the content of the blobs read by the service is cached. Content
+     * is cached per blob generation, and is served from the directory as long as the generation
+     * read is the cached one. Content not cached yet is downloaded on the
+     * {@link StorageOptions#executorFactory()} executor while reads are served by the service,
+     * and is checked against the blob's MD5 or CRC32C hash before being cached. {@code null}
+     * disables the cache. Default is {@code null}.
+     *
+     * @param contentCacheDirectory the path of the cache directory
+     * @return the builder.
+     * @see #contentCacheSize(long)
+     */
+    public Builder contentCacheDirectory(String contentCacheDirectory) {
+      this.contentCacheDirectory = contentCacheDirectory;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of blob content kept in the content cache directory. The
+     * least recently read blobs are deleted first, blobs larger than this are not cached. Default
+     * is 1GB.
+     *
+     * @param contentCacheSize the maximum size in bytes of the content cache
+     * @return the builder.
+     * @see #contentCacheDirectory(String)
+     */
+    public Builder contentCacheSize(long contentCacheSize) {
+      checkArgument(contentCacheSize > 0, "Content cache size must be positive");
+      this.contentCacheSize = contentCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets how many pages {@link ListResult#iterateAll()} fetches ahead of the page being iterated,
+     * on the {@link StorageOptions#executorFactory()} executor. {@code 0} fetches each page only
+     * when it is reached. Default is 1.
+     *
+     * @param listPrefetchDepth the maximum number of pages fetched ahead
+     * @return the builder.
+     */
+    public Builder listPrefetchDepth(int listPrefetchDepth) {
+      checkArgument(listPrefetchDepth >= 0, "List prefetch depth must not be negative");
+      this.listPrefetchDepth = listPrefetchDepth;
+      return this;
+    }
+
+    /**
+     * Sets how many list requests a parallel listing sends concurrently. Default is 8.
+     *
+     * @param listParallelism the maximum number of concurrent list requests
+     * @return the builder.
+     * @see Storage#listParallel(String, boolean, Storage.BlobListOption...)
+     */
+    public Builder listParallelism(int listParallelism) {
+      checkArgument(listParallelism > 0, "List parallelism must be positive");
+      this.listParallelism = listParallelism;
+      return this;
+    }
+
+    /**
+     * Sets whether blob content is gzip-compressed in transit. When enabled, content written
+     * through {@link Storage#create(BlobInfo, byte[], Storage.BlobTargetOption...)},
+     * {@link Storage#create(BlobInfo, java.io.InputStream, Storage.BlobTargetOption...)} and
+     * {@link Storage#writer(BlobInfo, Storage.BlobTargetOption...)} is compressed as it is uploaded
+     * and stored with a {@code gzip} content encoding, unless the blob already specifies a content
+     * encoding. Blobs with a {@code gzip} content encoding are decompressed as they are read by
+     * {@link Storage#reader(BlobId, Storage.BlobSourceOption...)}. Default is {@code false}.
+     *
+     * @param gzipContent whether blob content is gzip-compressed in transit
+     * @return the builder.
+     */
+    public Builder gzipContent(boolean gzipContent) {
+      this.gzipContent = gzipContent;
+      return this;
+    }
+
+    /**
+     * Sets whether blob channels validate the content they transfer. When enabled, channels
+     * returned by {@link Storage#writer(BlobInfo, Storage.BlobTargetOption...)} compute the CRC32C
+     * checksum of the written content and send it with the last chunk, so that the service rejects
+     * the upload if the content it received differs. Channels returned by
+     * {@link Storage#reader(BlobId, Storage.BlobSourceOption...)} compute the checksum of the
+     * content they read and check it against the blob's CRC32C checksum, or MD5 hash, once the
+     * last byte of the blob is read. Default is {@code false}.
+     *
+     * @param validateChecksums whether blob channels validate the content they transfer
+     * @return the builder.
+     */
+    public Builder validateChecksums(boolean validateChecksums) {
+      this.validateChecksums = validateChecksums;
+      return this;
+    }
+
+    /**
+     * Sets how many ranges of a blob {@link Storage#downloadTo(BlobId, java.nio.file.Path,
+     * Storage.BlobSourceOption...)} fetches concurrently. Default is 8.
+     *
+     * @param downloadParallelism the maximum number of concurrent range requests per download
+     * @return the builder.
+     */
+    public Builder downloadParallelism(int downloadParallelism) {
+      checkArgument(downloadParallelism > 0, "Download parallelism must be positive");
+      this.downloadParallelism = downloadParallelism;
+      return this;
+    }
+
+    /**
+     * Sets the size up to which {@link Storage#upload(BlobInfo, java.nio.file.Path,
+     * Storage.BlobTargetOption...)} uploads a file in a single request. Larger files are uploaded
+     * with a resumable upload. Default is 8MB.
+     *
+     * @param directUploadThreshold the maximum size in bytes of a file uploaded in one request
+     * @return the builder.
+     */
+    public Builder directUploadThreshold(long directUploadThreshold) {
+      checkArgument(directUploadThreshold >= 0, "Direct upload threshold must not be negative");
+      this.directUploadThreshold = directUploadThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the size from which {@link Storage#upload(BlobInfo, java.nio.file.Path,
+     * Storage.BlobTargetOption...)} uploads a file as a {@link CompositeUpload}, its parts being
+     * uploaded concurrently. Composite blobs have a CRC32C checksum but no MD5 hash. {@code 0}
+     * disables composite uploads. Default is {@code 0}.
+     *
+     * @param compositeUploadThreshold the minimum size in bytes of a file uploaded in parts, or
+     *     {@code 0}
+     * @return the builder.
+     */
+    public Builder compositeUploadThreshold(long compositeUploadThreshold) {
+      checkArgument(compositeUploadThreshold >= 0,
+          "Composite upload threshold must not be negative");
+      this.compositeUploadThreshold = compositeUploadThreshold;
+      return this;
+    }
+
+    /**
+     * Sets the initial rate of the requests sent to each bucket. When set, requests wait for the
+     * rate of their bucket, which adapts to the rate the service sustains: it grows while requests
+     * succeed and is halved when the service answers 429 (Too Many Requests) or 503 (Service
+     * Unavailable). All the services with equal options share the same rates. {@code 0} disables
+     * rate limiting. Default is {@code 0}.
+     *
+     * @param initialRequestRate the initial rate in requests per second, or {@code 0}
+     * @return the builder.
+     * @see Storage#requestRates()
+     */
+    public Builder initialRequestRate(double initialRequestRate) {
+      checkArgument(initialRequestRate >= 0, "Initial request rate must not be negative");
+      this.initialRequestRate = initialRequestRate;
+      return this;
+    }
+
     @Override
     public StorageOptions build() {
       return new StorageOptions(this);
@@ -67,6 +354,21 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
   private StorageOptions(Builder builder) {
     super(builder);
     pathDelimiter = MoreObjects.firstNonNull(builder.pathDelimiter, DEFAULT_PATH_DELIMITER);
+    bufferPoolSize = builder.bufferPoolSize;
+    batchingWindowMillis = builder.batchingWindowMillis;
+    batchParallelism = builder.batchParallelism;
+    metadataCacheSize = builder.metadataCacheSize;
+    metadataCacheTtlMillis = builder.metadataCacheTtlMillis;
+    contentCacheDirectory = builder.contentCacheDirectory;
+    contentCacheSize = builder.contentCacheSize;
+    listPrefetchDepth = builder.listPrefetchDepth;
+    listParallelism = builder.listParallelism;
+    gzipContent = builder.gzipContent;
+    validateChecksums = builder.validateChecksums;
+    downloadParallelism = builder.downloadParallelism;
+    directUploadThreshold = builder.directUploadThreshold;
+    compositeUploadThreshold = builder.compositeUploadThreshold;
+    initialRequestRate = builder.initialRequestRate;
   }
 
   @Override
@@ -74,10 +376,48 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
     return SCOPES;
   }
 
-  StorageRpc storageRpc() {
-    if (storageRpc != null) {
-      return storageRpc;
+  /**
+   * The RPC stack, buffer pool and request latencies of a set of options, shared by all the
+   * options equal to them.
+   */
+  private static final class SharedRpc {
+
+    private final StorageRpc storageRpc;
+    private final CachingStorageRpc metadataCache;
+    private final RateLimitingStorageRpc rateLimiter;
+    private final BufferPool bufferPool;
+    private final RpcLatencies latencies = new RpcLatencies();
+
+    SharedRpc(StorageRpc storageRpc, CachingStorageRpc metadataCache,
+        RateLimitingStorageRpc rateLimiter, BufferPool bufferPool) {
+      this.storageRpc = storageRpc;
+      this.metadataCache = metadataCache;
+      this.rateLimiter = rateLimiter;
+      this.bufferPool = bufferPool;
+    }
+  }
+
+  private SharedRpc shared() {
+    if (rpc == null) {
+      // deserialized options and channels find the RPC, connections and buffers of equal options
+      rpc = sharedRpc(toBuilder().build(), new Callable<SharedRpc>() {
+        @Override
+        public SharedRpc call() {
+          return createStorageRpc();
+        }
+      });
     }
+    return rpc;
+  }
+
+  StorageRpc storageRpc() {
+    return shared().storageRpc;
+  }
+
+  private SharedRpc createStorageRpc() {
+    StorageRpc storageRpc;
+    CachingStorageRpc metadataCache = null;
+    RateLimitingStorageRpc rateLimiter = null;
     if (serviceRpcFactory() != null) {
       storageRpc = serviceRpcFactory().create(this);
     } else {
@@ -86,7 +426,44 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
         storageRpc = new DefaultStorageRpc(this);
       }
     }
-    return storageRpc;
+    // each request of a batch is limited, as the service throttles them individually
+    if (initialRequestRate > 0) {
+      rateLimiter = new RateLimitingStorageRpc(storageRpc, initialRequestRate, clock());
+      storageRpc = rateLimiter;
+    }
+    if (batchingWindowMillis > 0) {
+      storageRpc = new BatchingStorageRpc(storageRpc, batchingWindowMillis);
+    }
+    // cache hits must not wait for a batch
+    if (metadataCacheSize > 0) {
+      metadataCache =
+          new CachingStorageRpc(storageRpc, metadataCacheSize, metadataCacheTtlMillis, clock());
+      storageRpc = metadataCache;
+    }
+    // the generation check that precedes each cached read is served by the metadata cache
+    if (contentCacheDirectory != null) {
+      storageRpc = new ContentCachingStorageRpc(storageRpc, Paths.get(contentCacheDirectory),
+          contentCacheSize, executorFactory().get());
+    }
+    return new SharedRpc(storageRpc, metadataCache, rateLimiter, new BufferPool(bufferPoolSize));
+  }
+
+  MetadataCacheStats metadataCacheStats() {
+    return rpc != null && rpc.metadataCache != null
+        ? rpc.metadataCache.stats() : MetadataCacheStats.EMPTY;
+  }
+
+  Map<String, Double> requestRates() {
+    return rpc != null && rpc.rateLimiter != null
+        ? rpc.rateLimiter.rates() : ImmutableMap.<String, Double>of();
+  }
+
+  BufferPool bufferPool() {
+    return shared().bufferPool;
+  }
+
+  RpcLatencies latencies() {
+    return shared().latencies;
   }
 
   /**
@@ -96,6 +473,115 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
     return pathDelimiter;
   }
 
+  /**
+   * Returns the maximum number of bytes of idle chunk buffers retained for reuse, by the channels
+   * of all the services with equal options.
+   */
+  public long bufferPoolSize() {
+    return bufferPoolSize;
+  }
+
+  /**
+   * Returns how long single-object requests are held to be batched, {@code 0} if they are not.
+   */
+  public long batchingWindowMillis() {
+    return batchingWindowMillis;
+  }
+
+  /**
+   * Returns how many batch requests are sent concurrently when a batch is split.
+   */
+  public int batchParallelism() {
+    return batchParallelism;
+  }
+
+  /**
+   * Returns the maximum number of blobs whose metadata is cached, {@code 0} if not cached.
+   */
+  public long metadataCacheSize() {
+    return metadataCacheSize;
+  }
+
+  /**
+   * Returns for how long cached blob metadata is used without a request.
+   */
+  public long metadataCacheTtlMillis() {
+    return metadataCacheTtlMillis;
+  }
+
+  /**
+   * Returns the directory where blob content is cached, {@code null} if content is not cached.
+   */
+  public String contentCacheDirectory() {
+    return contentCacheDirectory;
+  }
+
+  /**
+   * Returns the maximum number of bytes of blob content kept in the content cache directory.
+   */
+  public long contentCacheSize() {
+    return contentCacheSize;
+  }
+
+  /**
+   * Returns how many pages {@link ListResult#iterateAll()} fetches ahead of the page being
+   * iterated.
+   */
+  public int listPrefetchDepth() {
+    return listPrefetchDepth;
+  }
+
+  /**
+   * Returns how many list requests are sent concurrently by a parallel listing.
+   */
+  public int listParallelism() {
+    return listParallelism;
+  }
+
+  /**
+   * Returns whether blob content is gzip-compressed in transit.
+   */
+  public boolean gzipContent() {
+    return gzipContent;
+  }
+
+  /**
+   * Returns whether blob channels validate the content they transfer.
+   */
+  public boolean validateChecksums() {
+    return validateChecksums;
+  }
+
+  /**
+   * Returns how many ranges of a blob are fetched concurrently by a download to a file.
+   */
+  public int downloadParallelism() {
+    return downloadParallelism;
+  }
+
+  /**
+   * Returns the size up to which a file is uploaded in a single request.
+   */
+  public long directUploadThreshold() {
+    return directUploadThreshold;
+  }
+
+  /**
+   * Returns the size from which a file is uploaded in parts, or {@code 0} if composite uploads are
+   * disabled.
+   */
+  public long compositeUploadThreshold() {
+    return compositeUploadThreshold;
+  }
+
+  /**
+   * Returns the initial rate in requests per second of the requests sent to each bucket, or
+   * {@code 0} if requests are not rate limited.
+   */
+  public double initialRequestRate() {
+    return initialRequestRate;
+  }
+
   @Override
   public Builder toBuilder() {
     return new Builder(this);
@@ -103,7 +589,11 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
 
   @Override
   public int hashCode() {
-    return baseHashCode() ^ Objects.hash(pathDelimiter);
+    return baseHashCode() ^ Objects.hash(pathDelimiter, bufferPoolSize, batchingWindowMillis,
+        batchParallelism, metadataCacheSize, metadataCacheTtlMillis, contentCacheDirectory,
+        contentCacheSize, listPrefetchDepth, listParallelism, gzipContent,
+        validateChecksums, downloadParallelism, directUploadThreshold, compositeUploadThreshold,
+        initialRequestRate);
   }
 
   @Override
@@ -112,7 +602,22 @@ public class StorageOptions extends ServiceOptions<StorageRpc, StorageOptions> {
       return false;
     }
     StorageOptions other = (StorageOptions) obj;
-    return baseEquals(other) && Objects.equals(pathDelimiter, other.pathDelimiter);
+    return baseEquals(other) && Objects.equals(pathDelimiter, other.pathDelimiter)
+        && bufferPoolSize == other.bufferPoolSize
+        && batchingWindowMillis == other.batchingWindowMillis
+        && batchParallelism == other.batchParallelism
+        && metadataCacheSize == other.metadataCacheSize
+        && metadataCacheTtlMillis == other.metadataCacheTtlMillis
+        && Objects.equals(contentCacheDirectory, other.contentCacheDirectory)
+        && contentCacheSize == other.contentCacheSize
+        && listPrefetchDepth == other.listPrefetchDepth
+        && listParallelism == other.listParallelism
+        && gzipContent == other.gzipContent
+        && validateChecksums == other.validateChecksums
+        && downloadParallelism == other.downloadParallelism
+        && directUploadThreshold == other.directUploadThreshold
+        && compositeUploadThreshold == other.compositeUploadThreshold
+        && initialRequestRate == other.initialRequestRate;
   }
 
   public static StorageOptions defaultInstance() {
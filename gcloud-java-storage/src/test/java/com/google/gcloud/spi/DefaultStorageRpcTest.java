@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.spi;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.gcloud.AuthCredentials;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.storage.StorageOptions;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+public class DefaultStorageRpcTest {
+
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final StorageObject OBJECT = new StorageObject().setBucket("b").setName("n");
+
+  private static DefaultStorageRpc rpc(final MockLowLevelHttpResponse response) {
+    StorageOptions options = StorageOptions.builder()
+        .projectId("p")
+        .authCredentials(AuthCredentials.noCredentials())
+        .httpTransportFactory(new ServiceOptions.HttpTransportFactory() {
+          @Override
+          public HttpTransport create() {
+            return new MockHttpTransport.Builder().setLowLevelHttpResponse(response).build();
+          }
+        })
+        .build();
+    return new DefaultStorageRpc(options);
+  }
+
+  @Test
+  public void testReadEmptyContent() {
+    DefaultStorageRpc rpc = rpc(new MockLowLevelHttpResponse().setStatusCode(206));
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    assertEquals(0, rpc.read(OBJECT, EMPTY_RPC_OPTIONS, 0, buffer));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testRead() {
+    DefaultStorageRpc rpc =
+        rpc(new MockLowLevelHttpResponse().setStatusCode(206).setContent("abc"));
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    assertEquals(3, rpc.read(OBJECT, EMPTY_RPC_OPTIONS, 0, buffer));
+    assertEquals(3, buffer.position());
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.spi.StorageRpc;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class AsyncStorageImplTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("b", "n");
+  private static final BlobInfo BLOB_INFO = BlobInfo.builder(BLOB_ID).generation(42L).build();
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final RetryParams RETRY_PARAMS = RetryParams.builder()
+      .retryMaxAttempts(3).initialRetryDelayMillis(1).maxRetryDelayMillis(1).build();
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(2);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
+
+  private StorageOptions optionsMock;
+  private StorageRpc storageRpcMock;
+  private AsyncStorage storage;
+
+  @Before
+  public void setUp() {
+    optionsMock = EasyMock.createMock(StorageOptions.class);
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RETRY_PARAMS).anyTimes();
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).anyTimes();
+    EasyMock.replay(optionsMock);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(optionsMock, storageRpcMock);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    EXECUTOR.shutdownNow();
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(BLOB_INFO.toPb());
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    assertSame(optionsMock, storage.options());
+    assertEquals(BLOB_INFO, storage.get(BLOB_ID).get());
+  }
+
+  @Test
+  public void testGetNotFound() throws Exception {
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(404, "not found", false));
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    assertNull(storage.get(BLOB_ID).get());
+  }
+
+  @Test
+  public void testDeleteRetry() throws Exception {
+    EasyMock.expect(storageRpcMock.delete(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(503, "unavailable", true)).times(2);
+    EasyMock.expect(storageRpcMock.delete(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(true);
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    assertTrue(storage.delete(BLOB_ID).get());
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Exception {
+    StorageException exception = new StorageException(503, "unavailable", true);
+    EasyMock.expect(storageRpcMock.delete(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andThrow(exception).times(3);
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    ListenableFuture<Boolean> future = storage.delete(BLOB_ID);
+    try {
+      future.get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testNonRetryableFailure() throws Exception {
+    StorageException exception = new StorageException(400, "bad request", false);
+    EasyMock.expect(storageRpcMock.delete(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andThrow(exception);
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    try {
+      storage.delete(BLOB_ID).get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertSame(exception, e.getCause());
+    }
+  }
+
+  @Test
+  public void testUnexpectedFailure() throws Exception {
+    EasyMock.expect(storageRpcMock.delete(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andThrow(new IllegalStateException("unexpected"));
+    EasyMock.replay(storageRpcMock);
+    storage = new AsyncStorageImpl(optionsMock);
+    try {
+      storage.delete(BLOB_ID).get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      StorageException exception = (StorageException) e.getCause();
+      assertEquals(StorageException.UNKNOWN_CODE, exception.code());
+      assertFalse(exception.retryable());
+    }
+  }
+}
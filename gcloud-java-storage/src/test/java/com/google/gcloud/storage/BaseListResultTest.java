@@ -44,4 +44,19 @@ public class BaseListResultTest {
     assertEquals(values, ImmutableList.copyOf(result.iterator()));
 
   }
+
+  @Test
+  public void testIterateAll() throws Exception {
+    final BaseListResult<String> nextResult =
+        new BaseListResult<>(null, null, ImmutableList.of("3"));
+    BaseListResult.NextPageFetcher<String> fetcher = new BaseListResult.NextPageFetcher<String>() {
+
+      @Override
+      public BaseListResult<String> nextPage() {
+        return nextResult;
+      }
+    };
+    BaseListResult<String> result = new BaseListResult<>(fetcher, "c", ImmutableList.of("1", "2"));
+    assertEquals(ImmutableList.of("1", "2", "3"), ImmutableList.copyOf(result.iterateAll()));
+  }
 }
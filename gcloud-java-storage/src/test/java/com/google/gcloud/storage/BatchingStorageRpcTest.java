@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.gcloud.spi.StorageRpc;
+import com.google.gcloud.spi.StorageRpc.Tuple;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BatchingStorageRpcTest {
+
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final long LONG_WINDOW_MILLIS = 60_000L;
+  private static final ExecutorService CALLERS =
+      Executors.newFixedThreadPool(StorageImpl.MAX_BATCH_SIZE);
+
+  private StorageRpc storageRpcMock;
+
+  @Before
+  public void setUp() {
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(storageRpcMock);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    CALLERS.shutdownNow();
+  }
+
+  private static StorageObject object(int index) {
+    return BlobId.of("b", "n" + index).toPb();
+  }
+
+  private List<Future<StorageObject>> getAsync(final StorageRpc rpc, int count) {
+    List<Future<StorageObject>> results = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final StorageObject object = object(i);
+      results.add(CALLERS.submit(new Callable<StorageObject>() {
+        @Override
+        public StorageObject call() {
+          return rpc.get(object, EMPTY_RPC_OPTIONS);
+        }
+      }));
+    }
+    return results;
+  }
+
+  @Test
+  public void testSingleRequest() {
+    StorageObject object = object(0);
+    StorageObject response = object(0).setGeneration(42L);
+    EasyMock.expect(storageRpcMock.get(object, EMPTY_RPC_OPTIONS)).andReturn(response);
+    EasyMock.replay(storageRpcMock);
+    StorageRpc rpc = new BatchingStorageRpc(storageRpcMock, 1);
+    assertSame(response, rpc.get(object, EMPTY_RPC_OPTIONS));
+  }
+
+  @Test
+  public void testWindowExpires() throws Exception {
+    EasyMock.expect(storageRpcMock.batch(EasyMock.anyObject(StorageRpc.BatchRequest.class)))
+        .andAnswer(new IAnswer<StorageRpc.BatchResponse>() {
+          @Override
+          public StorageRpc.BatchResponse answer() {
+            StorageRpc.BatchRequest request =
+                (StorageRpc.BatchRequest) EasyMock.getCurrentArguments()[0];
+            assertEquals(2, request.toGet.size());
+            Map<StorageObject, Tuple<StorageObject, StorageException>> getResults =
+                new HashMap<>();
+            for (Tuple<StorageObject, Map<StorageRpc.Option, ?>> get : request.toGet) {
+              getResults.put(get.x(), Tuple.<StorageObject, StorageException>of(get.x(), null));
+            }
+            return new StorageRpc.BatchResponse(
+                new HashMap<StorageObject, Tuple<Boolean, StorageException>>(),
+                new HashMap<StorageObject, Tuple<StorageObject, StorageException>>(), getResults);
+          }
+        });
+    EasyMock.replay(storageRpcMock);
+    // no executor is needed to send the batch, callers may all be threads of the same pool
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      final BatchingStorageRpc rpc = new BatchingStorageRpc(storageRpcMock, 500);
+      List<Future<StorageObject>> results = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        final StorageObject object = object(i);
+        results.add(callers.submit(new Callable<StorageObject>() {
+          @Override
+          public StorageObject call() {
+            return rpc.get(object, EMPTY_RPC_OPTIONS);
+          }
+        }));
+      }
+      for (int i = 0; i < 2; i++) {
+        assertEquals(object(i), results.get(i).get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSameObjectClosesBatch() throws Exception {
+    final StorageObject object = object(0);
+    final CountDownLatch secondGet = new CountDownLatch(1);
+    EasyMock.expect(storageRpcMock.get(object, EMPTY_RPC_OPTIONS)).andReturn(object);
+    EasyMock.expect(storageRpcMock.get(object, EMPTY_RPC_OPTIONS))
+        .andAnswer(new IAnswer<StorageObject>() {
+          @Override
+          public StorageObject answer() {
+            secondGet.countDown();
+            return object;
+          }
+        });
+    EasyMock.replay(storageRpcMock);
+    BatchingStorageRpc rpc = new BatchingStorageRpc(storageRpcMock, LONG_WINDOW_MILLIS);
+    Future<StorageObject> first = getAsync(rpc, 1).get(0);
+    while (rpc.pendingCount() < 1) {
+      Thread.sleep(1);
+    }
+    Future<StorageObject> second = getAsync(rpc, 1).get(0);
+    // the first batch is sent as soon as the second call opens a new one
+    assertEquals(object, first.get(10, TimeUnit.SECONDS));
+    // an interrupted caller sends its batch right away
+    second.cancel(true);
+    assertTrue(secondGet.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFullBatch() throws Exception {
+    final int gets = StorageImpl.MAX_BATCH_SIZE - 1;
+    EasyMock.expect(storageRpcMock.batch(EasyMock.anyObject(StorageRpc.BatchRequest.class)))
+        .andAnswer(new IAnswer<StorageRpc.BatchResponse>() {
+          @Override
+          public StorageRpc.BatchResponse answer() {
+            StorageRpc.BatchRequest request =
+                (StorageRpc.BatchRequest) EasyMock.getCurrentArguments()[0];
+            assertEquals(1, request.toDelete.size());
+            assertEquals(0, request.toUpdate.size());
+            assertEquals(gets, request.toGet.size());
+            Map<StorageObject, Tuple<Boolean, StorageException>> deletes = new HashMap<>();
+            deletes.put(request.toDelete.get(0).x(), Tuple.<Boolean, StorageException>of(null,
+                new StorageException(404, "not found", false)));
+            Map<StorageObject, Tuple<StorageObject, StorageException>> getResults =
+                new HashMap<>();
+            for (Tuple<StorageObject, Map<StorageRpc.Option, ?>> get : request.toGet) {
+              getResults.put(get.x(), Tuple.<StorageObject, StorageException>of(
+                  get.x().clone().setGeneration(42L), null));
+            }
+            return new StorageRpc.BatchResponse(deletes,
+                new HashMap<StorageObject, Tuple<StorageObject, StorageException>>(), getResults);
+          }
+        });
+    EasyMock.replay(storageRpcMock);
+    BatchingStorageRpc rpc = new BatchingStorageRpc(storageRpcMock, LONG_WINDOW_MILLIS);
+    List<Future<StorageObject>> results = getAsync(rpc, gets);
+    while (rpc.pendingCount() < gets) {
+      Thread.sleep(1);
+    }
+    assertFalse(rpc.delete(object(gets), EMPTY_RPC_OPTIONS));
+    for (int i = 0; i < gets; i++) {
+      StorageObject result = results.get(i).get();
+      assertEquals(object(i).getName(), result.getName());
+      assertEquals(42L, (long) result.getGeneration());
+    }
+  }
+
+  @Test
+  public void testBatchFailure() throws Exception {
+    StorageException exception = new StorageException(503, "unavailable", true);
+    EasyMock.expect(storageRpcMock.batch(EasyMock.anyObject(StorageRpc.BatchRequest.class)))
+        .andThrow(exception);
+    EasyMock.replay(storageRpcMock);
+    BatchingStorageRpc rpc = new BatchingStorageRpc(storageRpcMock, LONG_WINDOW_MILLIS);
+    List<Future<StorageObject>> results = getAsync(rpc, StorageImpl.MAX_BATCH_SIZE - 1);
+    while (rpc.pendingCount() < StorageImpl.MAX_BATCH_SIZE - 1) {
+      Thread.sleep(1);
+    }
+    try {
+      rpc.patch(object(0), EMPTY_RPC_OPTIONS);
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertSame(exception, ex);
+    }
+    for (Future<StorageObject> result : results) {
+      try {
+        result.get();
+        fail("Expected ExecutionException");
+      } catch (ExecutionException ex) {
+        assertSame(exception, ex.getCause());
+      }
+    }
+  }
+}
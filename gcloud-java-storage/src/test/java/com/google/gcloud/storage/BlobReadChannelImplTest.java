@@ -18,23 +18,41 @@ package com.google.gcloud.storage;
 
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import com.google.api.services.storage.model.StorageObject;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
 import com.google.gcloud.RetryParams;
+import com.google.gcloud.ServiceOptions;
 import com.google.gcloud.spi.StorageRpc;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.IArgumentMatcher;
+import org.easymock.IExpectationSetters;
 import org.junit.Test;
 import org.junit.Before;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import org.junit.After;
 
 public class BlobReadChannelImplTest {
@@ -46,6 +64,14 @@ public class BlobReadChannelImplTest {
   private static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
   private static final int CUSTOM_CHUNK_SIZE = 2 * 1024 * 1024;
   private static final Random RANDOM = new Random();
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(4);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
 
   private StorageOptions optionsMock;
   private StorageRpc storageRpcMock;
@@ -55,6 +81,9 @@ public class BlobReadChannelImplTest {
   public void setUp() throws IOException, InterruptedException {
     optionsMock = EasyMock.createMock(StorageOptions.class);
     storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    EasyMock.expect(optionsMock.bufferPool())
+        .andReturn(new BufferPool(4 * DEFAULT_CHUNK_SIZE)).anyTimes();
+    EasyMock.expect(optionsMock.contentCacheDirectory()).andReturn(null).anyTimes();
   }
 
   @After
@@ -81,9 +110,7 @@ public class BlobReadChannelImplTest {
     byte[] result = randomByteArray(DEFAULT_CHUNK_SIZE);
     ByteBuffer firstReadBuffer = ByteBuffer.allocate(42);
     ByteBuffer secondReadBuffer = ByteBuffer.allocate(42);
-    EasyMock
-        .expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
-        .andReturn(result);
+    expectRead(EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE).andAnswer(fill(result));
     EasyMock.replay(storageRpcMock);
     reader.read(firstReadBuffer);
     reader.read(secondReadBuffer);
@@ -105,14 +132,9 @@ public class BlobReadChannelImplTest {
     byte[] secondResult = randomByteArray(DEFAULT_CHUNK_SIZE);
     ByteBuffer firstReadBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
     ByteBuffer secondReadBuffer = ByteBuffer.allocate(42);
-    EasyMock
-        .expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
-        .andReturn(firstResult);
-    EasyMock
-        .expect(
-            storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, DEFAULT_CHUNK_SIZE,
-                CUSTOM_CHUNK_SIZE))
-        .andReturn(secondResult);
+    expectRead(EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE).andAnswer(fill(firstResult));
+    expectRead(EMPTY_RPC_OPTIONS, DEFAULT_CHUNK_SIZE, CUSTOM_CHUNK_SIZE)
+        .andAnswer(fill(secondResult));
     EasyMock.replay(storageRpcMock);
     reader.read(firstReadBuffer);
     reader.read(secondReadBuffer);
@@ -129,9 +151,7 @@ public class BlobReadChannelImplTest {
     reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
     byte[] result = {};
     ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
-    EasyMock
-        .expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
-        .andReturn(result);
+    expectRead(EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE).andAnswer(fill(result));
     EasyMock.replay(storageRpcMock);
     assertEquals(-1, reader.read(readBuffer));
   }
@@ -145,14 +165,427 @@ public class BlobReadChannelImplTest {
     reader.seek(42);
     byte[] result = randomByteArray(DEFAULT_CHUNK_SIZE);
     ByteBuffer readBuffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
-    EasyMock
-        .expect(storageRpcMock.read(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS, 42, DEFAULT_CHUNK_SIZE))
-        .andReturn(result);
+    expectRead(EMPTY_RPC_OPTIONS, 42, DEFAULT_CHUNK_SIZE).andAnswer(fill(result));
     EasyMock.replay(storageRpcMock);
     reader.read(readBuffer);
     assertArrayEquals(result, readBuffer.array());
   }
 
+  @Test
+  public void testReadDirectRetry() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.getDefaultInstance());
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.chunkSize(10);
+    final byte[] content = randomByteArray(20);
+    // first attempt fails after writing part of the content
+    expectRead(EMPTY_RPC_OPTIONS, 0, 20).andAnswer(new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        ((ByteBuffer) EasyMock.getCurrentArguments()[3]).put(new byte[5]);
+        throw new StorageException(503, "Service unavailable", true);
+      }
+    });
+    expectRead(EMPTY_RPC_OPTIONS, 0, 20).andAnswer(fill(content));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(20);
+    assertEquals(20, reader.read(readBuffer));
+    assertEquals(20, readBuffer.position());
+    assertArrayEquals(content, readBuffer.array());
+  }
+
+  @Test
+  public void testReadParallel() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(4);
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY);
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.chunkSize(42);
+    reader.parallelism(3);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    expectRead(sliceOptions, 0, 42).andAnswer(fill(Arrays.copyOfRange(content, 0, 42)));
+    expectRead(sliceOptions, 42, 42).andAnswer(fill(Arrays.copyOfRange(content, 42, 84)));
+    expectRead(sliceOptions, 84, 16).andAnswer(fill(Arrays.copyOfRange(content, 84, 100)));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(content.length);
+    while (readBuffer.hasRemaining()) {
+      assertTrue(reader.read(readBuffer) > 0);
+    }
+    assertArrayEquals(content, readBuffer.array());
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  public void testReadParallelSlidingWindow() throws IOException, InterruptedException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(5);
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).times(3);
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.chunkSize(10);
+    reader.parallelism(2);
+    byte[] content = randomByteArray(40);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(40)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    expectRead(sliceOptions, 0, 10).andAnswer(fill(Arrays.copyOfRange(content, 0, 10)));
+    expectRead(sliceOptions, 10, 10).andAnswer(fill(Arrays.copyOfRange(content, 10, 20)));
+    final CountDownLatch thirdSliceRequested = new CountDownLatch(1);
+    final IAnswer<Integer> thirdSlice = fill(Arrays.copyOfRange(content, 20, 30));
+    expectRead(sliceOptions, 20, 10).andAnswer(new IAnswer<Integer>() {
+      @Override
+      public Integer answer() throws Throwable {
+        thirdSliceRequested.countDown();
+        return thirdSlice.answer();
+      }
+    });
+    expectRead(sliceOptions, 30, 10).andAnswer(fill(Arrays.copyOfRange(content, 30, 40)));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(content.length);
+    readBuffer.limit(5);
+    assertEquals(5, reader.read(readBuffer));
+    // the window is topped up when the first slice is taken, before the second one is consumed
+    assertTrue(thirdSliceRequested.await(10, TimeUnit.SECONDS));
+    readBuffer.limit(content.length);
+    while (readBuffer.hasRemaining()) {
+      assertTrue(reader.read(readBuffer) > 0);
+    }
+    assertArrayEquals(content, readBuffer.array());
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  public void testReadAhead() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(5);
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).times(3);
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.chunkSize(10);
+    reader.readAhead(2);
+    byte[] content = randomByteArray(35);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(35)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    for (int from = 0; from < content.length; from += 10) {
+      int to = Math.min(from + 10, content.length);
+      expectRead(sliceOptions, from, to - from)
+          .andAnswer(fill(Arrays.copyOfRange(content, from, to)));
+    }
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(content.length);
+    while (readBuffer.hasRemaining()) {
+      assertTrue(reader.read(readBuffer) > 0);
+    }
+    assertArrayEquals(content, readBuffer.array());
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  public void testSeekWithReadAhead() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.chunkSize(10);
+    reader.readAhead(1);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    expectRead(sliceOptions, 0, 10).andAnswer(fill(Arrays.copyOfRange(content, 0, 10)));
+    // prefetched slice may be cancelled before it is requested
+    expectRead(sliceOptions, 10, 10).andAnswer(fill(Arrays.copyOfRange(content, 10, 20)))
+        .times(0, 1);
+    expectRead(sliceOptions, 50, 10).andAnswer(fill(Arrays.copyOfRange(content, 50, 60)));
+    expectRead(sliceOptions, 60, 10).andAnswer(fill(Arrays.copyOfRange(content, 60, 70)))
+        .times(0, 1);
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(10);
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 10), readBuffer.array());
+    reader.seek(50);
+    readBuffer.clear();
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 50, 60), readBuffer.array());
+    reader.close();
+  }
+
+  @Test
+  public void testReadDecompressed() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, true, false);
+    byte[] content = randomByteArray(100);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(content);
+    }
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(compressed.size()))
+        .setGeneration(7L).setContentEncoding("gzip");
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    // the stream is opened again when seeking backwards
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions))
+        .andReturn(new ByteArrayInputStream(content))
+        .andReturn(new ByteArrayInputStream(content));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(10);
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 10), readBuffer.array());
+    reader.seek(50);
+    readBuffer.clear();
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 50, 60), readBuffer.array());
+    reader.seek(20);
+    readBuffer.clear();
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 20, 30), readBuffer.array());
+    reader.seek(100);
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+    reader.close();
+  }
+
+  private static String crc32c(byte[] content) {
+    return BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+  }
+
+  @Test
+  public void testReadValidatesChecksum() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, false, true);
+    reader.chunkSize(10);
+    byte[] content = randomByteArray(15);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(15)).setGeneration(7L)
+        .setCrc32c(crc32c(content));
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    expectRead(sliceOptions, 0, 10).andAnswer(fill(Arrays.copyOfRange(content, 0, 10)));
+    expectRead(sliceOptions, 0, 15).andAnswer(fill(content));
+    expectRead(sliceOptions, 15, 10).andReturn(0);
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(15);
+    assertEquals(8, reader.read((ByteBuffer) readBuffer.duplicate().limit(8)));
+    // bytes read again, here straight into the caller's buffer, are not added twice
+    reader.seek(0);
+    while (readBuffer.hasRemaining()) {
+      assertTrue(reader.read(readBuffer) > 0);
+    }
+    assertArrayEquals(content, readBuffer.array());
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+  }
+
+  @Test
+  public void testReadChecksumMismatch() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, false, true);
+    reader.chunkSize(10);
+    reader.parallelism(2);
+    byte[] content = randomByteArray(20);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(20)).setGeneration(7L)
+        .setCrc32c(crc32c(new byte[20]));
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    expectRead(sliceOptions, 0, 10).andAnswer(fill(Arrays.copyOfRange(content, 0, 10)));
+    expectRead(sliceOptions, 10, 10).andAnswer(fill(Arrays.copyOfRange(content, 10, 20)));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(20);
+    assertEquals(10, reader.read(readBuffer));
+    try {
+      reader.read(readBuffer);
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      // corrupted content is not read again
+      assertFalse(ex.retryable());
+    }
+  }
+
+  @Test
+  public void testReadStreaming() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, false, true);
+    reader.streaming(true);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L)
+        .setCrc32c(crc32c(content));
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    // a single request is made for the whole blob, and none to detect its end
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 0))
+        .andReturn(new ByteArrayInputStream(content));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(100);
+    while (readBuffer.hasRemaining()) {
+      assertTrue(reader.read((ByteBuffer) readBuffer.limit(
+          Math.min(readBuffer.capacity(), readBuffer.position() + 40))) > 0);
+      readBuffer.limit(readBuffer.capacity());
+    }
+    assertArrayEquals(content, readBuffer.array());
+    assertEquals(-1, reader.read(ByteBuffer.allocate(1)));
+    reader.close();
+  }
+
+  @Test
+  public void testReadStreamingChecksumMismatch() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.builder()
+        .initialRetryDelayMillis(1).maxRetryDelayMillis(1).build()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, false, true);
+    reader.streaming(true);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L)
+        .setCrc32c(crc32c(new byte[100]));
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    // the mismatch is reported once, the stream is not reopened
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 0))
+        .andReturn(new ByteArrayInputStream(content));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(60);
+    assertEquals(60, reader.read(readBuffer));
+    try {
+      reader.read(ByteBuffer.allocate(40));
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertTrue(ex.getMessage().contains("does not match"));
+      assertFalse(ex.retryable());
+    }
+  }
+
+  @Test
+  public void testReadStreamingReopens() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.getDefaultInstance())
+        .anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.streaming(true);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 0))
+        .andReturn(failingAfter(content, 30));
+    // the stream is reopened at the current position after a failure and after a seek
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 30))
+        .andReturn(new ByteArrayInputStream(content, 30, 70));
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 10))
+        .andReturn(new ByteArrayInputStream(content, 10, 90));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(40);
+    assertEquals(30, reader.read(readBuffer));
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 40), readBuffer.array());
+    // seeking to the current position keeps the stream
+    reader.seek(40);
+    readBuffer.clear();
+    assertEquals(40, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 40, 80), readBuffer.array());
+    reader.seek(10);
+    readBuffer.clear();
+    assertEquals(40, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 10, 50), readBuffer.array());
+    reader.close();
+  }
+
+  @Test
+  public void testReadStreamingGivesUp() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.builder()
+        .retryMinAttempts(2).retryMaxAttempts(2).initialRetryDelayMillis(1)
+        .maxRetryDelayMillis(1).build()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    reader.streaming(true);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 0))
+        .andReturn(failingAfter(content, 0)).times(2);
+    EasyMock.replay(storageRpcMock);
+    try {
+      reader.read(ByteBuffer.allocate(40));
+      fail("Expected IOException");
+    } catch (IOException ex) {
+      assertEquals("Connection reset", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void testReadStreamingToggled() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    reader = new BlobReadChannelImpl(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS);
+    byte[] content = randomByteArray(100);
+    StorageObject metadata = BLOB_ID.toPb().setSize(BigInteger.valueOf(100)).setGeneration(7L);
+    Map<StorageRpc.Option, ?> sliceOptions =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 7L);
+    expectRead(EMPTY_RPC_OPTIONS, 0, DEFAULT_CHUNK_SIZE).andAnswer(fill(content));
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    // the buffered content is dropped, reads continue from the first byte not read
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), sliceOptions, 10))
+        .andReturn(new ByteArrayInputStream(content, 10, 90));
+    expectRead(sliceOptions, 30, DEFAULT_CHUNK_SIZE)
+        .andAnswer(fill(Arrays.copyOfRange(content, 30, 100)));
+    EasyMock.replay(storageRpcMock);
+    ByteBuffer readBuffer = ByteBuffer.allocate(10);
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 10), readBuffer.array());
+    reader.streaming(true);
+    readBuffer = ByteBuffer.allocate(20);
+    assertEquals(20, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 10, 30), readBuffer.array());
+    reader.streaming(false);
+    readBuffer = ByteBuffer.allocate(10);
+    assertEquals(10, reader.read(readBuffer));
+    assertArrayEquals(Arrays.copyOfRange(content, 30, 40), readBuffer.array());
+    reader.close();
+  }
+
+  private static InputStream failingAfter(final byte[] content, final int length) {
+    return new InputStream() {
+
+      private int position;
+
+      @Override
+      public int read() throws IOException {
+        if (position >= length) {
+          throw new IOException("Connection reset");
+        }
+        return content[position++] & 0xFF;
+      }
+    };
+  }
+
   @Test
   public void testClose() throws IOException {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
@@ -180,6 +613,39 @@ public class BlobReadChannelImplTest {
     }
   }
 
+  private IExpectationSetters<Integer> expectRead(Map<StorageRpc.Option, ?> options,
+      long position, int length) {
+    return EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()), EasyMock.eq(options),
+        EasyMock.eq(position), remaining(length)));
+  }
+
+  private static ByteBuffer remaining(final int length) {
+    EasyMock.reportMatcher(new IArgumentMatcher() {
+      @Override
+      public boolean matches(Object argument) {
+        return argument instanceof ByteBuffer && ((ByteBuffer) argument).remaining() == length;
+      }
+
+      @Override
+      public void appendTo(StringBuffer buffer) {
+        buffer.append("remaining(").append(length).append(")");
+      }
+    });
+    return null;
+  }
+
+  private static IAnswer<Integer> fill(final byte[] content) {
+    return new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        ByteBuffer buffer = (ByteBuffer) EasyMock.getCurrentArguments()[3];
+        int length = Math.min(buffer.remaining(), content.length);
+        buffer.put(content, 0, length);
+        return length;
+      }
+    };
+  }
+
   private static byte[] randomByteArray(int size) {
     byte[] byteArray = new byte[size];
     RANDOM.nextBytes(byteArray);
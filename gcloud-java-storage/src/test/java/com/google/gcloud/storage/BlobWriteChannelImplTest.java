@@ -19,11 +19,28 @@ package com.google.gcloud.storage;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.io.ByteStreams;
+import com.google.gcloud.AuthCredentials;
 import com.google.gcloud.RetryParams;
+import com.google.gcloud.ServiceOptions;
 import com.google.gcloud.spi.StorageRpc;
 
 import org.easymock.Capture;
@@ -31,11 +48,20 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 import org.junit.Before;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
 import org.junit.After;
 
 public class BlobWriteChannelImplTest {
@@ -43,12 +69,21 @@ public class BlobWriteChannelImplTest {
   private static final String BUCKET_NAME = "b";
   private static final String BLOB_NAME = "n";
   private static final String UPLOAD_ID = "uploadid";
+  private static final String UPLOAD_URL = "http://localhost/upload/uploadid";
   private static final BlobInfo BLOB_INFO = BlobInfo.builder(BUCKET_NAME, BLOB_NAME).build();
   private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
   private static final int MIN_CHUNK_SIZE = 256 * 1024;
   private static final int DEFAULT_CHUNK_SIZE = 8 * MIN_CHUNK_SIZE;
   private static final int CUSTOM_CHUNK_SIZE = 4 * MIN_CHUNK_SIZE;
   private static final Random RANDOM = new Random();
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(2);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
 
   private StorageOptions optionsMock;
   private StorageRpc storageRpcMock;
@@ -58,6 +93,7 @@ public class BlobWriteChannelImplTest {
   public void setUp() throws IOException, InterruptedException {
     optionsMock = EasyMock.createMock(StorageOptions.class);
     storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    EasyMock.expect(optionsMock.bufferPool()).andReturn(new BufferPool(0)).anyTimes();
   }
 
   @After
@@ -96,7 +132,7 @@ public class BlobWriteChannelImplTest {
     storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
         EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(CUSTOM_CHUNK_SIZE),
         EasyMock.eq(false));
-    EasyMock.expectLastCall();
+    EasyMock.expectLastCall().andReturn(null);
     EasyMock.replay(storageRpcMock);
     writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
     writer.chunkSize(CUSTOM_CHUNK_SIZE);
@@ -115,7 +151,7 @@ public class BlobWriteChannelImplTest {
     storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
         EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(DEFAULT_CHUNK_SIZE),
         EasyMock.eq(false));
-    EasyMock.expectLastCall();
+    EasyMock.expectLastCall().andReturn(null);
     EasyMock.replay(storageRpcMock);
     writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
     ByteBuffer[] buffers = new ByteBuffer[DEFAULT_CHUNK_SIZE / MIN_CHUNK_SIZE];
@@ -140,13 +176,70 @@ public class BlobWriteChannelImplTest {
     Capture<byte[]> capturedBuffer = Capture.newInstance();
     storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
         EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(0), EasyMock.eq(true));
-    EasyMock.expectLastCall();
+    EasyMock.expectLastCall().andReturn(BLOB_INFO.toPb());
     EasyMock.replay(storageRpcMock);
     writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
     assertTrue(writer.isOpen());
+    assertNull(writer.created());
     writer.close();
     assertArrayEquals(new byte[0], capturedBuffer.getValue());
     assertTrue(!writer.isOpen());
+    assertEquals(BLOB_INFO, writer.created());
+  }
+
+  @Test
+  public void testCloseSendsChecksum() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    ByteBuffer buffer = randomBuffer(MIN_CHUNK_SIZE + 42);
+    StorageObject dest = BLOB_INFO.toPb().setCrc32c(BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(buffer.array()).asInt())));
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(MIN_CHUNK_SIZE),
+        EasyMock.eq(false));
+    EasyMock.expectLastCall().andReturn(null);
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(dest), EasyMock.eq((long) MIN_CHUNK_SIZE), EasyMock.eq(42),
+        EasyMock.eq(true));
+    EasyMock.expectLastCall().andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS, false, true);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    assertEquals(MIN_CHUNK_SIZE + 42, writer.write(buffer));
+    writer.close();
+  }
+
+  @Test
+  public void testWriteCompressed() throws IOException {
+    BlobInfo blobInfo = BLOB_INFO.toBuilder().contentEncoding("gzip").build();
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(blobInfo.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    Capture<byte[]> capturedBuffer = Capture.newInstance();
+    Capture<Integer> capturedLength = Capture.newInstance();
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
+        EasyMock.eq(blobInfo.toPb()), EasyMock.eq(0L), EasyMock.captureInt(capturedLength),
+        EasyMock.eq(true));
+    EasyMock.expectLastCall().andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, blobInfo, EMPTY_RPC_OPTIONS, true, false);
+    byte[] content = new byte[MIN_CHUNK_SIZE];
+    Arrays.fill(content, (byte) 'a');
+    assertEquals(content.length, writer.write(ByteBuffer.wrap(content)));
+    try {
+      new ObjectOutputStream(ByteStreams.nullOutputStream()).writeObject(writer);
+      fail("Expected NotSerializableException");
+    } catch (NotSerializableException ex) {
+      // expected
+    }
+    writer.close();
+    assertTrue(capturedLength.getValue() < content.length);
+    GZIPInputStream decompressed = new GZIPInputStream(
+        new ByteArrayInputStream(capturedBuffer.getValue(), 0, capturedLength.getValue()));
+    assertArrayEquals(content, ByteStreams.toByteArray(decompressed));
   }
 
   @Test
@@ -160,7 +253,7 @@ public class BlobWriteChannelImplTest {
     storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
         EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(MIN_CHUNK_SIZE),
         EasyMock.eq(true));
-    EasyMock.expectLastCall();
+    EasyMock.expectLastCall().andReturn(null);
     EasyMock.replay(storageRpcMock);
     writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
     assertTrue(writer.isOpen());
@@ -171,6 +264,192 @@ public class BlobWriteChannelImplTest {
     assertTrue(!writer.isOpen());
   }
 
+  @Test
+  public void testWriteBehind() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(4);
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).times(1, 3);
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    ByteBuffer[] buffers = new ByteBuffer[3];
+    List<Capture<byte[]>> capturedBuffers = new ArrayList<>();
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = randomBuffer(MIN_CHUNK_SIZE);
+      Capture<byte[]> capturedBuffer = Capture.newInstance();
+      capturedBuffers.add(capturedBuffer);
+      storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer),
+          EasyMock.eq(0), EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq((long) i * MIN_CHUNK_SIZE),
+          EasyMock.eq(MIN_CHUNK_SIZE), EasyMock.eq(false));
+      EasyMock.expectLastCall().andReturn(null);
+    }
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(3L * MIN_CHUNK_SIZE), EasyMock.eq(0),
+        EasyMock.eq(true));
+    EasyMock.expectLastCall().andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    writer.writeBehind(1);
+    for (ByteBuffer buffer : buffers) {
+      assertEquals(MIN_CHUNK_SIZE, writer.write(buffer));
+    }
+    writer.close();
+    for (int i = 0; i < buffers.length; i++) {
+      assertArrayEquals(buffers[i].array(),
+          Arrays.copyOf(capturedBuffers.get(i).getValue(), MIN_CHUNK_SIZE));
+    }
+    assertTrue(!writer.isOpen());
+  }
+
+  @Test
+  public void testWriteBehindFailure() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY);
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    StorageException exception = new StorageException(500, "error", false);
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(MIN_CHUNK_SIZE),
+        EasyMock.eq(false));
+    EasyMock.expectLastCall().andThrow(exception);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    writer.writeBehind(2);
+    assertEquals(MIN_CHUNK_SIZE, writer.write(randomBuffer(MIN_CHUNK_SIZE)));
+    try {
+      writer.close();
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertSame(exception, ex);
+    }
+  }
+
+  @Test
+  public void testWriteWithRecovery() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.getDefaultInstance());
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(MIN_CHUNK_SIZE),
+        EasyMock.eq(false));
+    EasyMock.expectLastCall().andThrow(new StorageException(503, "Service unavailable", true));
+    EasyMock.expect(storageRpcMock.getUploadOffset(UPLOAD_ID)).andReturn(1000L);
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(1000),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(1000L), EasyMock.eq(MIN_CHUNK_SIZE - 1000),
+        EasyMock.eq(false));
+    EasyMock.expectLastCall().andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    assertEquals(MIN_CHUNK_SIZE, writer.write(randomBuffer(MIN_CHUNK_SIZE)));
+    assertEquals(MIN_CHUNK_SIZE, writer.committedOffset());
+  }
+
+  @Test
+  public void testWriteWithRecoveryFromDroppedConnection() throws IOException {
+    EasyMock.replay(optionsMock, storageRpcMock);
+    final List<String> ranges = new ArrayList<>();
+    final HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            if (getUrl().contains("uploadType=resumable")) {
+              return new MockLowLevelHttpResponse().addHeader("Location", UPLOAD_URL);
+            }
+            String range = getFirstHeaderValue("Content-Range");
+            ranges.add(range);
+            if (ranges.size() == 1) {
+              throw new SocketException("Connection reset");
+            }
+            if (!range.endsWith("*")) {
+              return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE)
+                  .setContent("{\"bucket\":\"b\",\"name\":\"n\",\"generation\":\"42\"}");
+            }
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setStatusCode(308);
+            return "bytes */*".equals(range) ? response.addHeader("Range", "bytes=0-999")
+                : response;
+          }
+        };
+      }
+    };
+    StorageOptions options = StorageOptions.builder()
+        .projectId("p")
+        .authCredentials(AuthCredentials.noCredentials())
+        .retryParams(RetryParams.builder().initialRetryDelayMillis(1).maxRetryDelayMillis(1)
+            .build())
+        .httpTransportFactory(new ServiceOptions.HttpTransportFactory() {
+          @Override
+          public HttpTransport create() {
+            return transport;
+          }
+        })
+        .build();
+    writer = new BlobWriteChannelImpl(options, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.chunkSize(MIN_CHUNK_SIZE);
+    assertEquals(MIN_CHUNK_SIZE, writer.write(randomBuffer(MIN_CHUNK_SIZE)));
+    assertEquals(MIN_CHUNK_SIZE, writer.committedOffset());
+    // the chunk is sent again from the offset persisted by the service
+    assertEquals(ImmutableList.of("bytes 0-" + (MIN_CHUNK_SIZE - 1) + "/*", "bytes */*",
+        "bytes 1000-" + (MIN_CHUNK_SIZE - 1) + "/*"), ranges);
+    writer.close();
+    assertEquals(BlobInfo.builder("b", "n").generation(42L).build(), writer.created());
+  }
+
+  @Test
+  public void testCloseWithRecoveryOfCompletedUpload() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.getDefaultInstance());
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO.toPb(), EMPTY_RPC_OPTIONS)).andReturn(UPLOAD_ID);
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.<byte[]>anyObject(), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(0), EasyMock.eq(true));
+    EasyMock.expectLastCall().andThrow(new StorageException(503, "Service unavailable", true));
+    EasyMock.expect(storageRpcMock.getUploadOffset(UPLOAD_ID)).andReturn(-1L);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
+    writer.close();
+    assertTrue(!writer.isOpen());
+    assertNull(writer.created());
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(2);
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.getUploadOffset(UPLOAD_ID)).andReturn(42L);
+    Capture<byte[]> capturedBuffer = Capture.newInstance();
+    storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
+        EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(42L), EasyMock.eq(MIN_CHUNK_SIZE),
+        EasyMock.eq(true));
+    EasyMock.expectLastCall().andReturn(null);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, UPLOAD_ID);
+    assertEquals(UPLOAD_ID, writer.uploadId());
+    assertEquals(42L, writer.committedOffset());
+    ByteBuffer buffer = randomBuffer(MIN_CHUNK_SIZE);
+    writer.write(buffer);
+    writer.close();
+    assertArrayEquals(buffer.array(), Arrays.copyOf(capturedBuffer.getValue(), MIN_CHUNK_SIZE));
+    assertEquals(42L + MIN_CHUNK_SIZE, writer.committedOffset());
+  }
+
+  @Test
+  public void testResumeCompletedUpload() {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    EasyMock.replay(optionsMock);
+    EasyMock.expect(storageRpcMock.getUploadOffset(UPLOAD_ID)).andReturn(-1L);
+    EasyMock.replay(storageRpcMock);
+    writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, UPLOAD_ID);
+    assertTrue(!writer.isOpen());
+  }
+
   @Test
   public void testWriteClosed() throws IOException {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
@@ -180,7 +459,7 @@ public class BlobWriteChannelImplTest {
     Capture<byte[]> capturedBuffer = Capture.newInstance();
     storageRpcMock.write(EasyMock.eq(UPLOAD_ID), EasyMock.capture(capturedBuffer), EasyMock.eq(0),
         EasyMock.eq(BLOB_INFO.toPb()), EasyMock.eq(0L), EasyMock.eq(0), EasyMock.eq(true));
-    EasyMock.expectLastCall();
+    EasyMock.expectLastCall().andReturn(null);
     EasyMock.replay(storageRpcMock);
     writer = new BlobWriteChannelImpl(optionsMock, BLOB_INFO, EMPTY_RPC_OPTIONS);
     writer.close();
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+  @Test
+  public void testSizeClass() {
+    assertEquals(1, BufferPool.sizeClass(0));
+    assertEquals(16, BufferPool.sizeClass(10));
+    assertEquals(1024, BufferPool.sizeClass(1024));
+    assertEquals(MIN_CHUNK_SIZE, BufferPool.sizeClass(MIN_CHUNK_SIZE - 1));
+    assertEquals(2 * MIN_CHUNK_SIZE, BufferPool.sizeClass(MIN_CHUNK_SIZE + 1));
+    assertEquals(3 * MIN_CHUNK_SIZE, BufferPool.sizeClass(3 * MIN_CHUNK_SIZE));
+  }
+
+  @Test
+  public void testAcquireRelease() {
+    BufferPool pool = new BufferPool(2 * MIN_CHUNK_SIZE);
+    byte[] buffer = pool.acquire(MIN_CHUNK_SIZE);
+    assertEquals(MIN_CHUNK_SIZE, buffer.length);
+    pool.release(buffer);
+    assertEquals(MIN_CHUNK_SIZE, pool.pooledBytes());
+    assertSame(buffer, pool.acquire(MIN_CHUNK_SIZE - 42));
+    assertEquals(0, pool.pooledBytes());
+    assertNotSame(buffer, pool.acquire(MIN_CHUNK_SIZE));
+  }
+
+  @Test
+  public void testReleaseOverCapacity() {
+    BufferPool pool = new BufferPool(MIN_CHUNK_SIZE);
+    pool.release(new byte[MIN_CHUNK_SIZE]);
+    pool.release(new byte[MIN_CHUNK_SIZE]);
+    assertEquals(MIN_CHUNK_SIZE, pool.pooledBytes());
+  }
+
+  @Test
+  public void testReleaseNotSizeClass() {
+    BufferPool pool = new BufferPool(MIN_CHUNK_SIZE);
+    pool.release(new byte[42]);
+    pool.release(new byte[0]);
+    assertEquals(0, pool.pooledBytes());
+  }
+}
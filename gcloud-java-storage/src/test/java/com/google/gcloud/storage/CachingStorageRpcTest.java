@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.spi.StorageRpc;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+public class CachingStorageRpcTest {
+
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final long TTL_MILLIS = 1000L;
+  private static final StorageObject OBJECT = BlobId.of("b", "n").toPb();
+  private static final StorageObject METADATA = BlobId.of("b", "n").toPb()
+      .setGeneration(1L).setMetageneration(1L).setSize(BigInteger.valueOf(42));
+
+  private StorageRpc storageRpcMock;
+  private FakeClock clock;
+  private CachingStorageRpc rpc;
+
+  private static final class FakeClock extends ServiceOptions.Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    clock = new FakeClock();
+    rpc = new CachingStorageRpc(storageRpcMock, 2, TTL_MILLIS, clock);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(storageRpcMock);
+  }
+
+  @Test
+  public void testHit() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    EasyMock.replay(storageRpcMock);
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    clock.millis = TTL_MILLIS - 1;
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(new MetadataCacheStats(1, 1, 0, 0), rpc.stats());
+  }
+
+  @Test
+  public void testRevalidate() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    Map<StorageRpc.Option, ?> notModified = ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH,
+        1L, StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, 1L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, notModified))
+        .andThrow(new StorageException(304, "Not Modified", false));
+    StorageObject updated = METADATA.clone().setMetageneration(2L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, notModified)).andReturn(updated);
+    EasyMock.replay(storageRpcMock);
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    clock.millis = TTL_MILLIS;
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    clock.millis = 2 * TTL_MILLIS;
+    assertEquals(updated, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(updated, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(new MetadataCacheStats(2, 2, 1, 0), rpc.stats());
+  }
+
+  @Test
+  public void testRevalidateOverwritten() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    Map<StorageRpc.Option, ?> notModified = ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH,
+        1L, StorageRpc.Option.IF_METAGENERATION_NOT_MATCH, 1L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, notModified))
+        .andThrow(new StorageException(412, "Precondition Failed", false));
+    // the new generation starts again at metageneration 1
+    StorageObject overwritten = METADATA.clone().setGeneration(2L).setSize(BigInteger.TEN);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(overwritten);
+    EasyMock.replay(storageRpcMock);
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    clock.millis = TTL_MILLIS;
+    assertEquals(overwritten, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(overwritten, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(new MetadataCacheStats(1, 2, 0, 0), rpc.stats());
+  }
+
+  @Test
+  public void testGetWithOptionsNotCached() {
+    Map<StorageRpc.Option, ?> options =
+        ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 1L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, options)).andReturn(METADATA.clone()).times(2);
+    EasyMock.replay(storageRpcMock);
+    rpc.get(OBJECT, options);
+    rpc.get(OBJECT, options);
+    assertEquals(MetadataCacheStats.EMPTY, rpc.stats());
+  }
+
+  @Test
+  public void testPatchUpdatesCache() {
+    StorageObject patched = METADATA.clone().setMetageneration(2L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    EasyMock.expect(storageRpcMock.patch(patched, EMPTY_RPC_OPTIONS)).andReturn(patched);
+    EasyMock.replay(storageRpcMock);
+    rpc.get(OBJECT, EMPTY_RPC_OPTIONS);
+    rpc.patch(patched, EMPTY_RPC_OPTIONS);
+    assertEquals(patched, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+  }
+
+  @Test
+  public void testPartialPatchNotCached() {
+    Map<StorageRpc.Option, ?> noAcl = ImmutableMap.of(StorageRpc.Option.PROJECTION, "noAcl");
+    StorageObject patched = METADATA.clone().setMetageneration(2L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    EasyMock.expect(storageRpcMock.patch(patched, noAcl)).andReturn(patched.clone().setSize(null));
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(patched);
+    EasyMock.replay(storageRpcMock);
+    rpc.get(OBJECT, EMPTY_RPC_OPTIONS);
+    rpc.patch(patched, noAcl);
+    // the response may lack part of the metadata, the full metadata is fetched again
+    assertEquals(patched, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(new MetadataCacheStats(0, 2, 0, 0), rpc.stats());
+  }
+
+  @Test
+  public void testDeleteInvalidates() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    EasyMock.expect(storageRpcMock.delete(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(true);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(404, "Not Found", false));
+    EasyMock.replay(storageRpcMock);
+    rpc.get(OBJECT, EMPTY_RPC_OPTIONS);
+    assertTrue(rpc.delete(OBJECT, EMPTY_RPC_OPTIONS));
+    try {
+      rpc.get(OBJECT, EMPTY_RPC_OPTIONS);
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertEquals(404, ex.code());
+    }
+    assertEquals(new MetadataCacheStats(0, 1, 0, 0), rpc.stats());
+  }
+
+  @Test
+  public void testRewriteInvalidates() {
+    StorageObject source = BlobId.of("b", "source").toPb();
+    StorageObject rewritten = METADATA.clone().setGeneration(2L);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA.clone());
+    EasyMock.expect(storageRpcMock.rewrite(source, EMPTY_RPC_OPTIONS, OBJECT, EMPTY_RPC_OPTIONS,
+        null, null)).andReturn(new StorageRpc.RewriteResponse(null, 42L, 21L, "token", false));
+    EasyMock.expect(storageRpcMock.rewrite(source, EMPTY_RPC_OPTIONS, OBJECT, EMPTY_RPC_OPTIONS,
+        "token", null)).andReturn(new StorageRpc.RewriteResponse(rewritten, 42L, 42L, null, true));
+    EasyMock.replay(storageRpcMock);
+    rpc.get(OBJECT, EMPTY_RPC_OPTIONS);
+    rpc.rewrite(source, EMPTY_RPC_OPTIONS, OBJECT, EMPTY_RPC_OPTIONS, null, null);
+    assertEquals(METADATA, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    rpc.rewrite(source, EMPTY_RPC_OPTIONS, OBJECT, EMPTY_RPC_OPTIONS, "token", null);
+    assertEquals(rewritten, rpc.get(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(new MetadataCacheStats(2, 1, 0, 0), rpc.stats());
+  }
+
+  @Test
+  public void testEviction() {
+    for (int i = 0; i < 3; i++) {
+      StorageObject object = BlobId.of("b", "n" + i).toPb();
+      EasyMock.expect(storageRpcMock.get(object, EMPTY_RPC_OPTIONS)).andReturn(object.clone());
+    }
+    EasyMock.replay(storageRpcMock);
+    for (int i = 0; i < 3; i++) {
+      rpc.get(BlobId.of("b", "n" + i).toPb(), EMPTY_RPC_OPTIONS);
+    }
+    assertEquals(1, rpc.stats().evictionCount());
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.storage.Storage.ComposeRequest;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class CompositeUploadTest {
+
+  private static final String BUCKET_NAME = "b";
+  private static final String BLOB_NAME = "n";
+  private static final BlobInfo BLOB_INFO = BlobInfo.builder(BUCKET_NAME, BLOB_NAME).build();
+  private static final Random RANDOM = new Random();
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(4);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+  private final AtomicLong generations = new AtomicLong();
+  private final List<String> composedEncodings =
+      Collections.synchronizedList(new ArrayList<String>());
+  private boolean gzipContent;
+  private StorageOptions optionsMock;
+  private Storage storageMock;
+
+  @Before
+  public void setUp() {
+    optionsMock = EasyMock.createMock(StorageOptions.class);
+    storageMock = EasyMock.createMock(Storage.class);
+    EasyMock.expect(storageMock.options()).andReturn(optionsMock).anyTimes();
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY).anyTimes();
+    EasyMock.expect(optionsMock.gzipContent()).andAnswer(new IAnswer<Boolean>() {
+      @Override
+      public Boolean answer() {
+        return gzipContent;
+      }
+    }).anyTimes();
+    EasyMock.expect(storageMock.compose(EasyMock.anyObject(ComposeRequest.class)))
+        .andAnswer(new IAnswer<BlobInfo>() {
+          @Override
+          public BlobInfo answer() throws IOException {
+            ComposeRequest request = (ComposeRequest) EasyMock.getCurrentArguments()[0];
+            composedEncodings.add(request.target().contentEncoding());
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (ComposeRequest.SourceBlob source : request.sourceBlobs()) {
+              content.write(blobs.get(source.name()));
+            }
+            return store(request.target(), content.toByteArray());
+          }
+        }).anyTimes();
+    EasyMock.expect(storageMock.delete(EasyMock.anyObject(BlobId.class)))
+        .andAnswer(new IAnswer<Boolean>() {
+          @Override
+          public Boolean answer() {
+            BlobId blob = (BlobId) EasyMock.getCurrentArguments()[0];
+            return blobs.remove(blob.name()) != null;
+          }
+        }).anyTimes();
+    EasyMock.replay(optionsMock);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    verify(optionsMock);
+    verify(storageMock);
+  }
+
+  private BlobInfo store(BlobInfo blob, byte[] content) {
+    blobs.put(blob.name(), content);
+    return blob.toBuilder().generation(generations.incrementAndGet()).build();
+  }
+
+  private void expectCreate() {
+    EasyMock.expect(storageMock.create(EasyMock.anyObject(BlobInfo.class),
+        EasyMock.anyObject(byte[].class))).andAnswer(new IAnswer<BlobInfo>() {
+          @Override
+          public BlobInfo answer() throws IOException {
+            Object[] arguments = EasyMock.getCurrentArguments();
+            BlobInfo blob = (BlobInfo) arguments[0];
+            byte[] content = (byte[]) arguments[1];
+            if (gzipContent && blob.contentEncoding() == null) {
+              // as done by StorageImpl.create
+              ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+              try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(content);
+              }
+              blob = blob.toBuilder().contentEncoding("gzip").build();
+              content = compressed.toByteArray();
+            }
+            return store(blob, content);
+          }
+        }).anyTimes();
+  }
+
+  @Test
+  public void testUploadSinglePart() throws IOException {
+    byte[] content = randomByteArray(10);
+    EasyMock.expect(storageMock.create(EasyMock.eq(BLOB_INFO), EasyMock.aryEq(content)))
+        .andReturn(BLOB_INFO);
+    EasyMock.replay(storageMock);
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO).partSize(16).build();
+    assertEquals(BLOB_INFO, upload.upload(new ByteArrayInputStream(content)));
+  }
+
+  @Test
+  public void testUploadParts() throws IOException {
+    expectCreate();
+    EasyMock.replay(storageMock);
+    final Set<Integer> uploadedParts = new ConcurrentSkipListSet<>();
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO)
+        .partSize(16)
+        .parallelism(2)
+        .listener(new CompositeUpload.ProgressListener() {
+          @Override
+          public void partUploaded(int part, long size) {
+            assertEquals(part < 2 ? 16 : 8, size);
+            uploadedParts.add(part);
+          }
+        })
+        .build();
+    byte[] content = randomByteArray(40);
+    BlobInfo blob = upload.upload(new ByteArrayInputStream(content));
+    assertEquals(BLOB_NAME, blob.name());
+    assertEquals(3, uploadedParts.size());
+    assertEquals(1, blobs.size());
+    assertArrayEquals(content, blobs.get(BLOB_NAME));
+  }
+
+  @Test
+  public void testUploadFileParts() throws IOException {
+    EasyMock.expect(storageMock.create(EasyMock.anyObject(BlobInfo.class),
+        EasyMock.anyObject(InputStream.class))).andAnswer(new IAnswer<BlobInfo>() {
+          @Override
+          public BlobInfo answer() throws IOException {
+            Object[] arguments = EasyMock.getCurrentArguments();
+            return store((BlobInfo) arguments[0],
+                ByteStreams.toByteArray((InputStream) arguments[1]));
+          }
+        }).times(3);
+    EasyMock.replay(storageMock);
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO)
+        .partSize(16)
+        .parallelism(2)
+        .build();
+    byte[] content = randomByteArray(40);
+    Path file = folder.newFile().toPath();
+    Files.write(file, content);
+    BlobInfo blob = upload.upload(file);
+    assertEquals(BLOB_NAME, blob.name());
+    assertEquals(1, blobs.size());
+    assertArrayEquals(content, blobs.get(BLOB_NAME));
+  }
+
+  @Test
+  public void testUploadComposeTree() throws IOException {
+    expectCreate();
+    EasyMock.replay(storageMock);
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO)
+        .partSize(1)
+        .parallelism(4)
+        .build();
+    byte[] content = randomByteArray(2 * CompositeUpload.MAX_COMPOSE_SOURCES + 6);
+    upload.upload(new ByteArrayInputStream(content));
+    assertEquals(1, blobs.size());
+    assertArrayEquals(content, blobs.get(BLOB_NAME));
+  }
+
+  @Test
+  public void testUploadGzipComposeTree() throws IOException {
+    gzipContent = true;
+    expectCreate();
+    EasyMock.replay(storageMock);
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO)
+        .partSize(1)
+        .parallelism(4)
+        .build();
+    byte[] content = randomByteArray(2 * CompositeUpload.MAX_COMPOSE_SOURCES + 6);
+    BlobInfo blob = upload.upload(new ByteArrayInputStream(content));
+    assertEquals("gzip", blob.contentEncoding());
+    assertEquals(4, composedEncodings.size());
+    for (String encoding : composedEncodings) {
+      assertEquals("gzip", encoding);
+    }
+    assertEquals(1, blobs.size());
+    try (InputStream decompressed =
+        new GZIPInputStream(new ByteArrayInputStream(blobs.get(BLOB_NAME)))) {
+      assertArrayEquals(content, ByteStreams.toByteArray(decompressed));
+    }
+  }
+
+  @Test
+  public void testUploadFailure() throws IOException {
+    EasyMock.expect(storageMock.create(EasyMock.anyObject(BlobInfo.class),
+        EasyMock.aryEq(new byte[] {42}))).andThrow(new StorageException(500, "error", false));
+    expectCreate();
+    EasyMock.replay(storageMock);
+    CompositeUpload upload = CompositeUpload.builder(storageMock, BLOB_INFO)
+        .partSize(1)
+        .parallelism(2)
+        .build();
+    try {
+      upload.upload(new ByteArrayInputStream(new byte[] {1, 2, 42, 3, 4}));
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertEquals(500, ex.code());
+    }
+    assertTrue(blobs.isEmpty());
+  }
+
+  private static byte[] randomByteArray(int size) {
+    byte[] byteArray = new byte[size];
+    RANDOM.nextBytes(byteArray);
+    return byteArray;
+  }
+}
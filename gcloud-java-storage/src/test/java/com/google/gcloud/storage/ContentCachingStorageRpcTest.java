@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gcloud.spi.StorageRpc;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class ContentCachingStorageRpcTest {
+
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final Map<StorageRpc.Option, ?> GENERATION_OPTIONS =
+      ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 1L);
+  private static final byte[] CONTENT = {0xD, 0xE, 0xA, 0xD, 0xB, 0xE, 0xE, 0xF};
+  private static final StorageObject OBJECT = BlobId.of("b", "n").toPb();
+  private static final StorageObject METADATA = BlobId.of("b", "n").toPb()
+      .setGeneration(1L).setSize(BigInteger.valueOf(CONTENT.length))
+      .setMd5Hash(BaseEncoding.base64().encode(Hashing.md5().hashBytes(CONTENT).asBytes()));
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StorageRpc storageRpcMock;
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    directory = folder.newFolder();
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(storageRpcMock);
+  }
+
+  private static IAnswer<Integer> readAnswer(final byte[] content) {
+    return new IAnswer<Integer>() {
+      @Override
+      public Integer answer() {
+        long position = (Long) EasyMock.getCurrentArguments()[2];
+        ByteBuffer buffer = (ByteBuffer) EasyMock.getCurrentArguments()[3];
+        int length = (int) Math.min(buffer.remaining(), content.length - position);
+        buffer.put(content, (int) position, length);
+        return length;
+      }
+    };
+  }
+
+  private void expectDownload(StorageObject metadata, byte[] content) {
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(metadata), EasyMock.eq(GENERATION_OPTIONS),
+        EasyMock.eq(0L), EasyMock.anyObject(ByteBuffer.class))).andAnswer(readAnswer(content));
+  }
+
+  private ContentCachingStorageRpc newRpc(long maxBytes) {
+    return newRpc(maxBytes, MoreExecutors.directExecutor());
+  }
+
+  private ContentCachingStorageRpc newRpc(long maxBytes, Executor executor) {
+    return new ContentCachingStorageRpc(storageRpcMock, directory.toPath(), maxBytes, executor);
+  }
+
+  @Test
+  public void testReadServedFromCache() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA).times(2);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(OBJECT), EasyMock.eq(EMPTY_RPC_OPTIONS),
+        EasyMock.eq(0L), EasyMock.anyObject(ByteBuffer.class))).andAnswer(readAnswer(CONTENT));
+    EasyMock.replay(storageRpcMock);
+    ContentCachingStorageRpc rpc = newRpc(1024);
+    ByteBuffer buffer = ByteBuffer.allocate(5);
+    assertEquals(5, rpc.read(OBJECT, EMPTY_RPC_OPTIONS, 0, buffer));
+    assertArrayEquals(Arrays.copyOf(CONTENT, 5), buffer.array());
+    buffer.clear();
+    assertEquals(3, rpc.read(OBJECT, EMPTY_RPC_OPTIONS, 5, buffer));
+    assertArrayEquals(Arrays.copyOfRange(CONTENT, 5, 8), Arrays.copyOf(buffer.array(), 3));
+    // the generation is known, no metadata request is needed
+    buffer.clear();
+    assertEquals(0, rpc.read(OBJECT, GENERATION_OPTIONS, 8, buffer));
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, GENERATION_OPTIONS));
+  }
+
+  @Test
+  public void testMissServedWhileFilling() {
+    final List<Runnable> fills = new ArrayList<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        fills.add(command);
+      }
+    };
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA).times(3);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT).times(2);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.replay(storageRpcMock);
+    ContentCachingStorageRpc rpc = newRpc(1024, executor);
+    // reads don't wait for the content to be cached, which is downloaded once
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(1, fills.size());
+    fills.get(0).run();
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+  }
+
+  @Test
+  public void testNewGenerationNotServedFromCache() {
+    byte[] newContent = {0xC, 0xA, 0xF, 0xE};
+    StorageObject newMetadata = METADATA.clone().setGeneration(2L)
+        .setSize(BigInteger.valueOf(newContent.length)).setMd5Hash(null)
+        .setCrc32c(BaseEncoding.base64().encode(
+            Ints.toByteArray(Hashing.crc32c().hashBytes(newContent).asInt())));
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA);
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(newMetadata);
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(newMetadata),
+        EasyMock.eq(ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, 2L)), EasyMock.eq(0L),
+        EasyMock.anyObject(ByteBuffer.class))).andAnswer(readAnswer(newContent));
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(newContent);
+    EasyMock.replay(storageRpcMock);
+    ContentCachingStorageRpc rpc = newRpc(1024);
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertArrayEquals(newContent, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+  }
+
+  @Test
+  public void testHashMismatchNotCached() {
+    byte[] corrupted = CONTENT.clone();
+    corrupted[0] = 0;
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA).times(2);
+    expectDownload(METADATA, corrupted);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    EasyMock.replay(storageRpcMock);
+    ContentCachingStorageRpc rpc = newRpc(1024);
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(0, directory.list().length);
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, GENERATION_OPTIONS));
+  }
+
+  @Test
+  public void testLargeBlobNotCached() {
+    byte[] content = new byte[4];
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(content);
+    EasyMock.replay(storageRpcMock);
+    assertArrayEquals(content, newRpc(CONTENT.length - 1).load(OBJECT, EMPTY_RPC_OPTIONS));
+    assertEquals(0, directory.list().length);
+  }
+
+  @Test
+  public void testEviction() {
+    StorageObject otherObject = BlobId.of("b", "other").toPb();
+    StorageObject otherMetadata = METADATA.clone().setName("other");
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    EasyMock.expect(storageRpcMock.get(otherObject, EMPTY_RPC_OPTIONS)).andReturn(otherMetadata);
+    expectDownload(otherMetadata, CONTENT);
+    EasyMock.expect(storageRpcMock.load(otherObject, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    EasyMock.expect(storageRpcMock.get(OBJECT, GENERATION_OPTIONS)).andReturn(METADATA);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.load(OBJECT, GENERATION_OPTIONS)).andReturn(CONTENT);
+    EasyMock.replay(storageRpcMock);
+    ContentCachingStorageRpc rpc = newRpc(CONTENT.length + 1);
+    rpc.load(OBJECT, EMPTY_RPC_OPTIONS);
+    rpc.load(otherObject, EMPTY_RPC_OPTIONS);
+    assertEquals(1, directory.list().length);
+    assertArrayEquals(CONTENT, rpc.load(OBJECT, GENERATION_OPTIONS));
+  }
+
+  @Test
+  public void testEntriesReused() {
+    EasyMock.expect(storageRpcMock.get(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(METADATA);
+    expectDownload(METADATA, CONTENT);
+    EasyMock.expect(storageRpcMock.load(OBJECT, EMPTY_RPC_OPTIONS)).andReturn(CONTENT);
+    EasyMock.replay(storageRpcMock);
+    newRpc(1024).load(OBJECT, EMPTY_RPC_OPTIONS);
+    assertArrayEquals(CONTENT, newRpc(1024).load(OBJECT, GENERATION_OPTIONS));
+  }
+}
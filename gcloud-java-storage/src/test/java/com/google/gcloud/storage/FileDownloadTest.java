@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.spi.StorageRpc;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileDownloadTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("b", "n");
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final long GENERATION = 42L;
+  private static final Map<StorageRpc.Option, ?> PINNED_RPC_OPTIONS =
+      ImmutableMap.of(StorageRpc.Option.IF_GENERATION_MATCH, GENERATION);
+  private static final int CHUNK_SIZE = 1000;
+  private static final byte[] CONTENT = new byte[4500];
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(4);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
+
+  static {
+    new Random(42).nextBytes(CONTENT);
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StorageOptions optionsMock;
+  private StorageRpc storageRpcMock;
+  private Path path;
+  private Path progressPath;
+
+  @Before
+  public void setUp() throws IOException {
+    optionsMock = EasyMock.createMock(StorageOptions.class);
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    EasyMock.expect(optionsMock.storageRpc()).andStubReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andStubReturn(RetryParams.noRetries());
+    EasyMock.expect(optionsMock.bufferPool()).andStubReturn(new BufferPool(4 * CHUNK_SIZE));
+    EasyMock.expect(optionsMock.executorFactory()).andStubReturn(EXECUTOR_FACTORY);
+    EasyMock.expect(optionsMock.downloadParallelism()).andStubReturn(3);
+    EasyMock.replay(optionsMock);
+    path = folder.getRoot().toPath().resolve("blob");
+    progressPath = folder.getRoot().toPath().resolve("blob" + FileDownload.PROGRESS_SUFFIX);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(optionsMock, storageRpcMock);
+  }
+
+  private static StorageObject metadata() {
+    return BLOB_ID.toPb().setGeneration(GENERATION).setSize(BigInteger.valueOf(CONTENT.length))
+        .setCrc32c(crc32c(CONTENT));
+  }
+
+  private static String crc32c(byte[] content) {
+    return BaseEncoding.base64().encode(
+        Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+  }
+
+  private static IAnswer<Integer> fill(final AtomicInteger requests) {
+    return new IAnswer<Integer>() {
+      @Override
+      public Integer answer() throws Throwable {
+        requests.incrementAndGet();
+        long position = (Long) EasyMock.getCurrentArguments()[2];
+        ByteBuffer buffer = (ByteBuffer) EasyMock.getCurrentArguments()[3];
+        int length = (int) Math.min(buffer.remaining(), CONTENT.length - position);
+        buffer.put(CONTENT, (int) position, length);
+        return length;
+      }
+    };
+  }
+
+  private FileDownload download() {
+    return new FileDownload(optionsMock, BLOB_ID, EMPTY_RPC_OPTIONS, path, CHUNK_SIZE);
+  }
+
+  @Test
+  public void testDownload() throws IOException {
+    AtomicInteger requests = new AtomicInteger();
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata());
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()),
+        EasyMock.eq(PINNED_RPC_OPTIONS), EasyMock.anyLong(), EasyMock.anyObject(ByteBuffer.class)))
+        .andAnswer(fill(requests)).times(5);
+    EasyMock.replay(storageRpcMock);
+    BlobInfo blob = download().run();
+    assertEquals(GENERATION, blob.generation().longValue());
+    assertEquals(5, requests.get());
+    assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    assertFalse(Files.exists(progressPath));
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    AtomicInteger requests = new AtomicInteger();
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn(metadata()).times(2);
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()),
+        EasyMock.eq(PINNED_RPC_OPTIONS), EasyMock.eq(3L * CHUNK_SIZE),
+        EasyMock.anyObject(ByteBuffer.class)))
+        .andThrow(new StorageException(503, "Service unavailable", false));
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()),
+        EasyMock.eq(PINNED_RPC_OPTIONS), EasyMock.anyLong(), EasyMock.anyObject(ByteBuffer.class)))
+        .andAnswer(fill(requests)).times(5);
+    EasyMock.replay(storageRpcMock);
+    try {
+      download().run();
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertEquals(503, ex.code());
+    }
+    assertTrue(Files.exists(progressPath));
+    assertEquals(CONTENT.length, Files.size(path));
+    int fetched = requests.get();
+    download().run();
+    assertEquals(5, requests.get());
+    assertTrue(fetched <= 4);
+    assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    assertFalse(Files.exists(progressPath));
+  }
+
+  @Test
+  public void testRestartWhenBlobChanged() throws IOException {
+    Files.write(path, new byte[CONTENT.length]);
+    ByteBuffer state = ByteBuffer.allocate(20 + 5);
+    state.putLong(GENERATION - 1).putLong(CONTENT.length).putInt(CHUNK_SIZE);
+    Arrays.fill(state.array(), 20, 25, (byte) 1);
+    Files.write(progressPath, state.array());
+    AtomicInteger requests = new AtomicInteger();
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata());
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()),
+        EasyMock.eq(PINNED_RPC_OPTIONS), EasyMock.anyLong(), EasyMock.anyObject(ByteBuffer.class)))
+        .andAnswer(fill(requests)).times(5);
+    EasyMock.replay(storageRpcMock);
+    download().run();
+    assertEquals(5, requests.get());
+    assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    assertFalse(Files.exists(progressPath));
+  }
+
+  @Test
+  public void testChecksumMismatch() throws IOException {
+    StorageObject metadata = metadata().setCrc32c(crc32c(new byte[CONTENT.length]));
+    AtomicInteger requests = new AtomicInteger();
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_ID.toPb()),
+        EasyMock.eq(PINNED_RPC_OPTIONS), EasyMock.anyLong(), EasyMock.anyObject(ByteBuffer.class)))
+        .andAnswer(fill(requests)).times(5);
+    EasyMock.replay(storageRpcMock);
+    try {
+      download().run();
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertTrue(ex.getMessage().contains("does not match"));
+      assertFalse(ex.retryable());
+    }
+    // the next download starts over rather than trusting the chunks of this one
+    assertFalse(Files.exists(progressPath));
+  }
+
+  @Test
+  public void testDownloadEncoded() throws IOException {
+    Files.write(path, new byte[10 * CONTENT.length]);
+    StorageObject metadata = metadata().setContentEncoding("gzip");
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    EasyMock.expect(storageRpcMock.openStream(BLOB_ID.toPb(), PINNED_RPC_OPTIONS))
+        .andReturn(new ByteArrayInputStream(CONTENT));
+    EasyMock.replay(storageRpcMock);
+    download().run();
+    assertArrayEquals(CONTENT, Files.readAllBytes(path));
+    assertFalse(Files.exists(progressPath));
+  }
+
+  @Test
+  public void testDownloadEmpty() throws IOException {
+    StorageObject metadata = metadata().setSize(BigInteger.ZERO).setCrc32c(crc32c(new byte[0]));
+    EasyMock.expect(storageRpcMock.get(BLOB_ID.toPb(), EMPTY_RPC_OPTIONS)).andReturn(metadata);
+    EasyMock.replay(storageRpcMock);
+    download().run();
+    assertEquals(0, Files.size(path));
+    assertFalse(Files.exists(progressPath));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class GzipCompressingInputStreamTest {
+
+  private static byte[] compress(byte[] content) throws IOException {
+    try (InputStream stream = new GzipCompressingInputStream(new ByteArrayInputStream(content))) {
+      return ByteStreams.toByteArray(stream);
+    }
+  }
+
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    return ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertArrayEquals(new byte[0], decompress(compress(new byte[0])));
+  }
+
+  @Test
+  public void testCompressible() throws IOException {
+    byte[] content = new byte[1024 * 1024];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) ('a' + i % 7);
+    }
+    byte[] compressed = compress(content);
+    assertTrue(compressed.length < content.length / 10);
+    assertArrayEquals(content, decompress(compressed));
+  }
+
+  @Test
+  public void testIncompressible() throws IOException {
+    byte[] content = new byte[300 * 1024];
+    new Random(42).nextBytes(content);
+    assertArrayEquals(content, decompress(compress(content)));
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    byte[] content = "gzip content".getBytes("UTF-8");
+    InputStream stream = new GzipCompressingInputStream(new ByteArrayInputStream(content));
+    byte[] compressed = new byte[1024];
+    int length = 0;
+    int read;
+    while ((read = stream.read()) >= 0) {
+      compressed[length++] = (byte) read;
+    }
+    assertEquals(-1, stream.read());
+    stream.close();
+    assertArrayEquals(content, decompress(Arrays.copyOf(compressed, length)));
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class PageIteratorTest {
+
+  private static final class QueueExecutor implements Executor {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    int runAll() {
+      int count = 0;
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+        count++;
+      }
+      return count;
+    }
+  }
+
+  private static BaseListResult<String> pages(final int page, final int count) {
+    BaseListResult.NextPageFetcher<String> fetcher = new BaseListResult.NextPageFetcher<String>() {
+      @Override
+      public ListResult<String> nextPage() {
+        if (page == -1) {
+          throw new StorageException(500, "Internal error", true);
+        }
+        return pages(page + 1, count);
+      }
+    };
+    String cursor = page + 1 < count ? "c" + page : null;
+    return new BaseListResult<>(fetcher, cursor, ImmutableList.of(page + "a", page + "b"));
+  }
+
+  @Test
+  public void testIterateAll() {
+    Iterator<String> iterator =
+        new PageIterator<>(pages(0, 3), MoreExecutors.directExecutor(), 1);
+    assertEquals(ImmutableList.of("0a", "0b", "1a", "1b", "2a", "2b"),
+        ImmutableList.copyOf(iterator));
+  }
+
+  @Test
+  public void testPrefetch() {
+    QueueExecutor executor = new QueueExecutor();
+    Iterator<String> iterator = new PageIterator<>(pages(0, 10), executor, 2);
+    // the following pages are requested before the first one is consumed
+    assertEquals(2, executor.runAll());
+    assertEquals("0a", iterator.next());
+    assertEquals("0b", iterator.next());
+    assertEquals(0, executor.runAll());
+    assertEquals("1a", iterator.next());
+    assertEquals(1, executor.runAll());
+  }
+
+  @Test
+  public void testNoPrefetch() {
+    QueueExecutor executor = new QueueExecutor();
+    Iterator<String> iterator = new PageIterator<>(pages(0, 2), executor, 0);
+    assertEquals("0a", iterator.next());
+    assertEquals("0b", iterator.next());
+    assertEquals(0, executor.runAll());
+  }
+
+  @Test
+  public void testLastPage() {
+    Iterator<String> iterator =
+        new PageIterator<>(pages(0, 1), MoreExecutors.directExecutor(), 3);
+    assertTrue(iterator.hasNext());
+    assertEquals(ImmutableList.of("0a", "0b"), ImmutableList.copyOf(iterator));
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testFailedPage() {
+    Iterator<String> iterator =
+        new PageIterator<>(pages(-1, 2), MoreExecutors.directExecutor(), 1);
+    assertEquals("-1a", iterator.next());
+    assertEquals("-1b", iterator.next());
+    try {
+      iterator.next();
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertEquals(500, ex.code());
+    }
+  }
+}
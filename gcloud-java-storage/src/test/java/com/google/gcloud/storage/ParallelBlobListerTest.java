@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+import com.google.gcloud.RetryParams;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.spi.StorageRpc;
+import com.google.gcloud.spi.StorageRpc.Tuple;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class ParallelBlobListerTest {
+
+  private static final String BUCKET = "b";
+  private static final int PAGE_SIZE = 2;
+  private static final List<String> NAMES = ImmutableList.of("a", "b/1", "b/2", "b/3", "b/c/1",
+      "b/c/2", "c", "d/1", "d/e/f/1", "e/1", "e/2", "f");
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+
+  private ScheduledExecutorService executor;
+  private StorageOptions optionsMock;
+  private StorageRpc storageRpcMock;
+
+  /**
+   * Lists {@link #NAMES} as the service would, pages of {@link #PAGE_SIZE} blobs and prefixes.
+   */
+  private static final class ListAnswer
+      implements IAnswer<Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>>> {
+
+    @Override
+    public Tuple<String, Tuple<Iterable<StorageObject>, Iterable<String>>> answer() {
+      @SuppressWarnings("unchecked")
+      Map<StorageRpc.Option, ?> options =
+          (Map<StorageRpc.Option, ?>) EasyMock.getCurrentArguments()[1];
+      String prefix = (String) options.get(StorageRpc.Option.PREFIX);
+      String delimiter = (String) options.get(StorageRpc.Option.DELIMITER);
+      String pageToken = (String) options.get(StorageRpc.Option.PAGE_TOKEN);
+      Set<String> entries = new TreeSet<>();
+      for (String name : NAMES) {
+        if (!name.startsWith(prefix)) {
+          continue;
+        }
+        int index = delimiter == null ? -1 : name.indexOf(delimiter, prefix.length());
+        entries.add(index < 0 ? name : name.substring(0, index + delimiter.length()));
+      }
+      List<StorageObject> objects = new ArrayList<>();
+      List<String> prefixes = new ArrayList<>();
+      String last = null;
+      for (String entry : entries) {
+        if (pageToken != null && entry.compareTo(pageToken) <= 0) {
+          continue;
+        }
+        if (objects.size() + prefixes.size() == PAGE_SIZE) {
+          return Tuple.<String, Tuple<Iterable<StorageObject>, Iterable<String>>>of(last,
+              Tuple.<Iterable<StorageObject>, Iterable<String>>of(objects, prefixes));
+        }
+        if (delimiter != null && entry.endsWith(delimiter)) {
+          prefixes.add(entry);
+        } else {
+          objects.add(BlobId.of(BUCKET, entry).toPb());
+        }
+        last = entry;
+      }
+      return Tuple.<String, Tuple<Iterable<StorageObject>, Iterable<String>>>of(null,
+          Tuple.<Iterable<StorageObject>, Iterable<String>>of(objects, prefixes));
+    }
+  }
+
+  @Before
+  public void setUp() {
+    executor = Executors.newScheduledThreadPool(4);
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    optionsMock = EasyMock.createMock(StorageOptions.class);
+    EasyMock.expect(optionsMock.storageRpc()).andStubReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.pathDelimiter()).andStubReturn("/");
+    EasyMock.expect(optionsMock.executorFactory()).andStubReturn(
+        new ServiceOptions.ExecutorFactory() {
+          @Override
+          public ScheduledExecutorService get() {
+            return executor;
+          }
+        });
+    EasyMock.replay(optionsMock);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    EasyMock.verify(storageRpcMock);
+  }
+
+  private Iterator<BlobInfo> list(boolean ordered, int maxShards, int maxBuffered) {
+    return new ParallelBlobLister(BUCKET, optionsMock, EMPTY_RPC_OPTIONS, RetryParams.noRetries(),
+        ordered, 3, maxShards, maxBuffered);
+  }
+
+  private static List<String> names(Iterator<BlobInfo> blobs) {
+    List<String> names = new ArrayList<>();
+    while (blobs.hasNext()) {
+      names.add(blobs.next().name());
+    }
+    return names;
+  }
+
+  private void expectList() {
+    EasyMock.expect(storageRpcMock.listWithPrefixes(EasyMock.eq(BUCKET),
+        EasyMock.<Map<StorageRpc.Option, ?>>anyObject())).andAnswer(new ListAnswer()).anyTimes();
+    EasyMock.replay(storageRpcMock);
+  }
+
+  @Test
+  public void testOrdered() {
+    expectList();
+    assertEquals(NAMES, names(list(true, 4, 100)));
+    assertEquals(NAMES, names(list(true, 100, 1)));
+  }
+
+  @Test
+  public void testSingleShard() {
+    expectList();
+    assertEquals(NAMES, names(list(true, 1, 100)));
+  }
+
+  @Test
+  public void testUnordered() {
+    expectList();
+    List<String> names = names(list(false, 4, 100));
+    assertEquals(NAMES, Ordering.natural().sortedCopy(names));
+    names = names(list(false, 100, 1));
+    assertEquals(NAMES, Ordering.natural().sortedCopy(names));
+  }
+
+  @Test
+  public void testFailure() {
+    EasyMock.expect(storageRpcMock.listWithPrefixes(EasyMock.eq(BUCKET),
+        EasyMock.<Map<StorageRpc.Option, ?>>anyObject()))
+        .andThrow(new StorageException(403, "Forbidden", false));
+    EasyMock.replay(storageRpcMock);
+    Iterator<BlobInfo> blobs = list(true, 4, 100);
+    try {
+      blobs.hasNext();
+      fail("Expected StorageException");
+    } catch (StorageException ex) {
+      assertEquals(403, ex.code());
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gcloud.ServiceOptions;
+import com.google.gcloud.spi.StorageRpc;
+import com.google.gcloud.spi.StorageRpc.Tuple;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class RateLimitingStorageRpcTest {
+
+  private static final Map<StorageRpc.Option, ?> EMPTY_RPC_OPTIONS = ImmutableMap.of();
+  private static final StorageObject OBJECT1 = BlobId.of("b1", "n").toPb();
+  private static final StorageObject OBJECT2 = BlobId.of("b2", "n").toPb();
+  private static final double DELTA = 1e-9;
+
+  private StorageRpc storageRpcMock;
+  private FakeClock clock;
+
+  private static final class FakeClock extends ServiceOptions.Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    clock = new FakeClock();
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(storageRpcMock);
+  }
+
+  private void getAndFail(StorageRpc rpc, int code) {
+    try {
+      rpc.get(OBJECT1, EMPTY_RPC_OPTIONS);
+      fail("StorageException expected");
+    } catch (StorageException ex) {
+      assertEquals(code, ex.code());
+    }
+  }
+
+  @Test
+  public void testThrottledHalvesRate() {
+    EasyMock.expect(storageRpcMock.get(OBJECT1, EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(503, "Service Unavailable", true));
+    EasyMock.expect(storageRpcMock.get(OBJECT1, EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(429, "Too Many Requests", true)).times(2);
+    EasyMock.replay(storageRpcMock);
+    RateLimitingStorageRpc rpc = new RateLimitingStorageRpc(storageRpcMock, 100, clock);
+    getAndFail(rpc, 503);
+    assertEquals(50, rpc.rates().get("b1"), DELTA);
+    clock.millis = 999;
+    getAndFail(rpc, 429);
+    assertEquals(50, rpc.rates().get("b1"), DELTA);
+    clock.millis = 1999;
+    getAndFail(rpc, 429);
+    assertEquals(25, rpc.rates().get("b1"), DELTA);
+  }
+
+  @Test
+  public void testOtherErrorsKeepRate() {
+    EasyMock.expect(storageRpcMock.get(OBJECT1, EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(404, "Not Found", false));
+    EasyMock.replay(storageRpcMock);
+    RateLimitingStorageRpc rpc = new RateLimitingStorageRpc(storageRpcMock, 100, clock);
+    getAndFail(rpc, 404);
+    assertEquals(ImmutableMap.of("b1", 100.0), rpc.rates());
+  }
+
+  @Test
+  public void testMinimumRate() {
+    EasyMock.expect(storageRpcMock.get(OBJECT1, EMPTY_RPC_OPTIONS))
+        .andThrow(new StorageException(503, "Service Unavailable", true));
+    EasyMock.replay(storageRpcMock);
+    RateLimitingStorageRpc rpc = new RateLimitingStorageRpc(storageRpcMock, 1.5, clock);
+    getAndFail(rpc, 503);
+    assertEquals(1.0, rpc.rates().get("b1"), DELTA);
+  }
+
+  @Test
+  public void testLimitedSuccessesIncreaseRate() {
+    EasyMock.expect(storageRpcMock.get(OBJECT1, EMPTY_RPC_OPTIONS)).andReturn(OBJECT1).times(4);
+    Tuple<String, Iterable<Bucket>> buckets =
+        Tuple.<String, Iterable<Bucket>>of(null, ImmutableList.<Bucket>of());
+    EasyMock.expect(storageRpcMock.list(EMPTY_RPC_OPTIONS)).andReturn(buckets);
+    EasyMock.replay(storageRpcMock);
+    RateLimitingStorageRpc rpc = new RateLimitingStorageRpc(storageRpcMock, 20, clock);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(OBJECT1, rpc.get(OBJECT1, EMPTY_RPC_OPTIONS));
+    }
+    assertEquals(buckets, rpc.list(EMPTY_RPC_OPTIONS));
+    Map<String, Double> rates = rpc.rates();
+    assertTrue(rates.get("b1") > 20);
+    assertEquals(20, rates.get(RateLimitingStorageRpc.SERVICE_KEY), DELTA);
+  }
+
+  @Test
+  public void testBatch() {
+    StorageRpc.BatchRequest request = new StorageRpc.BatchRequest(
+        ImmutableList.<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>of(),
+        ImmutableList.<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>of(),
+        ImmutableList.<Tuple<StorageObject, Map<StorageRpc.Option, ?>>>of(
+            Tuple.<StorageObject, Map<StorageRpc.Option, ?>>of(OBJECT1, EMPTY_RPC_OPTIONS),
+            Tuple.<StorageObject, Map<StorageRpc.Option, ?>>of(OBJECT2, EMPTY_RPC_OPTIONS)));
+    StorageRpc.BatchResponse response = new StorageRpc.BatchResponse(
+        ImmutableMap.<StorageObject, Tuple<Boolean, StorageException>>of(),
+        ImmutableMap.<StorageObject, Tuple<StorageObject, StorageException>>of(),
+        ImmutableMap.<StorageObject, Tuple<StorageObject, StorageException>>of(
+            OBJECT1, Tuple.<StorageObject, StorageException>of(
+                null, new StorageException(429, "Too Many Requests", true)),
+            OBJECT2, Tuple.<StorageObject, StorageException>of(OBJECT2, null)));
+    EasyMock.expect(storageRpcMock.batch(request)).andReturn(response);
+    EasyMock.replay(storageRpcMock);
+    RateLimitingStorageRpc rpc = new RateLimitingStorageRpc(storageRpcMock, 100, clock);
+    assertEquals(response, rpc.batch(request));
+    assertEquals(ImmutableMap.of("b1", 50.0, "b2", 100.0), rpc.rates());
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.gcloud.storage;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RpcLatenciesTest {
+
+  @Test
+  public void testReadSizeClasses() {
+    RpcLatencies latencies = new RpcLatencies();
+    assertSame(latencies.reads(0), latencies.reads(1));
+    assertSame(latencies.reads(1024), latencies.reads(513));
+    assertNotSame(latencies.reads(1024), latencies.reads(1025));
+    assertSame(latencies.reads(2 * 1024 * 1024), latencies.reads(1024 * 1024 + 1));
+    assertSame(latencies.reads(Integer.MAX_VALUE), latencies.reads(Integer.MAX_VALUE - 1));
+  }
+}
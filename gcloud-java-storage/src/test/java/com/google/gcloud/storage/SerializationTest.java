@@ -18,8 +18,10 @@ package com.google.gcloud.storage;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import com.google.gcloud.AuthCredentials;
+import com.google.gcloud.PooledHttpTransportFactory;
 import com.google.gcloud.RetryParams;
 import com.google.gcloud.storage.Acl.Project.ProjectRole;
 
@@ -84,6 +86,24 @@ public class SerializationTest {
     assertEquals(options, serializedCopy);
   }
 
+  @Test
+  public void testSharedRpc() throws Exception {
+    StorageOptions options = StorageOptions.builder()
+        .projectId("p3")
+        .authCredentials(AuthCredentials.noCredentials())
+        .httpTransportFactory(PooledHttpTransportFactory.builder().build())
+        .build();
+    StorageOptions serializedCopy = serializeAndDeserialize(options);
+    assertSame(options.storageRpc(), serializedCopy.storageRpc());
+    assertSame(options.storageRpc(), options.toBuilder().build().storageRpc());
+    assertNotSame(options.storageRpc(), options.toBuilder().projectId("p4").build().storageRpc());
+    assertSame(options.httpTransportFactory().create(),
+        serializedCopy.httpTransportFactory().create());
+    assertSame(options.bufferPool(), serializedCopy.bufferPool());
+    assertSame(options.bufferPool(), options.toBuilder().build().bufferPool());
+    assertSame(options.latencies(), serializedCopy.latencies());
+  }
+
   @Test
   public void testModelAndRequests() throws Exception {
     Serializable[] objects = {ACL_DOMAIN, ACL_GROUP, ACL_PROJECT_, ACL_USER, ACL_RAW, BLOB_INFO,
@@ -31,6 +31,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.gcloud.AuthCredentials.ServiceAccountAuthCredentials;
 import com.google.gcloud.RetryParams;
 import com.google.gcloud.ServiceOptions;
@@ -39,20 +40,26 @@ import com.google.gcloud.spi.StorageRpc.Tuple;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -64,9 +71,17 @@ import java.security.spec.EncodedKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 public class StorageImplTest {
 
@@ -77,6 +92,14 @@ public class StorageImplTest {
   private static final String BLOB_NAME3 = "n3";
   private static final byte[] BLOB_CONTENT = {0xD, 0xE, 0xA, 0xD};
   private static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+  private static final ScheduledExecutorService EXECUTOR = Executors.newScheduledThreadPool(2);
+  private static final ServiceOptions.ExecutorFactory EXECUTOR_FACTORY =
+      new ServiceOptions.ExecutorFactory() {
+        @Override
+        public ScheduledExecutorService get() {
+          return EXECUTOR;
+        }
+      };
 
   // BucketInfo objects
   private static final BucketInfo BUCKET_INFO1 =
@@ -190,6 +213,9 @@ public class StorageImplTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @BeforeClass
   public static void beforeClass() throws NoSuchAlgorithmException, InvalidKeySpecException {
     KeyFactory keyFactory = KeyFactory.getInstance("RSA");
@@ -205,6 +231,8 @@ public class StorageImplTest {
   public void setUp() throws IOException, InterruptedException {
     optionsMock = EasyMock.createMock(StorageOptions.class);
     storageRpcMock = EasyMock.createMock(StorageRpc.class);
+    EasyMock.expect(optionsMock.gzipContent()).andStubReturn(false);
+    EasyMock.expect(optionsMock.validateChecksums()).andStubReturn(false);
   }
 
   @After
@@ -320,6 +348,118 @@ public class StorageImplTest {
     assertEquals(BLOB_INFO1, blob);
   }
 
+  @Test
+  public void testCreateBlobGzipContent() throws IOException {
+    EasyMock.expect(optionsMock.gzipContent()).andReturn(true);
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    BlobInfo gzipBlobInfo = BLOB_INFO1.toBuilder().contentEncoding("gzip").md5(null).build();
+    Capture<InputStream> capturedStream = Capture.newInstance();
+    EasyMock.expect(storageRpcMock.create(EasyMock.eq(gzipBlobInfo.toPb()),
+        EasyMock.capture(capturedStream), EasyMock.eq(EMPTY_RPC_OPTIONS)))
+        .andReturn(gzipBlobInfo.toPb());
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    BlobInfo blob = storage.create(BLOB_INFO1, BLOB_CONTENT);
+    assertEquals(gzipBlobInfo, blob);
+    InputStream decompressed = new GZIPInputStream(capturedStream.getValue());
+    assertArrayEquals(BLOB_CONTENT, ByteStreams.toByteArray(decompressed));
+  }
+
+  @Test
+  public void testUploadDirect() throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, BLOB_CONTENT);
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.compositeUploadThreshold()).andReturn(0L);
+    EasyMock.expect(optionsMock.directUploadThreshold()).andReturn(1024L);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.builder()
+        .retryMinAttempts(2).retryMaxAttempts(2).initialRetryDelayMillis(1)
+        .maxRetryDelayMillis(1).build());
+    final List<byte[]> uploaded = new ArrayList<>();
+    IAnswer<StorageObject> upload = new IAnswer<StorageObject>() {
+      @Override
+      public StorageObject answer() throws Throwable {
+        InputStream content = (InputStream) EasyMock.getCurrentArguments()[1];
+        uploaded.add(ByteStreams.toByteArray(content));
+        if (uploaded.size() == 1) {
+          throw new StorageException(503, "unavailable", true);
+        }
+        return BLOB_INFO1.toPb();
+      }
+    };
+    EasyMock.expect(storageRpcMock.create(EasyMock.eq(BLOB_INFO1.toPb()),
+        EasyMock.anyObject(InputStream.class), EasyMock.eq(EMPTY_RPC_OPTIONS)))
+        .andAnswer(upload).times(2);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    assertEquals(BLOB_INFO1, storage.upload(BLOB_INFO1, file));
+    // the retried request uploads the whole file again
+    assertEquals(2, uploaded.size());
+    assertArrayEquals(BLOB_CONTENT, uploaded.get(0));
+    assertArrayEquals(BLOB_CONTENT, uploaded.get(1));
+  }
+
+  @Test
+  public void testUploadDirectGzipContent() throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, BLOB_CONTENT);
+    EasyMock.expect(optionsMock.gzipContent()).andReturn(true);
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.compositeUploadThreshold()).andReturn(0L);
+    EasyMock.expect(optionsMock.directUploadThreshold()).andReturn(1024L);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.builder()
+        .retryMinAttempts(2).retryMaxAttempts(2).initialRetryDelayMillis(1)
+        .maxRetryDelayMillis(1).build());
+    BlobInfo gzipBlobInfo = BLOB_INFO1.toBuilder().contentEncoding("gzip").md5(null).build();
+    final List<byte[]> uploaded = new ArrayList<>();
+    IAnswer<StorageObject> upload = new IAnswer<StorageObject>() {
+      @Override
+      public StorageObject answer() throws Throwable {
+        InputStream content = (InputStream) EasyMock.getCurrentArguments()[1];
+        uploaded.add(ByteStreams.toByteArray(new GZIPInputStream(content)));
+        if (uploaded.size() == 1) {
+          throw new StorageException(503, "unavailable", true);
+        }
+        return BLOB_INFO1.toPb();
+      }
+    };
+    EasyMock.expect(storageRpcMock.create(EasyMock.eq(gzipBlobInfo.toPb()),
+        EasyMock.anyObject(InputStream.class), EasyMock.eq(EMPTY_RPC_OPTIONS)))
+        .andAnswer(upload).times(2);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    assertEquals(BLOB_INFO1, storage.upload(BLOB_INFO1, file));
+    // the retried request compresses the whole file again
+    assertEquals(2, uploaded.size());
+    assertArrayEquals(BLOB_CONTENT, uploaded.get(0));
+    assertArrayEquals(BLOB_CONTENT, uploaded.get(1));
+  }
+
+  @Test
+  public void testUploadResumable() throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, BLOB_CONTENT);
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
+    EasyMock.expect(optionsMock.compositeUploadThreshold()).andReturn(0L);
+    EasyMock.expect(optionsMock.directUploadThreshold()).andReturn(0L);
+    EasyMock.expect(optionsMock.bufferPool()).andStubReturn(new BufferPool(0));
+    EasyMock.expect(optionsMock.retryParams()).andStubReturn(RetryParams.noRetries());
+    EasyMock.expect(storageRpcMock.open(BLOB_INFO1.toPb(), EMPTY_RPC_OPTIONS))
+        .andReturn("upload-id");
+    Capture<byte[]> capturedChunk = Capture.newInstance();
+    storageRpcMock.write(EasyMock.eq("upload-id"), EasyMock.capture(capturedChunk),
+        EasyMock.eq(0), EasyMock.eq(BLOB_INFO1.toPb()), EasyMock.eq(0L),
+        EasyMock.eq(BLOB_CONTENT.length), EasyMock.eq(true));
+    // the blob is described by the response completing the upload, not fetched again
+    EasyMock.expectLastCall().andReturn(BLOB_INFO1.toPb());
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    assertEquals(BLOB_INFO1, storage.upload(BLOB_INFO1, file));
+    assertArrayEquals(BLOB_CONTENT,
+        Arrays.copyOf(capturedChunk.getValue(), BLOB_CONTENT.length));
+  }
+
   @Test
   public void testGetBucket() {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
@@ -373,6 +513,23 @@ public class StorageImplTest {
     assertEquals(BLOB_INFO1, blob);
   }
 
+  @Test
+  public void testGetBlobWithSelectedFields() {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    Map<StorageRpc.Option, ?> options = ImmutableMap.of(
+        StorageRpc.Option.FIELDS, "bucket,name,size",
+        StorageRpc.Option.PROJECTION, "noAcl");
+    EasyMock.expect(storageRpcMock.get(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb(), options))
+        .andReturn(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb().setSize(BigInteger.TEN));
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    BlobInfo blob = storage.get(BUCKET_NAME1, BLOB_NAME1,
+        Storage.BlobSourceOption.fields(Storage.BlobField.SIZE, Storage.BlobField.NAME),
+        Storage.BlobSourceOption.noAcl());
+    assertEquals(BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).size(10L).build(), blob);
+  }
+
   @Test
   public void testListBuckets() {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
@@ -467,6 +624,24 @@ public class StorageImplTest {
     assertArrayEquals(blobList.toArray(), Iterables.toArray(listResult, BlobInfo.class));
   }
 
+  @Test
+  public void testListBlobsWithSelectedFields() {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    Map<StorageRpc.Option, ?> options =
+        ImmutableMap.of(StorageRpc.Option.FIELDS, "bucket,name,generation");
+    Tuple<String, Iterable<com.google.api.services.storage.model.StorageObject>> result =
+        Tuple.<String, Iterable<com.google.api.services.storage.model.StorageObject>>of(null,
+            ImmutableList.of(BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb().setGeneration(1L)));
+    EasyMock.expect(storageRpcMock.list(BUCKET_NAME1, options)).andReturn(result);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    ListResult<BlobInfo> listResult = storage.list(BUCKET_NAME1,
+        Storage.BlobListOption.fields(Storage.BlobField.GENERATION));
+    assertArrayEquals(new BlobInfo[] {BlobInfo.builder(BUCKET_NAME1, BLOB_NAME1).generation(1L)
+        .build()}, Iterables.toArray(listResult, BlobInfo.class));
+  }
+
   @Test
   public void testUpdateBucket() {
     BucketInfo updatedBucketInfo = BUCKET_INFO1.toBuilder().indexPage("some-page").build();
@@ -638,6 +813,34 @@ public class StorageImplTest {
     assertEquals(BLOB_INFO1, blob);
   }
 
+  @Test
+  public void testRewrite() {
+    Storage.CopyRequest req = Storage.CopyRequest.builder()
+        .source(BUCKET_NAME1, BLOB_NAME2)
+        .target(BLOB_INFO1)
+        .megabytesCopiedPerChunk(1L)
+        .build();
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    EasyMock.expect(storageRpcMock.rewrite(BLOB_INFO2.toPb(), EMPTY_RPC_OPTIONS,
+        BLOB_INFO1.toPb(), EMPTY_RPC_OPTIONS, null, 1024L * 1024))
+        .andReturn(new StorageRpc.RewriteResponse(null, 42L, 21L, "token", false));
+    EasyMock.expect(storageRpcMock.rewrite(BLOB_INFO2.toPb(), EMPTY_RPC_OPTIONS,
+        BLOB_INFO1.toPb(), EMPTY_RPC_OPTIONS, "token", 1024L * 1024))
+        .andReturn(new StorageRpc.RewriteResponse(BLOB_INFO1.toPb(), 42L, 42L, null, true));
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    CopyWriter copyWriter = storage.rewrite(req);
+    assertEquals(42L, copyWriter.blobSize());
+    assertEquals(21L, copyWriter.totalBytesCopied());
+    assertEquals("token", copyWriter.rewriteToken());
+    assertTrue(!copyWriter.isDone());
+    assertEquals(BLOB_INFO1, copyWriter.result());
+    assertEquals(42L, copyWriter.totalBytesCopied());
+    assertNull(copyWriter.rewriteToken());
+    assertTrue(copyWriter.isDone());
+  }
+
   @Test
   public void testReadAllBytes() {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
@@ -707,6 +910,7 @@ public class StorageImplTest {
         new StorageRpc.BatchResponse(deleteResult, updateResult, getResult);
 
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
     Capture<StorageRpc.BatchRequest> capturedBatchRequest = Capture.newInstance();
     EasyMock.expect(storageRpcMock.batch(EasyMock.capture(capturedBatchRequest))).andReturn(res);
     EasyMock.replay(optionsMock, storageRpcMock);
@@ -745,6 +949,96 @@ public class StorageImplTest {
     }
   }
 
+  @Test
+  public void testApplySplit() {
+    int deleteCount = StorageImpl.MAX_BATCH_SIZE + 50;
+    BatchRequest.Builder builder = BatchRequest.builder();
+    for (int i = 0; i < deleteCount; i++) {
+      builder.delete(BUCKET_NAME1, "n" + i);
+    }
+    BatchRequest req = builder.get(BUCKET_NAME1, BLOB_NAME1).build();
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.executorFactory()).andReturn(EXECUTOR_FACTORY);
+    EasyMock.expect(optionsMock.batchParallelism()).andReturn(2);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries()).times(2);
+    EasyMock.expect(storageRpcMock.batch(EasyMock.anyObject(StorageRpc.BatchRequest.class)))
+        .andAnswer(new IAnswer<StorageRpc.BatchResponse>() {
+          @Override
+          public StorageRpc.BatchResponse answer() {
+            StorageRpc.BatchRequest request =
+                (StorageRpc.BatchRequest) EasyMock.getCurrentArguments()[0];
+            assertTrue(request.toDelete.size() + request.toGet.size()
+                <= StorageImpl.MAX_BATCH_SIZE);
+            Map<StorageObject, Tuple<Boolean, StorageException>> deletes = Maps.newHashMap();
+            for (Tuple<StorageObject, ?> delete : request.toDelete) {
+              int index = Integer.parseInt(delete.x().getName().substring(1));
+              deletes.put(delete.x(), index % 2 == 0
+                  ? Tuple.<Boolean, StorageException>of(true, null)
+                  : Tuple.<Boolean, StorageException>of(null,
+                      new StorageException(403, "forbidden", false)));
+            }
+            Map<StorageObject, Tuple<StorageObject, StorageException>> gets = Maps.newHashMap();
+            for (Tuple<StorageObject, ?> get : request.toGet) {
+              gets.put(get.x(), Tuple.<StorageObject, StorageException>of(BLOB_INFO1.toPb(), null));
+            }
+            return new StorageRpc.BatchResponse(deletes,
+                ImmutableMap.<StorageObject, Tuple<StorageObject, StorageException>>of(), gets);
+          }
+        }).times(2);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    BatchResponse batchResponse = storage.apply(req);
+    assertEquals(deleteCount, batchResponse.deletes().size());
+    for (int i = 0; i < deleteCount; i++) {
+      BatchResponse.Result<Boolean> result = batchResponse.deletes().get(i);
+      assertEquals(i % 2 != 0, result.failed());
+    }
+    assertEquals(1, batchResponse.gets().size());
+    assertEquals(BLOB_INFO1, batchResponse.gets().get(0).get());
+  }
+
+  @Test
+  public void testApplyRetry() {
+    BatchRequest req = BatchRequest.builder()
+        .delete(BUCKET_NAME1, BLOB_NAME1)
+        .delete(BUCKET_NAME1, BLOB_NAME2)
+        .get(BUCKET_NAME1, BLOB_NAME3)
+        .build();
+    StorageObject delete1 = BlobId.of(BUCKET_NAME1, BLOB_NAME1).toPb();
+    StorageObject delete2 = BlobId.of(BUCKET_NAME1, BLOB_NAME2).toPb();
+    StorageObject get = BlobId.of(BUCKET_NAME1, BLOB_NAME3).toPb();
+    StorageException unavailable = new StorageException(503, "unavailable", true);
+    StorageException forbidden = new StorageException(403, "forbidden", false);
+    StorageRpc.BatchResponse firstResponse = new StorageRpc.BatchResponse(
+        ImmutableMap.of(delete1, Tuple.<Boolean, StorageException>of(null, unavailable),
+            delete2, Tuple.<Boolean, StorageException>of(null, forbidden)),
+        ImmutableMap.<StorageObject, Tuple<StorageObject, StorageException>>of(),
+        ImmutableMap.of(get, Tuple.<StorageObject, StorageException>of(null, unavailable)));
+    StorageRpc.BatchResponse secondResponse = new StorageRpc.BatchResponse(
+        ImmutableMap.of(delete1, Tuple.<Boolean, StorageException>of(true, null)),
+        ImmutableMap.<StorageObject, Tuple<StorageObject, StorageException>>of(),
+        ImmutableMap.of(get, Tuple.<StorageObject, StorageException>of(null, unavailable)));
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.builder()
+        .retryMinAttempts(2).retryMaxAttempts(2).initialRetryDelayMillis(1)
+        .maxRetryDelayMillis(1).build());
+    Capture<StorageRpc.BatchRequest> capturedRetry = Capture.newInstance();
+    EasyMock.expect(storageRpcMock.batch(EasyMock.anyObject(StorageRpc.BatchRequest.class)))
+        .andReturn(firstResponse);
+    EasyMock.expect(storageRpcMock.batch(EasyMock.capture(capturedRetry)))
+        .andReturn(secondResponse);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    BatchResponse batchResponse = storage.apply(req);
+    // only entries that failed with a retryable error are sent again
+    assertEquals(1, capturedRetry.getValue().toDelete.size());
+    assertEquals(delete1, capturedRetry.getValue().toDelete.get(0).x());
+    assertEquals(1, capturedRetry.getValue().toGet.size());
+    assertTrue(batchResponse.deletes().get(0).get());
+    assertSame(forbidden, batchResponse.deletes().get(1).failure());
+    assertSame(unavailable, batchResponse.gets().get(0).failure());
+  }
+
   @Test
   public void testReader() {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
@@ -759,10 +1053,12 @@ public class StorageImplTest {
   public void testReaderWithOptions() throws IOException {
     byte[] result = new byte[DEFAULT_CHUNK_SIZE];
     EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    EasyMock.expect(optionsMock.bufferPool()).andReturn(new BufferPool(0));
+    EasyMock.expect(optionsMock.contentCacheDirectory()).andReturn(null);
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
-    EasyMock.expect(
-        storageRpcMock.read(BLOB_INFO2.toPb(), BLOB_SOURCE_OPTIONS, 0, DEFAULT_CHUNK_SIZE))
-        .andReturn(result);
+    EasyMock.expect(storageRpcMock.read(EasyMock.eq(BLOB_INFO2.toPb()),
+        EasyMock.eq(BLOB_SOURCE_OPTIONS), EasyMock.eq(0L), EasyMock.anyObject(ByteBuffer.class)))
+        .andReturn(result.length);
     EasyMock.replay(optionsMock, storageRpcMock);
     storage = StorageFactory.instance().get(optionsMock);
     BlobReadChannel channel = storage.reader(BUCKET_NAME1, BLOB_NAME2, BLOB_SOURCE_GENERATION,
@@ -772,6 +1068,19 @@ public class StorageImplTest {
     channel.read(ByteBuffer.allocate(42));
   }
 
+  @Test
+  public void testResumeWriter() {
+    EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
+    EasyMock.expect(storageRpcMock.getUploadOffset("upload-id")).andReturn(42L);
+    EasyMock.replay(optionsMock, storageRpcMock);
+    storage = StorageFactory.instance().get(optionsMock);
+    BlobWriteChannel channel = storage.resumeWriter(BLOB_INFO1, "upload-id");
+    assertTrue(channel.isOpen());
+    assertEquals("upload-id", channel.uploadId());
+    assertEquals(42L, channel.committedOffset());
+  }
+
   @Test
   public void testWriter() {
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock).times(2);
@@ -891,6 +1200,7 @@ public class StorageImplTest {
         new StorageRpc.BatchResponse(deleteResult, updateResult, getResult);
 
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
     Capture<StorageRpc.BatchRequest> capturedBatchRequest = Capture.newInstance();
     EasyMock.expect(storageRpcMock.batch(EasyMock.capture(capturedBatchRequest))).andReturn(res);
     EasyMock.replay(optionsMock, storageRpcMock);
@@ -934,6 +1244,7 @@ public class StorageImplTest {
         new StorageRpc.BatchResponse(deleteResult, updateResult, getResult);
 
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
     Capture<StorageRpc.BatchRequest> capturedBatchRequest = Capture.newInstance();
     EasyMock.expect(storageRpcMock.batch(EasyMock.capture(capturedBatchRequest))).andReturn(res);
     EasyMock.replay(optionsMock, storageRpcMock);
@@ -977,6 +1288,7 @@ public class StorageImplTest {
         new StorageRpc.BatchResponse(deleteResult, updateResult, getResult);
 
     EasyMock.expect(optionsMock.storageRpc()).andReturn(storageRpcMock);
+    EasyMock.expect(optionsMock.retryParams()).andReturn(RetryParams.noRetries());
     Capture<StorageRpc.BatchRequest> capturedBatchRequest = Capture.newInstance();
     EasyMock.expect(storageRpcMock.batch(EasyMock.capture(capturedBatchRequest))).andReturn(res);
     EasyMock.replay(optionsMock, storageRpcMock);
@@ -1042,4 +1354,27 @@ public class StorageImplTest {
     thrown.expectMessage(exceptionMessage);
     storage.get(blob);
   }
+
+  @Test
+  public void testAwaitRunsQueuedTask() throws Exception {
+    EasyMock.replay(optionsMock, storageRpcMock);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // the executor's only thread waits for a task queued behind it
+      Future<String> outer = executor.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return StorageImpl.await(StorageImpl.submit(executor, new Callable<String>() {
+            @Override
+            public String call() {
+              return "inner";
+            }
+          }));
+        }
+      });
+      assertEquals("inner", outer.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }